@@ -0,0 +1,106 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups of account names missing from a vault of {@code entries} accounts in {@code SqliteVaultStore},
+ * which checks them against its account name filter before reading the vault (see {@code AccountNameFilter}).
+ *
+ * "lookupMissing" cycles through as many missing account names as there are entries. Along with the time, it reports
+ * the counters of the filter over each iteration (see {@code AccountNameFilterStats}): "filterRejected", the lookups
+ * the filter answered on its own, and "filterFalsePositives", the lookups it let through to the vault. Their ratio is
+ * the false-positive rate observed, to be compared with {@code Constants.ACCOUNT_NAME_FILTER_FALSE_POSITIVE_RATE}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountNameFilterBenchmark {
+    private static final String SQLITE_PRAGMAS =
+            "journal_mode=WAL;synchronous=NORMAL;mmap_size=268435456;cache_size=-8192;temp_store=MEMORY";
+
+    @Param({"1000", "100000"})
+    private int entries;
+
+    private Path directory;
+    private VaultStore vaultStore;
+    private String[] missingAccountNames;
+    private AccountNameFilterStats iterationStart;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory(Path.of("").toAbsolutePath(), "bix-benchmark");
+        vaultStore = new SqliteVaultStore("jdbc:sqlite:" + directory.resolve("vault.db"), SQLITE_PRAGMAS);
+        vaultStore.setup();
+
+        var page = new ArrayList<AccountEntry>(1000);
+        for (int i = 0; i < entries; i++) {
+            page.add(new AccountEntry(accountName(i), "nil", new byte[48], new byte[48], new byte[16], new byte[24],
+                    null, 2, CipherSuite.AES_GCM));
+            if (page.size() == 1000 || i == entries - 1) {
+                vaultStore.addAccounts(page);
+                page.clear();
+            }
+        }
+
+        missingAccountNames = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            missingAccountNames[i] = accountName(i) + "-missing";
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        iterationStart = vaultStore.getAccountNameFilterStats();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopIteration(FilterCounters counters) {
+        var stats = vaultStore.getAccountNameFilterStats();
+        counters.filterRejected = stats.rejected() - iterationStart.rejected();
+        counters.filterFalsePositives = stats.falsePositives() - iterationStart.falsePositives();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        vaultStore.purge();
+        vaultStore.close();
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Counters of the filter over an iteration, reported along with the time.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class FilterCounters {
+        public long filterRejected;
+        public long filterFalsePositives;
+    }
+
+    private static String accountName(int i) {
+        return String.format("account-%06d", i);
+    }
+
+    @Benchmark
+    public boolean lookupMissing() {
+        return vaultStore.accountExists(missingAccountNames[next++ % entries]);
+    }
+
+} // class AccountNameFilterBenchmark
@@ -0,0 +1,115 @@
+package bix.utils;
+
+import bix.exceptions.EntryAuthenticationFailedException;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static bix.utils.Constants.CIPHER_ALGORITHM;
+import static bix.utils.Constants.GCM_TAG_LENGTH;
+import static bix.utils.Constants.GCM_IV_LENGTH;
+
+/**
+ * Measures the per-operation overhead of provider lookups in {@code Crypto}.
+ *
+ * The "lookup" benchmarks reproduce the previous code path, which called {@code getInstance(..., "BC")} for every
+ * operation. The "reused" benchmarks re-initialise a single instance, the way the per-thread primitives in
+ * {@code Crypto} do. The "crypto" benchmarks measure the public {@code Crypto} operations end to end.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CryptoBenchmark {
+    private final SecureRandom random = new SecureRandom();
+
+    private byte[] data;
+    private SecretKey secretKey;
+    private byte[] iv;
+
+    private MessageDigest reusedDigest;
+    private Cipher reusedCipher;
+
+    private Crypto crypto;
+    private byte[][] encryptedEntry;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        // Creating a Crypto instance registers the Bouncy Castle provider.
+        crypto = new Crypto(256);
+        crypto.createDataKey();
+        encryptedEntry = crypto.encrypt("benchmark", "username".toCharArray(), "password".toCharArray());
+
+        data = "a typical credential of moderate length".getBytes(StandardCharsets.UTF_8);
+
+        byte[] key = new byte[32];
+        random.nextBytes(key);
+        secretKey = new SecretKeySpec(key, "AES");
+
+        iv = new byte[GCM_IV_LENGTH];
+        random.nextBytes(iv);
+
+        reusedDigest = MessageDigest.getInstance("SHA-256", "BC");
+        reusedCipher = Cipher.getInstance(CIPHER_ALGORITHM, "BC");
+    }
+
+    @Benchmark
+    public byte[] digestWithLookup() throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-256", "BC").digest(data);
+    }
+
+    @Benchmark
+    public byte[] digestReused() {
+        return reusedDigest.digest(data);
+    }
+
+    @Benchmark
+    public byte[] encryptWithLookup() throws GeneralSecurityException {
+        var cipher = Cipher.getInstance(CIPHER_ALGORITHM, "BC");
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, nextIV()));
+        return cipher.doFinal(data);
+    }
+
+    @Benchmark
+    public byte[] encryptReused() throws GeneralSecurityException {
+        reusedCipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, nextIV()));
+        return reusedCipher.doFinal(data);
+    }
+
+    @Benchmark
+    public String cryptoSHA256Hash() {
+        return Crypto.getSHA256Hash("benchmark-master-password".toCharArray());
+    }
+
+    @Benchmark
+    public byte[][] cryptoEncrypt() {
+        return crypto.encrypt("benchmark", "username".toCharArray(), "password".toCharArray());
+    }
+
+    @Benchmark
+    public char[][] cryptoDecrypt() throws EntryAuthenticationFailedException {
+        return crypto.decrypt(crypto.getCipherSuite(), "benchmark",
+                encryptedEntry[0], encryptedEntry[1], encryptedEntry[2], encryptedEntry[3]);
+    }
+
+    /**
+     * A GCM nonce must never repeat under the same key, so the nonce is incremented for every operation.
+     */
+    private byte[] nextIV() {
+        for (int i = iv.length - 1; i >= 0 && ++iv[i] == 0; i--);
+        return iv;
+    }
+
+} // class CryptoBenchmark
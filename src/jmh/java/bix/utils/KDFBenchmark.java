@@ -0,0 +1,64 @@
+package bix.utils;
+
+import bix.enums.KDFAlgorithm;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import static bix.utils.Constants.PBKDF2_ITERATIONS;
+
+/**
+ * Measures the unlock latency, i.e. the time to derive the master key, of each key derivation function.
+ *
+ * The Argon2id benchmark is parameterised over its memory cost, time cost and number of lanes, so the latency
+ * can be compared against the number of cores for each parameter set. Narrow the matrix with JMH's -p option,
+ * e.g. gradle jmh -PjmhArgs="KDFBenchmark -p parallelism=1,4".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KDFBenchmark {
+    @Param({"19456", "65536"})
+    public int memoryKiB;
+
+    @Param({"2"})
+    public int iterations;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private final char[] password = "benchmark-master-password".toCharArray();
+    private final byte[] salt = new byte[16];
+
+    private KDFParameters argon2id;
+    private KDFParameters pbkdf2;
+
+    @Setup
+    public void setup() {
+        // Creating a Crypto instance registers the Bouncy Castle provider.
+        new Crypto(256);
+
+        argon2id = new KDFParameters(KDFAlgorithm.ARGON2ID, iterations, memoryKiB, parallelism);
+        pbkdf2 = KDFParameters.pbkdf2(PBKDF2_ITERATIONS);
+    }
+
+    @Benchmark
+    public SecretKey unlockArgon2id() {
+        return Crypto.deriveMasterKey(password, salt, argon2id);
+    }
+
+    /**
+     * PBKDF2 has no memory or lane parameters, it is measured once per parameter set as a reference point.
+     */
+    @Benchmark
+    public SecretKey unlockPBKDF2() {
+        return Crypto.deriveMasterKey(password, salt, pbkdf2);
+    }
+
+} // class KDFBenchmark
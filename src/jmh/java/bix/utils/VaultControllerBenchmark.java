@@ -0,0 +1,183 @@
+package bix.utils;
+
+import bix.exceptions.AccountNotFoundException;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static bix.utils.Constants.ACCOUNT_LIST_PAGE_SIZE;
+
+/**
+ * Measures the per-operation overhead of connecting to the vault database in {@code VaultController}.
+ *
+ * The "connectPerCall" benchmarks reproduce the previous code path, which opened a connection and prepared the
+ * statement for every operation. The "pooled" benchmarks call the {@code VaultController} operations, which reuse
+ * the pooled connection and its cached prepared statements. The "lookup" benchmarks compare the previous account
+ * existence check, a scan of every account name, with the indexed single-entry operations. All of them run against a
+ * temporary database of {@code entries} accounts. The "search" benchmarks compare a case-insensitive LIKE query
+ * with the account name index. The "list" benchmarks measure the time to the first page of the account listing,
+ * from the whole list of account names and from the paged stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VaultControllerBenchmark {
+    private static final String SEARCH_STMT = "SELECT account_name FROM accounts WHERE UPPER(account_name) LIKE ?";
+    private static final String COUNT_AFTER_STMT = "SELECT count(*) FROM accounts WHERE account_name > ?";
+
+    @Param({"1000", "100000"})
+    private int entries;
+
+    private Path databaseFile;
+    private String url;
+    private String accountName;
+    private String keyword;
+
+    private Connection searchConnection;
+    private PreparedStatement searchStatement;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        databaseFile = Files.createTempFile("bix-benchmark", ".db");
+        url = "jdbc:sqlite:" + databaseFile;
+
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("""
+                    CREATE TABLE accounts (
+                    	account_name TEXT PRIMARY KEY,
+                    	associated_email TEXT,
+                    	ciphertext_u BLOB NOT NULL,
+                    	ciphertext_p BLOB NOT NULL,
+                    	salt BLOB NOT NULL,
+                    	iv BLOB NOT NULL,
+                    	secret_hash BLOB,
+                    	kdf_version INTEGER NOT NULL,
+                    	cipher_suite TEXT NOT NULL
+                    );""");
+
+            // A vault without a names version, the account name index is built from the accounts table.
+            stmt.execute("CREATE TABLE bix_metadata (id TEXT PRIMARY KEY, metadata_value TEXT);");
+
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO accounts VALUES(?,'nil',?,?,?,?,NULL,2,'AES-GCM')")) {
+                for (int i = 0; i < entries; i++) {
+                    pstmt.setString(1, String.format("account-%05d", i));
+                    pstmt.setBytes(2, new byte[48]);
+                    pstmt.setBytes(3, new byte[48]);
+                    pstmt.setBytes(4, new byte[16]);
+                    pstmt.setBytes(5, new byte[24]);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+        }
+
+        accountName = String.format("account-%05d", entries / 2);
+        keyword = accountName.substring("account-".length());
+        VaultController.setURL(url);
+        VaultController.loadAccountNameIndex();
+
+        searchConnection = DriverManager.getConnection(url);
+        searchStatement = searchConnection.prepareStatement(SEARCH_STMT);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, SQLException {
+        searchStatement.close();
+        searchConnection.close();
+        VaultController.close();
+        Files.deleteIfExists(databaseFile);
+    }
+
+    @Benchmark
+    public int countConnectPerCall() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement stmt = conn.createStatement()) {
+            ResultSet rs = stmt.executeQuery("SELECT count(*) FROM accounts");
+            return rs.getInt(1);
+        }
+    }
+
+    @Benchmark
+    public int countPooled() {
+        return VaultController.getVaultSize();
+    }
+
+    @Benchmark
+    public int countAfterConnectPerCall() throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url);
+             PreparedStatement pstmt = conn.prepareStatement(COUNT_AFTER_STMT)) {
+            pstmt.setString(1, accountName);
+            ResultSet rs = pstmt.executeQuery();
+            return rs.getInt(1);
+        }
+    }
+
+    @Benchmark
+    public int countAfterPooled() {
+        return VaultController.getVaultSizeAfter(accountName);
+    }
+
+    @Benchmark
+    public boolean lookupExistsScan() {
+        return VaultController.getAccountNames().contains(accountName);
+    }
+
+    @Benchmark
+    public boolean lookupExists() {
+        return VaultController.accountExists(accountName);
+    }
+
+    @Benchmark
+    public AccountEntry lookupRetrieve() throws AccountNotFoundException {
+        return VaultController.retrieveAccount(accountName);
+    }
+
+    @Benchmark
+    public List<String> listFirstPageFull() {
+        var accountNames = VaultController.getAccountNames();
+        return accountNames.subList(0, Math.min(ACCOUNT_LIST_PAGE_SIZE, accountNames.size()));
+    }
+
+    @Benchmark
+    public List<String> listFirstPagePaged() {
+        return VaultController.streamAccountNames(ACCOUNT_LIST_PAGE_SIZE).limit(ACCOUNT_LIST_PAGE_SIZE).toList();
+    }
+
+    @Benchmark
+    public ArrayList<String> searchLike() throws SQLException {
+        var accountNames = new ArrayList<String>();
+        searchStatement.setString(1, "%" + keyword.toUpperCase(Locale.ROOT) + "%");
+        try (ResultSet rs = searchStatement.executeQuery()) {
+            while (rs.next()) {
+                accountNames.add(rs.getString(1));
+            }
+        }
+        return accountNames;
+    }
+
+    @Benchmark
+    public ArrayList<String> searchIndexed() {
+        return VaultController.getAccountNamesContaining(keyword);
+    }
+
+} // class VaultControllerBenchmark
@@ -0,0 +1,149 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.InvalidSearchQueryException;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static bix.utils.Constants.ACCOUNT_LIST_PAGE_SIZE;
+import static bix.utils.Constants.REKEY_BATCH_SIZE;
+
+/**
+ * Compares the {@code VaultStore} implementations on the same operations: "sqlite" ({@code SqliteVaultStore} with
+ * the default pragmas), "log" ({@code LogVaultStore}) and "memory" ({@code MemoryVaultStore}). Every store holds
+ * {@code entries} accounts, the file-backed stores in a temporary directory in the working directory, so writes
+ * reach the disk.
+ *
+ * "open" closes the store and retrieves one entry, the cost of opening the vault at startup. "lookup" and
+ * "retrieve" are point reads, "page" reads a page of entries of the account listing, and "search" runs a prefix
+ * query. "writeEntry" updates a single entry, "writeBatch" updates a rekey batch of entries along with the rekey
+ * cursor. Note that the SQLite store with synchronous=NORMAL syncs its write-ahead log at checkpoints only, while
+ * the log store syncs every write. The log store is compacted before the measurements, as it is in the background
+ * once written, so it opens on a sorted base.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VaultStoreBenchmark {
+    private static final String SQLITE_PRAGMAS =
+            "journal_mode=WAL;synchronous=NORMAL;mmap_size=268435456;cache_size=-8192;temp_store=MEMORY";
+
+    @Param({"sqlite", "log", "memory"})
+    private String store;
+
+    @Param({"1000", "100000"})
+    private int entries;
+
+    private Path directory;
+    private VaultStore vaultStore;
+    private String accountName;
+    private String missingAccountName;
+    private List<AccountEntry> batch;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory(Path.of("").toAbsolutePath(), "bix-benchmark");
+        vaultStore = switch (store) {
+            case "sqlite" -> new SqliteVaultStore("jdbc:sqlite:" + directory.resolve("vault.db"), SQLITE_PRAGMAS);
+            case "log" -> new LogVaultStore(directory.resolve("vault.log"));
+            default -> new MemoryVaultStore();
+        };
+        vaultStore.setup();
+
+        var page = new ArrayList<AccountEntry>(1000);
+        for (int i = 0; i < entries; i++) {
+            page.add(entry(i));
+            if (page.size() == 1000 || i == entries - 1) {
+                vaultStore.addAccounts(page);
+                page.clear();
+            }
+        }
+
+        if (vaultStore instanceof LogVaultStore logVaultStore)
+            logVaultStore.awaitCompaction();
+
+        accountName = accountName(entries / 2);
+        missingAccountName = accountName + "-missing";
+
+        batch = new ArrayList<>(REKEY_BATCH_SIZE);
+        for (int i = 0; i < REKEY_BATCH_SIZE; i++) {
+            batch.add(entry(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        vaultStore.purge();
+        vaultStore.close();
+        try (var files = Files.list(directory)) {
+            for (var file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private static String accountName(int i) {
+        return String.format("account-%06d", i);
+    }
+
+    private static AccountEntry entry(int i) {
+        return new AccountEntry(accountName(i), "nil", new byte[48], new byte[48], new byte[16], new byte[24],
+                null, 2, CipherSuite.AES_GCM);
+    }
+
+    @Benchmark
+    public AccountEntry open() throws AccountNotFoundException {
+        vaultStore.close();
+        return vaultStore.retrieveAccount(accountName);
+    }
+
+    @Benchmark
+    public boolean lookupExists() {
+        return vaultStore.accountExists(accountName);
+    }
+
+    @Benchmark
+    public boolean lookupMissing() {
+        return vaultStore.accountExists(missingAccountName);
+    }
+
+    @Benchmark
+    public AccountEntry retrieve() throws AccountNotFoundException {
+        return vaultStore.retrieveAccount(accountName);
+    }
+
+    @Benchmark
+    public List<AccountEntry> page() {
+        return vaultStore.retrieveAccountsAfter(accountName, ACCOUNT_LIST_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<String> search() throws InvalidSearchQueryException {
+        return vaultStore.searchAccounts("account*", ACCOUNT_LIST_PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void writeEntry() throws AccountNotFoundException {
+        vaultStore.updateAccount(entry(next++ % entries));
+    }
+
+    @Benchmark
+    public void writeBatch() {
+        vaultStore.updateAccounts(batch, Map.of("rekey_cursor", batch.get(batch.size() - 1).accountName()));
+    }
+
+} // class VaultStoreBenchmark
@@ -0,0 +1,110 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.AccountNotFoundException;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static bix.utils.Constants.REKEY_BATCH_SIZE;
+
+/**
+ * Measures the write latency of {@code VaultController} under different journaling settings.
+ *
+ * The "rollback" journal is what the vault used before it was moved out of the resources: the SQLite defaults of a
+ * rollback journal synced on every commit. The "wal" journal is the default of the "sqlite_pragmas" config property:
+ * a write-ahead log synced at checkpoints, with memory mapping and a larger page cache. Both run against a temporary
+ * vault file of {@code entries} accounts in the working directory, so the commits reach the disk. "writeEntry"
+ * updates a single entry, "writeBatch" updates a rekey batch of entries along with the rekey cursor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class VaultWriteBenchmark {
+    private static final String ROLLBACK_PRAGMAS = "journal_mode=DELETE;synchronous=FULL;temp_store=MEMORY";
+    private static final String WAL_PRAGMAS =
+            "journal_mode=WAL;synchronous=NORMAL;mmap_size=268435456;cache_size=-8192;temp_store=MEMORY";
+
+    @Param({"rollback", "wal"})
+    private String journal;
+
+    @Param({"1000"})
+    private int entries;
+
+    private Path databaseFile;
+    private final byte[] ciphertext = new byte[48];
+    private List<AccountEntry> batch;
+    private int next = 0;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        databaseFile = Files.createTempFile(Path.of("").toAbsolutePath(), "bix-benchmark", ".db");
+        var url = "jdbc:sqlite:" + databaseFile;
+
+        VaultController.setURL(url);
+        VaultController.setPragmas(journal.equals("wal") ? WAL_PRAGMAS : ROLLBACK_PRAGMAS);
+        VaultController.setupVault();
+
+        try (Connection conn = DriverManager.getConnection(url)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO accounts VALUES(?,'nil',?,?,?,?,NULL,2,'AES-GCM')")) {
+                for (int i = 0; i < entries; i++) {
+                    pstmt.setString(1, accountName(i));
+                    pstmt.setBytes(2, ciphertext);
+                    pstmt.setBytes(3, ciphertext);
+                    pstmt.setBytes(4, new byte[16]);
+                    pstmt.setBytes(5, new byte[24]);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+        }
+
+        batch = new ArrayList<>();
+        for (int i = 0; i < REKEY_BATCH_SIZE; i++) {
+            batch.add(new AccountEntry(accountName(i), "nil", ciphertext, ciphertext, new byte[16], new byte[24],
+                    null, 2, CipherSuite.AES_GCM));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        VaultController.close();
+        Files.deleteIfExists(databaseFile);
+        Files.deleteIfExists(Path.of(databaseFile + "-wal"));
+        Files.deleteIfExists(Path.of(databaseFile + "-shm"));
+    }
+
+    @Benchmark
+    public void writeEntry() throws AccountNotFoundException {
+        next = (next + 1) % entries;
+        VaultController.updateAccount(accountName(next), null, ciphertext, ciphertext, new byte[16], new byte[24],
+                CipherSuite.AES_GCM);
+    }
+
+    @Benchmark
+    public void writeBatch() {
+        VaultController.updateAccounts(batch, Map.of("rekey_cursor", batch.get(batch.size() - 1).accountName()));
+    }
+
+    private static String accountName(int i) {
+        return String.format("account-%05d", i);
+    }
+
+} // class VaultWriteBenchmark
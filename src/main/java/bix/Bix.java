@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Locale;
 
 import bix.enums.StatusCode;
+import bix.exceptions.InvalidSearchQueryException;
 
 import static bix.Controller.*;
 import static bix.utils.Reader.*;
@@ -53,6 +54,9 @@ public final class Bix {
 
             clearScreen();
 
+            // Pick up the writes other Bix sessions made to the vault since the last command.
+            refreshVaultState();
+
             // Evaluating based on the menu option entered by the user.
             switch (userMenuChoice) {
 
@@ -124,6 +128,44 @@ public final class Bix {
                     } while (!foundAccount);
                     break;
 
+                // Search Accounts.
+                case "S":
+                    System.out.println("\nSearch Accounts");
+
+                    // ArrayList that stores the best matching accounts for the query entered by the user.
+                    ArrayList<String> matches;
+                    try {
+                        matches = searchAccounts(readString("> Enter Search Query: "));
+                    }
+                    catch (InvalidSearchQueryException e) {
+                        System.out.printf("\n%s Put text with punctuation in \"double quotes\".\n", e.getMessage());
+                        break;
+                    }
+
+                    if (matches.isEmpty()) {
+                        System.out.println("\nBix could not find a matching Account.");
+                        break;
+                    }
+
+                    try {
+                        // Printing the account names along with an index number, best match first.
+                        for (var index = 0; index < matches.size(); index++) {
+                            System.out.printf("[%d] %s \n", index, matches.get(index));
+                        }
+
+                        // Asking the user to choose one of the displayed accounts.
+                        var userChoice = readInt("Choose an Account to view (enter the number in [ ]): ");
+
+                        // Printing the credentials.
+                        printCredentials(matches.get(userChoice));
+                    }
+                    // If the user enters an invalid choice.
+                    catch (Exception e) {
+                        clearScreen();
+                        System.out.println("The option you entered is invalid.");
+                    }
+                    break;
+
                 // Add Account.
                 case "2":
                     break;
@@ -138,6 +180,7 @@ public final class Bix {
 
                 // Reset Master Password.
                 case "5":
+                    resetMasterPassword(); // Controller.resetMasterPassword()
                     break;
 
                 // Change Credential Display Duration.
@@ -148,16 +191,28 @@ public final class Bix {
                 case "7":
                     // Get new idle session timeout duration from user.
                     var newTimeout = readInt("Enter new idle session timeout duration in seconds: ");
-                    newTimeout = setIdleTimeout(newTimeout);
+                    newTimeout = updateIdleTimeoutDuration(newTimeout); // Controller.updateIdleTimeoutDuration()
                     System.out.println("");
                     break;
 
+                // Recalibrate Key Derivation.
+                case "C":
+                    recalibrateKDF(); // Controller.recalibrateKDF()
+                    break;
+
+                // Rekey Vault.
+                case "K":
+                    rekeyVault(); // Controller.rekeyVault()
+                    break;
+
                 // Import Vault.
                 case "8":
+                    importVault(); // Controller.importVault()
                     break;
 
                 // Export Vault.
                 case "9":
+                    exportVault(); // Controller.exportVault()
                     break;
 
                 // Open GitHub page.
@@ -1,22 +1,63 @@
 package bix;
 
 import bix.enums.AESFlavor;
+import bix.enums.CipherSuite;
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
 import bix.enums.StatusCode;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.EntryAuthenticationFailedException;
+import bix.exceptions.InvalidSearchQueryException;
+import bix.exceptions.VaultInUseException;
+import bix.exceptions.VaultRekeyInProgressException;
+import bix.utils.AccountEntry;
+import bix.utils.ArchiveImportSource;
+import bix.utils.Config;
 import bix.utils.Crypto;
+import bix.utils.CsvImportSource;
+import bix.utils.ImportReport;
+import bix.utils.ImportSource;
+import bix.utils.KDFParameters;
+import bix.utils.ProviderRegistry;
 import bix.utils.TransientPrinter;
+import bix.utils.VaultArchive;
 import bix.utils.VaultController;
-
+import bix.utils.VaultExporter;
+import bix.utils.VaultImporter;
+import bix.utils.VaultMetadata;
+import bix.utils.VaultRekeyer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 import static bix.utils.Utils.*;
 import static bix.utils.Reader.*;
 import static bix.utils.VaultController.*;
 
 import static bix.utils.Constants.AES_FLAVOR_HELP_STRING;
+import static bix.utils.Constants.CIPHER_SUITE_HELP_STRING;
+import static bix.utils.Constants.CIPHER_BENCHMARK_MILLIS;
+import static bix.utils.Constants.PROVIDER_BENCHMARK_MILLIS;
 import static bix.utils.Constants.PURGE_VAULT_WARNING_MSG;
 import static bix.utils.Constants.RESET_BIX_WARNING_MSG;
 import static bix.utils.Constants.FAILED_LOGIN_ATTEMPT_LIMIT;
+import static bix.utils.Constants.SEARCH_RESULT_LIMIT;
+import static bix.utils.Constants.ACCOUNT_LIST_PAGE_SIZE;
+import static bix.utils.Constants.KDF_ALGORITHM_HELP_STRING;
+import static bix.utils.Constants.DEFAULT_KDF_TARGET_UNLOCK_MS;
+import static bix.utils.Constants.DEFAULT_ARGON2_MEMORY_KIB;
+import static bix.utils.Constants.DEFAULT_IMPORT_BATCH_SIZE;
+import static bix.utils.Constants.IMPORT_REPORT_NAME_LIMIT;
+import static bix.utils.Constants.REKEY_LEASE_TIMEOUT_MS;
 
 
 /**
@@ -28,9 +69,17 @@ public class Controller {
 
     // Class constants.
     private static Crypto CRYPTO;
+    private static Crypto REKEY_CRYPTO = null; // New data key of a rekey another session runs, see decryptEntry().
     private static TransientPrinter TRANSIENT_PRINTER;
+    private static VaultMetadata METADATA;
     private static char[] MASTER_PASSWORD = null;
-    private static int failedLoginAttempts = getIntMetadata("failed_login_attempts");
+    private static int failedLoginAttempts = 0;
+
+    // Data version of the vault when METADATA was loaded, see refreshVaultState().
+    private static long vaultDataVersion = 0;
+
+    // Owner of the rekey lease when this session claims it, see claimRekeyLease().
+    private static final String REKEY_LEASE_OWNER = UUID.randomUUID().toString();
 
 
     /**
@@ -40,7 +89,13 @@ public class Controller {
      */
     static boolean isInitialSetupComplete() {
         try {
-            return Boolean.parseBoolean(getStrMetadata("setup_complete"));
+            METADATA = VaultMetadata.load();
+            return METADATA.isSetupComplete();
+        }
+        catch (VaultInUseException e) {
+            // Setting the vault up again would fail the same way, the other session has to exit first.
+            terminateSession(StatusCode.VAULT_IN_USE);
+            return false;
         }
         catch (Exception e) {
             return false;
@@ -53,14 +108,21 @@ public class Controller {
     static void setup() {
         // Perform initial setup, if it is not complete.
         if(!isInitialSetupComplete()) {
-            // Set up the vault.
+            // Set up the vault, and load its default metadata.
             setupVault();
+            METADATA = VaultMetadata.load();
 
-            // Set the AES flavor.
-            setAESFlavor();
+            // Select the cryptographic providers, the cipher benchmark below runs on the selected providers.
+            loadCryptoProviders();
+
+            // Set the cipher suite, and the AES flavor if the cipher suite uses AES.
+            setCipherSuite();
+
+            // Set the key derivation function and calibrate its cost for this machine.
+            var kdfParameters = calibrateKDF(setKDFAlgorithm());
 
             // Set the master password for Bix.
-            setMasterPassword();
+            setMasterPassword(kdfParameters);
 
             // If Master Password setup failed.
             if(MASTER_PASSWORD == null) {
@@ -72,30 +134,131 @@ public class Controller {
             }
 
             // Once setup is completed successfully, update bix_metadata table.
-            updateMetadata("setup_complete", "true");
+            METADATA.set("setup_complete", "true");
         }
 
-        // Load Idle Session Timeout Duration.
-        int idleSessionTimeout = getIntMetadata("idle_session_timeout");
+        // Bring vaults created by older versions of Bix up to the current schema, and load the metadata in one query.
+        migrateVault();
+        vaultDataVersion = refresh();
+        METADATA = VaultMetadata.load();
+        failedLoginAttempts = METADATA.getFailedLoginAttempts();
+
+        // Load the account name search index in the background, it is ready by the time the master password is in.
+        preloadAccountNameIndex();
+
+        // Route the cryptographic primitives through the providers selected for this machine.
+        loadCryptoProviders();
+
         // Set the idle session timeout for the Reader.
-        setIdleTimeout(idleSessionTimeout);
+        setIdleTimeoutDuration(METADATA.getIdleSessionTimeout());
 
-        // Load Credential Display Duration.
-        var credentialDisplayDuration = getIntMetadata("credential_display_duration");
         // Initialize a TransientPrinter instance with the credential display duration.
-        TRANSIENT_PRINTER = new TransientPrinter(credentialDisplayDuration);
+        TRANSIENT_PRINTER = new TransientPrinter(METADATA.getCredentialDisplayDuration());
+
+        // Initialize a Crypto instance with the AES flavor and cipher suite.
+        CRYPTO = new Crypto(METADATA.getAESFlavor().toInteger(), METADATA.getCipherSuite());
+
+    }
+
+    /**
+     * Reloads the state kept from the vault if another Bix session wrote to it since the last command. Checking is a
+     * single cheap query, the metadata is only loaded again if the vault was written to. If another session rekeyed
+     * the vault or rewrapped its data key, the session data key is unlocked again with the Master Password; the
+     * session is terminated if the Master Password was changed meanwhile. While another session rekeys the vault,
+     * the new data key of the rekey is unlocked along with the session data key.
+     */
+    static void refreshVaultState() {
+        long current = refresh();
+        if (current == vaultDataVersion)
+            return;
+        vaultDataVersion = current;
+
+        var previous = METADATA;
+        METADATA = VaultMetadata.load();
+
+        setIdleTimeoutDuration(METADATA.getIdleSessionTimeout());
+        if (METADATA.getCredentialDisplayDuration() != previous.getCredentialDisplayDuration())
+            TRANSIENT_PRINTER = new TransientPrinter(METADATA.getCredentialDisplayDuration());
+
+        if (MASTER_PASSWORD == null)
+            return;
+
+        // A rekey still running in the other session is left to it, its data key is swapped in once it completes.
+        // Until then the entries it already rekeyed are read with its new data key.
+        var rekeyWrappedDataKey = METADATA.getString("rekey_wrapped_data_key");
+        if (rekeyWrappedDataKey != null) {
+            if (REKEY_CRYPTO == null || !rekeyWrappedDataKey.equals(previous.getString("rekey_wrapped_data_key"))) {
+                var rekeyCrypto = unlockRekeyKey();
+                if (rekeyCrypto == null)
+                    terminateSession(StatusCode.AUTHENTICATION_FAILED);
+                setRekeyCrypto(rekeyCrypto);
+            }
+            return;
+        }
+
+        // A rekey completed in the other session: its new data key, already unlocked, is the session data key now.
+        var wrappedDataKey = METADATA.getString("wrapped_data_key");
+        if (REKEY_CRYPTO != null && wrappedDataKey != null
+                && wrappedDataKey.equals(previous.getString("rekey_wrapped_data_key"))) {
+            CRYPTO.lock();
+            CRYPTO = REKEY_CRYPTO;
+            REKEY_CRYPTO = null;
+            return;
+        }
+        setRekeyCrypto(null);
+
+        if (wrappedDataKey == null || wrappedDataKey.equals(previous.getString("wrapped_data_key")))
+            return;
+
+        var crypto = new Crypto(METADATA.getAESFlavor().toInteger(), METADATA.getCipherSuite());
+        if (!crypto.unlock(MASTER_PASSWORD, METADATA.getString("master_key_salt"), METADATA.getKDFParameters(),
+                wrappedDataKey))
+            terminateSession(StatusCode.AUTHENTICATION_FAILED);
+
+        CRYPTO.lock();
+        CRYPTO = crypto;
+    }
+
+    /**
+     * Sets a new idle session timeout duration for the Reader and saves it to the bix_metadata table.
+     *
+     * @param newTimeout new idle session timeout duration in seconds
+     *
+     * @return the new timeout value, within the limits specified in the Constants class
+     */
+    static int updateIdleTimeoutDuration(int newTimeout) {
+        var idleSessionTimeout = setIdleTimeoutDuration(newTimeout);
+        METADATA.set("idle_session_timeout", idleSessionTimeout);
+        return idleSessionTimeout;
+    }
 
-        // Load AES flavor.
-        var aesFlavor = AESFlavor.fromString(getStrMetadata("aes_flavor"));
-        // Initialize a Crypto instance with the AES flavor.
-        CRYPTO = new Crypto(aesFlavor.toInteger());
+    /**
+     * Routes every cryptographic primitive through the provider selected for it. The providers are benchmarked on
+     * the first start, and the selection is stored in the bix_metadata table.
+     */
+    private static void loadCryptoProviders() {
+        var providers = METADATA.getProviders();
+
+        // Select the providers on the first start, or when a primitive has no provider selected yet.
+        if (providers.size() < CryptoPrimitive.values().length) {
+            System.out.println("\nMeasuring the cryptographic providers on this machine...");
+            providers = ProviderRegistry.selectProviders(PROVIDER_BENCHMARK_MILLIS);
+
+            var metadata = new HashMap<String, String>();
+            providers.forEach((primitive, provider) -> metadata.put(primitive.metadataId(), provider));
+            METADATA.set(metadata);
+        }
 
+        ProviderRegistry.setProviders(providers);
     }
 
     /**
      * Sets the Master Password for Bix. Standard Password setting process.
+     * A new data key is generated for the vault and wrapped under the Master Password.
+     *
+     * @param kdfParameters the calibrated key derivation parameters
      */
-    private static void setMasterPassword() {
+    private static void setMasterPassword(KDFParameters kdfParameters) {
         clearScreen();
 
         // Get the new Master Password from user. Get password twice for validation.
@@ -106,19 +269,89 @@ public class Controller {
         clearScreen();
 
         // Checking that the first and second inputs match.
-        if (firstInput == secondInput) {
-            // Store the newly created Master Password's hash in the bix_metadata table.
-            updateMetadata("master_password_hash", CRYPTO.getSHA256Hash(firstInput));
+        if (Arrays.equals(firstInput, secondInput)) {
+            MASTER_PASSWORD = firstInput;
+            clearCharArrayFromMemory(secondInput);
+
+            // Generate the vault's data key and store it wrapped under the Master Password. Another session which
+            // set up the vault meanwhile wrapped a data key of its own, which is left as it is.
+            CRYPTO.createDataKey();
+            if (!rewrapDataKey(kdfParameters))
+                terminateSession(StatusCode.MASTER_PASSWORD_SETUP_FAILED);
         }
         else {
             System.out.println("\nFailed to set Master Password: password inputs did not match. ");
         }
     }
 
+    /**
+     * Set up the cipher suite (AES-GCM or ChaCha20-Poly1305), and the AES flavor if AES-GCM is chosen.
+     */
+    static void setCipherSuite() {
+        var cipherSuite = chooseCipherSuite();
+
+        // Save the cipher suite to the metadata table.
+        METADATA.set("cipher_suite", cipherSuite.toString());
+
+        // ChaCha20 has a single key length, the AES flavor only needs to be picked for AES-GCM.
+        var aesFlavor = cipherSuite == CipherSuite.AES_GCM ? setAESFlavor() : AESFlavor.AES_256;
+
+        // Initialize a Crypto instance with the chosen cipher suite, it is needed to set up the Master Password.
+        CRYPTO = new Crypto(aesFlavor.toInteger(), cipherSuite);
+    }
+
+    /**
+     * Get the user's choice of cipher suite. Both cipher suites are benchmarked on this machine first, and the
+     * faster one is recommended.
+     *
+     * @return the chosen cipher suite
+     */
+    private static CipherSuite chooseCipherSuite() {
+        clearScreen();
+        System.out.println("\nMeasuring the ciphers on this machine...");
+
+        var throughput = Crypto.benchmarkCipherSuites(AESFlavor.AES_256.toInteger(), CIPHER_BENCHMARK_MILLIS);
+        var aesGcm = throughput.get(CipherSuite.AES_GCM);
+        var chacha20 = throughput.get(CipherSuite.CHACHA20_POLY1305);
+        var recommended = aesGcm >= chacha20 ? CipherSuite.AES_GCM : CipherSuite.CHACHA20_POLY1305;
+
+        clearScreen();
+
+        // Print the help string explaining the cipher suites, followed by the measurements.
+        System.out.println(CIPHER_SUITE_HELP_STRING);
+        System.out.printf("[1] AES-GCM           %8.1f MiB/s%s\n", aesGcm,
+                recommended == CipherSuite.AES_GCM ? " (recommended)" : "");
+        System.out.printf("[2] ChaCha20-Poly1305 %8.1f MiB/s%s\n", chacha20,
+                recommended == CipherSuite.CHACHA20_POLY1305 ? " (recommended)" : "");
+
+        // Get the user's choice of cipher suite, any other input picks the recommended one.
+        return switch (readChar("> Choose a cipher: ")) {
+            case '1' -> CipherSuite.AES_GCM;
+            case '2' -> CipherSuite.CHACHA20_POLY1305;
+            default -> recommended;
+        };
+    }
+
     /**
      * Set up the AES flavor (128-bit, 192-bit or 256-bit).
+     *
+     * @return the chosen AES flavor
      */
-    static void setAESFlavor() {
+    static AESFlavor setAESFlavor() {
+        var aesFlavor = chooseAESFlavor();
+
+        // Save the AES flavor to the metadata table.
+        METADATA.set("aes_flavor", aesFlavor.toString());
+
+        return aesFlavor;
+    }
+
+    /**
+     * Get the user's choice of AES flavor (128-bit, 192-bit or 256-bit).
+     *
+     * @return the confirmed AES flavor
+     */
+    private static AESFlavor chooseAESFlavor() {
         AESFlavor aesFlavor;
         char userChoice;
         do {
@@ -138,35 +371,38 @@ public class Controller {
 
         } while(!getConfirmation(
                 String.format("""
-                \nWARNING: You cannot change the AES flavor once it has been set.
+                \nWARNING: Changing the AES flavor later re-encrypts the whole vault.
                 > Confirm your choice (AES-%d) [N/y]:\040""", aesFlavor.toInteger()
                 ), true)
         );
 
-        // Save the AES flavor to the metadata table.
-        updateMetadata("aes_flavor", aesFlavor.toString());
+        return aesFlavor;
     }
 
     /**
      * Method to authenticate the user.
      */
     static boolean authenticateUser() {
-        // Get the Master Password hash.
-        var masterPasswordHash = getStrMetadata("master_password_hash");
-
         clearScreen();
 
         do {
             // Get the Master Password from the user.
             MASTER_PASSWORD = readPassword("Enter Master Password: ");
 
-            // Authenticating Master Password input.
-            if (CRYPTO.getSHA256Hash(MASTER_PASSWORD).equals(masterPasswordHash)) {
+            // Authenticating Master Password input: the session data key only unwraps under the right Master
+            // Password. This is the only key derivation run in the session.
+            if (unlockVault()) {
                 clearScreen();
                 System.out.println("\nAuthentication successful.");
 
+                // A rekey of this session completes before unlockVault() returns, one still in progress is another's.
+                if (METADATA.getString("rekey_wrapped_data_key") != null)
+                    System.out.println("The vault is being rekeyed by another Bix session, "
+                            + "accounts cannot be changed until it completes.");
+
                 // Reset failedLoginAttempts to 0.
                 failedLoginAttempts = 0;
+                METADATA.set("failed_login_attempts", failedLoginAttempts);
 
                 return true;
             }
@@ -175,28 +411,586 @@ public class Controller {
                 clearScreen();
                 System.out.println("\nERROR: Incorrect Master Password.");
                 failedLoginAttempts++;
+                METADATA.set("failed_login_attempts", failedLoginAttempts);
             }
         } while(failedLoginAttempts < FAILED_LOGIN_ATTEMPT_LIMIT);
 
         return false;
     }
 
+    /**
+     * Derives the master key and unwraps the session data key. Vaults created before the data key was introduced
+     * have no wrapped data key: the Master Password is checked against the hash they stored, and their data key is
+     * generated, or taken over from the former session master key, and then wrapped under the Master Password.
+     *
+     * @return true if the session data key was unlocked, false if the Master Password is incorrect
+     */
+    private static boolean unlockVault() {
+        var masterKeySalt = METADATA.getString("master_key_salt");
+        var wrappedDataKey = METADATA.getString("wrapped_data_key");
+        var kdfParameters = METADATA.getKDFParameters();
+
+        if (wrappedDataKey == null) {
+            var masterPasswordHash = METADATA.getString("master_password_hash");
+            if (masterPasswordHash != null && !Crypto.getSHA256Hash(MASTER_PASSWORD).equals(masterPasswordHash))
+                return false;
+
+            // No entry was encrypted under a session key yet, so any data key will do.
+            if (masterKeySalt == null)
+                CRYPTO.createDataKey();
+            // The former session master key becomes the data key, so existing entries stay readable.
+            else
+                CRYPTO.unlock(MASTER_PASSWORD, masterKeySalt, kdfParameters, null);
+
+            if (rewrapDataKey(kdfParameters))
+                return true;
+
+            // Another session wrapped the data key first, it is unwrapped from the vault instead.
+            METADATA = VaultMetadata.load();
+            return unlockVault();
+        }
+
+        if (!CRYPTO.unlock(MASTER_PASSWORD, masterKeySalt, kdfParameters, wrappedDataKey))
+            return false;
+
+        // A rekey was interrupted: part of the vault is already under the new data key, so it must be finished
+        // before any entry is read. A rekey another session is still running is left to it, its new data key is
+        // kept unlocked to read the entries it already rekeyed.
+        setRekeyCrypto(null);
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            var newCrypto = unlockRekeyKey();
+            if (newCrypto == null)
+                return false;
+
+            if (!claimRekeyLease()) {
+                setRekeyCrypto(newCrypto);
+                return true;
+            }
+
+            System.out.println("\nResuming the interrupted vault rekey.");
+            completeRekey(newCrypto, METADATA.getString("rekey_cursor"));
+        }
+
+        return true;
+    }
+
+    /**
+     * Unlocks the new data key of the rekey in progress with the Master Password. The rekey is recorded in METADATA.
+     *
+     * @return the Crypto instance holding the new data key, or null if it does not unwrap under the Master Password
+     */
+    private static Crypto unlockRekeyKey() {
+        var newCrypto = new Crypto(AESFlavor.fromString(METADATA.getString("rekey_aes_flavor")).toInteger(),
+                CipherSuite.fromString(METADATA.getString("rekey_cipher_suite")));
+        if (!newCrypto.unlock(MASTER_PASSWORD, METADATA.getString("master_key_salt"), METADATA.getKDFParameters(),
+                METADATA.getString("rekey_wrapped_data_key")))
+            return null;
+        return newCrypto;
+    }
+
+    /**
+     * Replaces the new data key kept for the rekey another session runs, locking the previous one.
+     *
+     * @param rekeyCrypto the Crypto instance holding the new data key, null once no rekey is in progress
+     */
+    private static void setRekeyCrypto(Crypto rekeyCrypto) {
+        if (REKEY_CRYPTO != null && REKEY_CRYPTO != rekeyCrypto)
+            REKEY_CRYPTO.lock();
+        REKEY_CRYPTO = rekeyCrypto;
+    }
+
+    /**
+     * Decrypts an entry with the session data key. While another session rekeys the vault, the entries it already
+     * rekeyed are under its new data key: an entry which fails the integrity check under one key is tried under the
+     * other. If it fails under both, the vault state is reloaded once, in case a rekey began or completed since the
+     * command started, before the entry is taken to be tampered with.
+     *
+     * @param entry the entry to decrypt, in the current format
+     *
+     * @return the username and password of the entry
+     *
+     * @throws EntryAuthenticationFailedException if the entry fails the integrity check under every data key
+     */
+    private static char[][] decryptEntry(AccountEntry entry) throws EntryAuthenticationFailedException {
+        EntryAuthenticationFailedException failure = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            for (var crypto : new Crypto[] {CRYPTO, REKEY_CRYPTO}) {
+                if (crypto == null)
+                    continue;
+
+                try {
+                    return crypto.decrypt(entry.cipherSuite(), entry.accountName(),
+                            entry.ciphertextUsername(), entry.ciphertextPassword(), entry.salt(), entry.iv());
+                }
+                catch (EntryAuthenticationFailedException e) {
+                    failure = e;
+                }
+            }
+
+            long version = vaultDataVersion;
+            refreshVaultState();
+            if (vaultDataVersion == version)
+                break;
+        }
+        throw failure;
+    }
+
+    /**
+     * Claims the lease of the rekey in progress, to resume it. The rekey is only taken to be interrupted if the
+     * heartbeat of its lease is older than {@code REKEY_LEASE_TIMEOUT_MS}: the session running it renews the
+     * heartbeat while it runs. The lease is claimed in one transaction, only if the lease and the rekey cursor are
+     * still the ones of METADATA, so two sessions cannot both resume the rekey, and the cursor it resumes from is
+     * current.
+     *
+     * @return true if this session holds the lease of the rekey, false if another session is running it
+     */
+    private static boolean claimRekeyLease() {
+        var owner = METADATA.getString("rekey_owner");
+        var heartbeat = METADATA.getString("rekey_heartbeat");
+        if (owner != null && !owner.equals(REKEY_LEASE_OWNER) && !isRekeyLeaseStale(heartbeat))
+            return false;
+
+        var expected = new HashMap<String, String>();
+        expected.put("rekey_wrapped_data_key", METADATA.getString("rekey_wrapped_data_key"));
+        expected.put("rekey_cursor", METADATA.getString("rekey_cursor"));
+        expected.put("rekey_owner", owner);
+        expected.put("rekey_heartbeat", heartbeat);
+        return METADATA.compareAndSet(expected, Map.of(
+                "rekey_owner", REKEY_LEASE_OWNER,
+                "rekey_heartbeat", String.valueOf(System.currentTimeMillis())));
+    }
+
+    /**
+     * Checks if the heartbeat of a rekey lease is older than {@code REKEY_LEASE_TIMEOUT_MS}. A rekey interrupted by
+     * an older version of Bix has no heartbeat.
+     *
+     * @param heartbeat the "rekey_heartbeat" metadata value, milliseconds since the epoch
+     */
+    private static boolean isRekeyLeaseStale(String heartbeat) {
+        try {
+            return heartbeat == null || System.currentTimeMillis() - Long.parseLong(heartbeat) > REKEY_LEASE_TIMEOUT_MS;
+        }
+        catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Wraps the session data key under a master key derived from the Master Password with a fresh salt, and stores
+     * it along with the key derivation parameters. The entries in the vault are not re-encrypted.
+     *
+     * No hash of the Master Password is stored: a fast hash would let a copy of the vault be brute-forced without
+     * paying for the key derivation. The hash stored by older versions of Bix is cleared.
+     *
+     * The data key is not rewrapped while a rekey is in progress: the new data key of the rekey is wrapped under the
+     * current master key salt and key derivation parameters. Neither is it if another session rewrapped the data key
+     * since METADATA was loaded. Both are checked in the transaction which writes the new wrapped data key.
+     *
+     * @param kdfParameters the key derivation parameters
+     *
+     * @return true if the data key was rewrapped, false if a rekey is in progress or another session rewrapped the
+     *     data key meanwhile
+     */
+    private static boolean rewrapDataKey(KDFParameters kdfParameters) {
+        var masterKeySalt = CRYPTO.generateMasterKeySalt();
+        var wrappedDataKey = CRYPTO.wrapDataKey(MASTER_PASSWORD, masterKeySalt, kdfParameters);
+
+        // The key derivation parameters and the wrapped data key are only valid together. Map.of() does not allow
+        // null values.
+        var metadata = new HashMap<String, String>();
+        metadata.put("master_password_hash", null);
+        metadata.put("kdf_algorithm", kdfParameters.algorithm().toString());
+        metadata.put("kdf_iterations", String.valueOf(kdfParameters.iterations()));
+        metadata.put("kdf_memory_kib", String.valueOf(kdfParameters.memoryKiB()));
+        metadata.put("kdf_parallelism", String.valueOf(kdfParameters.parallelism()));
+        metadata.put("master_key_salt", masterKeySalt);
+        metadata.put("wrapped_data_key", wrappedDataKey);
+
+        var expected = new HashMap<String, String>();
+        expected.put("rekey_wrapped_data_key", null);
+        expected.put("master_key_salt", METADATA.getString("master_key_salt"));
+        expected.put("wrapped_data_key", METADATA.getString("wrapped_data_key"));
+        return METADATA.compareAndSet(expected, metadata);
+    }
+
+    /**
+     * Set up the key derivation function (PBKDF2 or Argon2id).
+     *
+     * @return the chosen key derivation function
+     */
+    static KDFAlgorithm setKDFAlgorithm() {
+        clearScreen();
+
+        // Print the help string explaining the key derivation functions.
+        System.out.println(KDF_ALGORITHM_HELP_STRING);
+
+        // Get the user's choice of key derivation function.
+        return switch (readChar("> Choose a key derivation function: ")) {
+            case '1' -> KDFAlgorithm.PBKDF2;
+            default -> KDFAlgorithm.ARGON2ID;
+        };
+    }
+
+    /**
+     * Benchmarks key derivation on this machine and picks the cost which hits the target unlock latency
+     * configured in config.properties. Argon2id uses the configured memory cost and one lane per available core.
+     *
+     * @param kdfAlgorithm the key derivation function to calibrate
+     *
+     * @return the calibrated key derivation parameters
+     */
+    private static KDFParameters calibrateKDF(KDFAlgorithm kdfAlgorithm) {
+        var targetMillis = Config.getInt("kdf_target_unlock_ms", DEFAULT_KDF_TARGET_UNLOCK_MS);
+
+        System.out.printf("\nCalibrating key derivation for a %d ms unlock on this machine...\n", targetMillis);
+        var kdfParameters = switch (kdfAlgorithm) {
+            case PBKDF2 -> Crypto.calibratePBKDF2(targetMillis);
+            case ARGON2ID -> Crypto.calibrateArgon2id(targetMillis,
+                    Config.getInt("argon2_memory_kib", DEFAULT_ARGON2_MEMORY_KIB),
+                    Runtime.getRuntime().availableProcessors());
+        };
+        System.out.printf("Key derivation set to %s.\n", kdfParameters);
+
+        return kdfParameters;
+    }
+
+    /**
+     * Re-calibrates the key derivation cost for this machine. Only the data key is rewrapped, the entries in the
+     * vault are not re-encrypted.
+     */
+    static void recalibrateKDF() {
+        // Authenticate the user before changing the key derivation.
+        if (!authenticateUser()) {
+            System.out.println("\nKey derivation recalibration aborted.");
+            return;
+        }
+
+        // The new data key of a rekey in progress is wrapped under the current key derivation parameters.
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            System.out.println("\nKey derivation recalibration aborted: the vault is being rekeyed.");
+            return;
+        }
+
+        if (rewrapDataKey(calibrateKDF(METADATA.getKDFParameters().algorithm())))
+            System.out.println("\nKey derivation recalibrated.");
+        else
+            System.out.println("\nKey derivation recalibration aborted: another Bix session changed the vault keys.");
+    }
+
+    /**
+     * Re-encrypts the whole vault under a new random data key, optionally changing the cipher suite and the AES
+     * flavor. The rekey is recorded in the bix_metadata table before any entry is touched, so an interrupted rekey
+     * is resumed at the next authentication.
+     */
+    static void rekeyVault() {
+        // Authenticate the user, this also unlocks the current data key.
+        if (!authenticateUser()) {
+            System.out.println("\nVault rekey aborted.");
+            return;
+        }
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            System.out.println("\nVault rekey aborted: the vault is being rekeyed by another Bix session.");
+            return;
+        }
+
+        // Keep the current cipher suite and AES flavor unless the user picks new ones.
+        var cipherSuite = CRYPTO.getCipherSuite();
+        var aesFlavor = METADATA.getAESFlavor();
+        if (getConfirmation(String.format(
+                "> Change the cipher (currently %s) as well? [Y/n]: ", cipherSuite), false)) {
+            cipherSuite = chooseCipherSuite();
+        }
+        if (cipherSuite == CipherSuite.AES_GCM && getConfirmation(String.format(
+                "> Change the AES flavor (currently %s) as well? [Y/n]: ", aesFlavor), false)) {
+            aesFlavor = chooseAESFlavor();
+        }
+
+        // Generate the new data key, wrapped under the Master Password with the current master key salt.
+        var newCrypto = new Crypto(aesFlavor.toInteger(), cipherSuite);
+        newCrypto.createDataKey();
+        var rekeyWrappedDataKey = newCrypto.wrapDataKey(
+                MASTER_PASSWORD, METADATA.getString("master_key_salt"), METADATA.getKDFParameters());
+
+        // Record the rekey and claim its lease, unless another session began a rekey or rewrapped the data key since
+        // the user authenticated. Map.of() does not allow null values.
+        var expected = new HashMap<String, String>();
+        expected.put("rekey_wrapped_data_key", null);
+        expected.put("master_key_salt", METADATA.getString("master_key_salt"));
+        expected.put("wrapped_data_key", METADATA.getString("wrapped_data_key"));
+        if (!METADATA.compareAndSet(expected, Map.of(
+                "rekey_wrapped_data_key", rekeyWrappedDataKey,
+                "rekey_aes_flavor", aesFlavor.toString(),
+                "rekey_cipher_suite", cipherSuite.toString(),
+                "rekey_cursor", "",
+                "rekey_owner", REKEY_LEASE_OWNER,
+                "rekey_heartbeat", String.valueOf(System.currentTimeMillis())))) {
+            newCrypto.lock();
+            System.out.println("\nVault rekey aborted: another Bix session changed the vault keys.");
+            return;
+        }
+
+        clearScreen();
+        completeRekey(newCrypto, "");
+    }
+
+    /**
+     * Re-encrypts every entry after {@code cursor} under the new data key, then makes the new data key and AES
+     * flavor the vault's own. The session holds the rekey lease; if another session takes it over meanwhile, e.g.
+     * because this one stalled for longer than {@code REKEY_LEASE_TIMEOUT_MS}, the session is terminated, the rekey
+     * being left to the other session.
+     *
+     * @param newCrypto the Crypto instance holding the new data key
+     * @param cursor the last account name already under the new data key
+     */
+    private static void completeRekey(Crypto newCrypto, String cursor) {
+        try {
+            new VaultRekeyer(CRYPTO, newCrypto, MASTER_PASSWORD, REKEY_LEASE_OWNER).rekey(cursor, (rekeyed, total) ->
+                    System.out.printf("\rRe-encrypted %d of %d entries.", rekeyed, total));
+        }
+        catch (EntryAuthenticationFailedException e) {
+            System.out.println("\n" + e.getMessage());
+            terminateSession(StatusCode.AUTHENTICATION_FAILED);
+        }
+        catch (VaultRekeyInProgressException e) {
+            terminateSession(StatusCode.REKEY_TAKEN_OVER);
+        }
+
+        // Swap in the new data key and clear the rekey fields together, if this session still holds the lease.
+        // Map.of() does not allow null values.
+        var expected = new HashMap<String, String>();
+        expected.put("rekey_wrapped_data_key", METADATA.getString("rekey_wrapped_data_key"));
+        expected.put("rekey_owner", REKEY_LEASE_OWNER);
+
+        var metadata = new HashMap<String, String>();
+        metadata.put("wrapped_data_key", METADATA.getString("rekey_wrapped_data_key"));
+        metadata.put("aes_flavor", METADATA.getString("rekey_aes_flavor"));
+        metadata.put("cipher_suite", METADATA.getString("rekey_cipher_suite"));
+        metadata.put("rekey_wrapped_data_key", null);
+        metadata.put("rekey_aes_flavor", null);
+        metadata.put("rekey_cipher_suite", null);
+        metadata.put("rekey_cursor", null);
+        metadata.put("rekey_owner", null);
+        metadata.put("rekey_heartbeat", null);
+        if (!METADATA.compareAndSet(expected, metadata))
+            terminateSession(StatusCode.REKEY_TAKEN_OVER);
+
+        CRYPTO.lock();
+        CRYPTO = newCrypto;
+
+        System.out.println("\nVault rekey complete.");
+    }
+
+    /**
+     * Imports the accounts of a CSV file or of a vault archive into the vault. Accounts already in the vault are
+     * kept as they are, the report lists the records which matched them (duplicates) and the ones which did not
+     * (conflicts).
+     */
+    static void importVault() {
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            System.out.println("\nVault import aborted: the vault is being rekeyed by another Bix session.");
+            return;
+        }
+
+        var path = Path.of(readString("> Enter the path of the CSV file or vault archive to import: ").strip());
+        var batchSize = Config.getInt("import_batch_size", DEFAULT_IMPORT_BATCH_SIZE);
+
+        ImportSource source;
+        try {
+            if (VaultArchive.isArchive(path)) {
+                // The archive key is derived when the archive is opened, the password is not needed afterwards.
+                var archivePassword = readPassword("> Enter the archive password: ");
+                try {
+                    source = new ArchiveImportSource(path, archivePassword);
+                }
+                finally {
+                    clearCharArrayFromMemory(archivePassword);
+                }
+            }
+            else {
+                var csvSource = new CsvImportSource(path);
+                System.out.printf("Reading a %s export.\n", csvSource.profile());
+                source = csvSource;
+            }
+        }
+        catch (IOException e) {
+            System.out.println("\nVault import failed: " + e.getMessage());
+            return;
+        }
+
+        ImportReport report;
+        try (source) {
+            report = new VaultImporter(CRYPTO, MASTER_PASSWORD, batchSize).importFrom(source, processed ->
+                    System.out.printf("\rProcessed %d records.", processed));
+        }
+        catch (IOException | VaultRekeyInProgressException e) {
+            System.out.println("\nVault import failed: " + e.getMessage());
+            return;
+        }
+
+        System.out.printf("\nImported %d accounts.\n", report.imported());
+        printImportedNames("Already in the vault with the same credentials", report.duplicates());
+        printImportedNames("Already in the vault with different credentials, not imported", report.conflicts());
+        if (report.invalid() > 0)
+            System.out.printf("Skipped %d records without an account name or credentials.\n", report.invalid());
+    }
+
+    /**
+     * Prints a category of the import report, listing up to {@code IMPORT_REPORT_NAME_LIMIT} account names.
+     */
+    private static void printImportedNames(String category, List<String> accountNames) {
+        if (accountNames.isEmpty())
+            return;
+
+        System.out.printf("%s (%d):\n", category, accountNames.size());
+        for (var accountName : accountNames.subList(0, Math.min(accountNames.size(), IMPORT_REPORT_NAME_LIMIT))) {
+            System.out.println("  " + accountName);
+        }
+        if (accountNames.size() > IMPORT_REPORT_NAME_LIMIT)
+            System.out.printf("  ... and %d more.\n", accountNames.size() - IMPORT_REPORT_NAME_LIMIT);
+    }
+
+    /**
+     * Exports the vault into a vault archive encrypted under an archive password, which can be imported into any
+     * Bix vault. The archive key is derived with the vault's key derivation parameters, which are recorded in the
+     * archive. The user is authenticated first, as the archive holds every credential in the vault.
+     */
+    static void exportVault() {
+        if (!authenticateUser()) {
+            System.out.println("\nVault export aborted.");
+            return;
+        }
+
+        // The entries another session already rekeyed are under a data key the exporter does not hold.
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            System.out.println("\nVault export aborted: the vault is being rekeyed by another Bix session.");
+            return;
+        }
+
+        var path = Path.of(readString("> Enter the path of the vault archive to export to: ").strip());
+
+        // Get the archive password from user. Get password twice for validation.
+        var firstInput = readPassword("> Enter a password for the archive (1st time) : ");
+        var secondInput = readPassword("> Enter a password for the archive (2nd time) : ");
+
+        try {
+            if (!Arrays.equals(firstInput, secondInput)) {
+                System.out.println("\nVault export aborted: password inputs did not match.");
+                return;
+            }
+
+            var exported = new VaultExporter(CRYPTO, MASTER_PASSWORD).exportTo(path, firstInput,
+                    METADATA.getKDFParameters(), (exportedEntries, totalEntries) ->
+                            System.out.printf("\rExported %d of %d entries.", exportedEntries, totalEntries));
+            System.out.printf("\nExported %d accounts to %s\n", exported, path.toAbsolutePath());
+        }
+        catch (IOException e) {
+            System.out.println("\nVault export failed: " + e.getMessage());
+        }
+        catch (EntryAuthenticationFailedException e) {
+            // A rekey another session began during the export is not a tampered entry, no archive was written.
+            refreshVaultState();
+            if (METADATA.getString("rekey_wrapped_data_key") != null) {
+                System.out.println("\nVault export failed: the vault is being rekeyed by another Bix session.");
+                return;
+            }
+
+            System.out.println("\n" + e.getMessage());
+            terminateSession(StatusCode.AUTHENTICATION_FAILED);
+        }
+        finally {
+            clearCharArrayFromMemory(firstInput);
+            clearCharArrayFromMemory(secondInput);
+        }
+    }
+
+    /**
+     * Resets the Master Password. Only the data key is rewrapped under the new Master Password, the entries in the
+     * vault are not re-encrypted, so this takes the same time regardless of the size of the vault.
+     */
+    static void resetMasterPassword() {
+        // Authenticate the user with the current Master Password, this also unlocks the session data key.
+        if (!authenticateUser()) {
+            System.out.println("\nMaster Password reset aborted.");
+            return;
+        }
+
+        // The new data key of a rekey in progress is wrapped under the current Master Password.
+        if (METADATA.getString("rekey_wrapped_data_key") != null) {
+            System.out.println("\nMaster Password reset aborted: the vault is being rekeyed.");
+            return;
+        }
+
+        // Get the new Master Password from user. Get password twice for validation.
+        var firstInput = readPassword("> Enter your new Master Password (1st time) : ");
+        var secondInput = readPassword("> Enter your new Master Password (2nd time) : ");
+
+        // Clearing the interface.
+        clearScreen();
+
+        // Checking that the first and second inputs match.
+        if (Arrays.equals(firstInput, secondInput)) {
+            var oldMasterPassword = MASTER_PASSWORD;
+            MASTER_PASSWORD = firstInput;
+
+            // Keep the current key derivation parameters, only the Master Password changes.
+            if (rewrapDataKey(METADATA.getKDFParameters())) {
+                clearCharArrayFromMemory(oldMasterPassword);
+                System.out.println("\nMaster Password reset.");
+            }
+            else {
+                MASTER_PASSWORD = oldMasterPassword;
+                clearCharArrayFromMemory(firstInput);
+                System.out.println("\nMaster Password reset aborted: another Bix session changed the vault keys.");
+            }
+        }
+        else {
+            clearCharArrayFromMemory(firstInput);
+            System.out.println("\nFailed to reset Master Password: password inputs did not match. ");
+        }
+
+        clearCharArrayFromMemory(secondInput);
+    }
+
     /**
      * Finds account names that contain or match the keyword provided.
      * @param keyword find accounts containing this keyword
      * @return an {@code ArrayList<String>} containing all the Account names that contain the keyword
      */
     static ArrayList<String> getAccountNamesContaining(String keyword) {
-        return getAccountNamesContaining(keyword);
+        return VaultController.getAccountNamesContaining(keyword);
     }
 
     /**
-     * Print all the account names stored in Bix.
+     * Full-text search over the account names and associated emails.
+     * @param query the full-text query, see {@code VaultController.searchAccounts()}
+     * @return an {@code ArrayList<String>} containing the best matching Account names, best match first
+     */
+    static ArrayList<String> searchAccounts(String query) throws InvalidSearchQueryException {
+        return VaultController.searchAccounts(query, SEARCH_RESULT_LIMIT);
+    }
+
+    /**
+     * Print all the account names stored in Bix, one page of {@code ACCOUNT_LIST_PAGE_SIZE} names at a time. Every
+     * page is written to the terminal at once, and the next page is only retrieved from the vault if the user asks
+     * for it, so the listing starts right away and uses the same memory whatever the size of the vault.
      */
     static void printAccountNames() {
-        for(var accountName : getAccountNames()) {
-            System.out.println(accountName);
+        // Not closed, closing it would close System.out.
+        var out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+
+        var accountNames = streamAccountNames(ACCOUNT_LIST_PAGE_SIZE).iterator();
+        int printed = 0;
+        while (accountNames.hasNext()) {
+            out.println(accountNames.next());
+            printed++;
+
+            if (printed % ACCOUNT_LIST_PAGE_SIZE == 0 && accountNames.hasNext()) {
+                out.flush();
+                if (!getConfirmation("> Show more accounts? [Y/n]: ", false))
+                    break;
+            }
         }
+        out.flush();
     }
 
     /**
@@ -215,41 +1009,54 @@ public class Controller {
      * @param accountName the account to print the credentials for
      */
     static void printCredentials(String accountName){
-        /* Contents of the String[] returned by retrieveAccount():
-         * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+
-         * | values[0]    | values[1]    | values[2]    | values[3]    | values[4]    | values[5]    | values[6]    |
-         * |--------------|--------------|--------------|--------------|--------------|--------------|--------------|
-         * | account_name | email        | ciphertext_u | ciphertext_p | salt         | iv           | secret_hash  |
-         * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+
-         */
-
-        String associatedEmail, ciphertextUsername, ciphertextPassword, salt, iv, secretKeyHash;
-
+        AccountEntry entry;
         try {
-            String[] values = retrieveAccount(accountName);
-
-            // Store values in appropriate variables.
-            accountName = values[0];
-            associatedEmail = values[1];
-            ciphertextUsername = values[2];
-            ciphertextPassword= values[3];
-            salt = values[4];
-            iv = values[5];
-            secretKeyHash = values[6];
+            entry = retrieveAccount(accountName);
         }
         catch (Exception ae) {
             System.out.println(ae.getMessage());
             return;
         }
 
-        // Authenticating the account's secret key generated with the master password and salt to the secretKeyHash.
-        if (!CRYPTO.authenticateSecretKey(MASTER_PASSWORD, salt, secretKeyHash)) {
-            terminateSession(StatusCode.AUTHENTICATION_FAILED);
-        }
+        accountName = entry.accountName();
+        var associatedEmail = entry.associatedEmail();
 
-        // Decrypting ciphertext.
-        char[] username = CRYPTO.decrypt(MASTER_PASSWORD, ciphertextUsername, salt, iv);
-        char[] password = CRYPTO.decrypt(MASTER_PASSWORD, ciphertextPassword, salt, iv);
+        char[] username, password;
+        if (entry.cipherSuite() == CipherSuite.AES_CBC) {
+            // Legacy entry: authenticate the secret key against the secret hash, then decrypt.
+            try {
+                char[][] credentials = CRYPTO.decryptLegacy(entry, MASTER_PASSWORD);
+                username = credentials[0];
+                password = credentials[1];
+            }
+            catch (EntryAuthenticationFailedException e) {
+                System.out.println(e.getMessage());
+                terminateSession(StatusCode.AUTHENTICATION_FAILED);
+                return;
+            }
+
+            // Re-encrypt the entry with the vault's cipher suite, so it takes the fast path from now on.
+            byte[][] encrypted = CRYPTO.encrypt(accountName, username, password);
+            try {
+                updateAccount(accountName, associatedEmail,
+                        encrypted[0], encrypted[1], encrypted[2], encrypted[3], CRYPTO.getCipherSuite());
+            }
+            catch (AccountNotFoundException ignored) {} // The entry was deleted, nothing left to migrate.
+            catch (VaultRekeyInProgressException ignored) {} // The rekey converts the entry instead.
+        }
+        else {
+            // The integrity of the entry is verified during decryption, no separate check is needed.
+            try {
+                char[][] credentials = decryptEntry(entry);
+                username = credentials[0];
+                password = credentials[1];
+            }
+            catch (EntryAuthenticationFailedException e) {
+                System.out.println(e.getMessage());
+                terminateSession(StatusCode.AUTHENTICATION_FAILED);
+                return;
+            }
+        }
 
         // Clear Screen and display account name.
         clearScreen();
@@ -411,6 +1218,15 @@ public class Controller {
             Arrays.fill(MASTER_PASSWORD, '\0');
         }
 
+        // Clearing the session master key from memory.
+        if (CRYPTO != null) {
+            CRYPTO.lock();
+        }
+        setRekeyCrypto(null);
+
+        // Closing the connections to the vault database.
+        VaultController.close();
+
         // Clearing screen.
         try {
             // For Windows systems.
@@ -0,0 +1,44 @@
+package bix.enums;
+
+import org.jetbrains.annotations.NotNull;
+
+public enum CipherSuite {
+    // Legacy, only used to read entries written before authenticated encryption was introduced.
+    AES_CBC("AES-CBC"),
+    AES_GCM("AES-GCM"),
+    CHACHA20_POLY1305("ChaCha20-Poly1305");
+
+    private final String strValue;
+
+    CipherSuite(final String strValue) {
+        this.strValue = strValue;
+    }
+
+    @Override @NotNull
+    public String toString() {
+        return strValue;
+    }
+
+    /**
+     * Get the cipher suite named by a stored value. Entries written before the column existed hold "AES-CBC", the
+     * column's default. An unknown value is rejected rather than read as the legacy suite.
+     *
+     * @throws IllegalArgumentException if the value names no cipher suite
+     */
+    @NotNull
+    public static CipherSuite fromString(@NotNull String value) {
+        switch(value) {
+            case "AES-CBC" -> {
+                return AES_CBC;
+            }
+            case "AES-GCM" -> {
+                return AES_GCM;
+            }
+            case "ChaCha20-Poly1305" -> {
+                return CHACHA20_POLY1305;
+            }
+            default -> throw new IllegalArgumentException("Unknown cipher suite: " + value);
+        }
+    }
+
+} // enum CipherSuite
@@ -0,0 +1,42 @@
+package bix.enums;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+import static bix.utils.Constants.CIPHER_ALGORITHM;
+import static bix.utils.Constants.LEGACY_CIPHER_ALGORITHM;
+import static bix.utils.Constants.CHACHA20_POLY1305_ALGORITHM;
+
+/**
+ * The cryptographic primitives Bix obtains from a JCE provider. Each one can be served by a different provider.
+ */
+public enum CryptoPrimitive {
+    SHA256("SHA-256"),
+    AES_GCM(CIPHER_ALGORITHM),
+    AES_CBC(LEGACY_CIPHER_ALGORITHM),
+    CHACHA20_POLY1305(CHACHA20_POLY1305_ALGORITHM),
+    PBKDF2("PBKDF2WithHmacSHA256");
+
+    private final String algorithm;
+
+    CryptoPrimitive(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Get the id of the "bix_metadata" field storing the provider selected for this primitive.
+     *
+     * @return the metadata id
+     */
+    @NotNull
+    public String metadataId() {
+        return "provider_" + name().toLowerCase(Locale.ROOT);
+    }
+
+    @Override @NotNull
+    public String toString() {
+        return algorithm;
+    }
+
+} // enum CryptoPrimitive
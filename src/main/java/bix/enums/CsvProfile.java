@@ -0,0 +1,92 @@
+package bix.enums;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The column layouts of the CSV exports of Bix and other password managers. A profile maps the header names of its
+ * export (lowercase) to the account fields, and is recognised by the columns it requires along with a few marker
+ * columns which tell it apart from the other profiles.
+ */
+public enum CsvProfile {
+    BIX("Bix", "account_name", "associated_email", "username", "password"),
+    BITWARDEN("Bitwarden", "name", null, "login_username", "login_password", "login_uri"),
+    LASTPASS("LastPass", "name", null, "username", "password", "grouping", "extra"),
+    KEEPASSXC("KeePassXC", "title", null, "username", "password", "group"),
+    ONE_PASSWORD("1Password", "title", null, "username", "password"),
+    // Firefox exports have no name column, the account is named after the site URL.
+    FIREFOX("Firefox", "url", null, "username", "password", "httprealm"),
+    CHROME("Chrome", "name", null, "username", "password", "url");
+
+    private final String strValue;
+    private final String accountNameColumn;
+    private final String associatedEmailColumn;
+    private final String usernameColumn;
+    private final String passwordColumn;
+    private final List<String> markerColumns;
+
+    CsvProfile(final String strValue, final String accountNameColumn, final String associatedEmailColumn,
+               final String usernameColumn, final String passwordColumn, final String... markerColumns) {
+        this.strValue = strValue;
+        this.accountNameColumn = accountNameColumn;
+        this.associatedEmailColumn = associatedEmailColumn;
+        this.usernameColumn = usernameColumn;
+        this.passwordColumn = passwordColumn;
+        this.markerColumns = List.of(markerColumns);
+    }
+
+    @NotNull
+    public String accountNameColumn() {
+        return accountNameColumn;
+    }
+
+    @Nullable
+    public String associatedEmailColumn() {
+        return associatedEmailColumn;
+    }
+
+    @NotNull
+    public String usernameColumn() {
+        return usernameColumn;
+    }
+
+    @NotNull
+    public String passwordColumn() {
+        return passwordColumn;
+    }
+
+    /**
+     * Check if a CSV header has the columns of this profile.
+     *
+     * @param header the lowercase column names of the header
+     */
+    public boolean matches(@NotNull Collection<String> header) {
+        return header.contains(accountNameColumn) && header.contains(usernameColumn)
+                && header.contains(passwordColumn) && header.containsAll(markerColumns);
+    }
+
+    /**
+     * Find the profile of a CSV header. Profiles are tried in declaration order, the more specific ones first.
+     *
+     * @param header the lowercase column names of the header
+     *
+     * @return the first matching profile, or null if no profile matches
+     */
+    @Nullable
+    public static CsvProfile detect(@NotNull Collection<String> header) {
+        for (var profile : values()) {
+            if (profile.matches(header))
+                return profile;
+        }
+        return null;
+    }
+
+    @Override @NotNull
+    public String toString() {
+        return strValue;
+    }
+
+} // enum CsvProfile
@@ -0,0 +1,32 @@
+package bix.enums;
+
+import org.jetbrains.annotations.NotNull;
+
+public enum KDFAlgorithm {
+    PBKDF2("PBKDF2WithHmacSHA256"),
+    ARGON2ID("Argon2id");
+
+    private final String strValue;
+
+    KDFAlgorithm(final String strValue) {
+        this.strValue = strValue;
+    }
+
+    @Override @NotNull
+    public String toString() {
+        return strValue;
+    }
+
+    @NotNull
+    public static KDFAlgorithm fromString(@NotNull String value) {
+        switch(value) {
+            case "Argon2id" -> {
+                return ARGON2ID;
+            }
+            default -> {
+                return PBKDF2;
+            }
+        }
+    }
+
+} // enum KDFAlgorithm
@@ -28,6 +28,12 @@ public enum StatusCode {
     // Idle Session Timeout.
     IDLE_SESSION_TIMEOUT(8, "Bix session terminated due to inactivity."),
 
+    // Vault Locked by Another Session.
+    VAULT_IN_USE(9, "The vault is in use by another Bix session."),
+
+    // Vault Rekey Taken Over by Another Session.
+    REKEY_TAKEN_OVER(10, "The vault rekey was taken over by another Bix session."),
+
     // Unknown Errors.
     UNKNOWN_ERROR(127, "An unknown error occurred.");
     //--------------------------------------------------------------------------------------------
@@ -0,0 +1,7 @@
+package bix.exceptions;
+
+public class EntryAuthenticationFailedException extends Exception {
+    public EntryAuthenticationFailedException(String accountName) {
+        super(String.format("ERROR: Account \"%s\" failed the integrity check.", accountName));
+    }
+}
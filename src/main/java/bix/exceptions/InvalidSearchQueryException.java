@@ -0,0 +1,7 @@
+package bix.exceptions;
+
+public class InvalidSearchQueryException extends Exception {
+    public InvalidSearchQueryException(String query) {
+        super(String.format("\"%s\" is not a valid search query.", query));
+    }
+}
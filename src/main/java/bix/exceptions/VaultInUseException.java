@@ -0,0 +1,7 @@
+package bix.exceptions;
+
+public class VaultInUseException extends RuntimeException {
+    public VaultInUseException() {
+        super("ERROR: The vault is in use by another Bix session.");
+    }
+}
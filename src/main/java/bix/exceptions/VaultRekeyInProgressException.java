@@ -0,0 +1,7 @@
+package bix.exceptions;
+
+public class VaultRekeyInProgressException extends RuntimeException {
+    public VaultRekeyInProgressException() {
+        super("ERROR: The vault is being rekeyed by another Bix session. Try again once the rekey completes.");
+    }
+}
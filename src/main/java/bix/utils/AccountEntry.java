@@ -0,0 +1,21 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+
+/**
+ * An account entry as it is stored in the vault's "accounts" table (binary row format).
+ *
+ * @param accountName the account name (primary key in the database)
+ * @param associatedEmail the email associated with the account
+ * @param ciphertextUsername the ciphertext containing the encrypted username
+ * @param ciphertextPassword the ciphertext containing the encrypted password
+ * @param salt the salt used for encrypting the ciphertexts
+ * @param iv the initialization vector used for encrypting the ciphertexts
+ * @param secretHash the SHA256 hash of the secret key, only present for legacy AES-CBC entries
+ * @param kdfVersion how the secret key is derived (see Constants.KDF_VERSION_*)
+ * @param cipherSuite how the credentials are encrypted
+ */
+public record AccountEntry(
+        String accountName, String associatedEmail, byte[] ciphertextUsername, byte[] ciphertextPassword,
+        byte[] salt, byte[] iv, byte[] secretHash, int kdfVersion, CipherSuite cipherSuite) {
+}
@@ -0,0 +1,243 @@
+package bix.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import static bix.utils.Constants.ACCOUNT_NAME_FILE_FORMAT_VERSION;
+import static bix.utils.Constants.ACCOUNT_NAME_FILE_MAGIC;
+
+/**
+ * The account name index file, "vault.names", kept next to the vault so the account name search index can be loaded
+ * at startup without reading the vault. It holds every account name in alphabetical order with its row id in the
+ * vault, and the names version of the vault when it was written (see {@code AccountNameFileStore.getNamesVersion()}).
+ *
+ * The names are front-coded: each name only stores the bytes following the prefix it shares with the previous name,
+ * which is most of a sorted list of names. All numbers are big-endian.
+ *
+ *   header: magic "BIXNAMES" (8) | format version (1) | names version (8) | highest row id (8) | name count (4) |
+ *           CRC32C of the header and the names (4)
+ *   name:   length of the prefix shared with the previous name (varint) | length of the suffix (varint) |
+ *           UTF-8 bytes of the suffix | row id (varint)
+ *
+ * A new entry gets a row id above every row id in the vault, so the names added since the file was written are the
+ * rows after its highest row id. The file is replaced atomically, a file which fails its checksum is ignored.
+ */
+final class AccountNameFile {
+    private static final byte[] MAGIC = ACCOUNT_NAME_FILE_MAGIC.getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    // Names version of the vault when the file was written.
+    private final long NAMES_VERSION;
+
+    // Account names in alphabetical order, and the row id of each.
+    private final List<String> NAMES;
+    private final long[] ROW_IDS;
+
+    // The highest row id, and its account name; 0 and null if the file holds no name.
+    private final long LAST_ROW_ID;
+    private final String LAST_ROW_NAME;
+
+    private AccountNameFile(long namesVersion, List<String> names, long[] rowIds, long lastRowId,
+                            String lastRowName) {
+        NAMES_VERSION = namesVersion;
+        NAMES = names;
+        ROW_IDS = rowIds;
+        LAST_ROW_ID = lastRowId;
+        LAST_ROW_NAME = lastRowName;
+    }
+
+    /**
+     * Map the account name index file and decode it.
+     *
+     * @param path the path of the file
+     *
+     * @return the file, or null if it does not exist, is damaged or was written by another version of Bix
+     */
+    static AccountNameFile load(Path path) {
+        if (Files.notExists(path))
+            return null;
+
+        try (var channel = FileChannel.open(path, READ)) {
+            if (channel.size() < HEADER_LENGTH || channel.size() > Integer.MAX_VALUE)
+                return null;
+            var mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            var magic = new byte[MAGIC.length];
+            mapping.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC) || mapping.get(MAGIC.length) != ACCOUNT_NAME_FILE_FORMAT_VERSION)
+                return null;
+
+            var crc = new CRC32C();
+            crc.update(mapping.slice(0, HEADER_LENGTH - Integer.BYTES));
+            crc.update(mapping.slice(HEADER_LENGTH, mapping.capacity() - HEADER_LENGTH));
+            if ((int) crc.getValue() != mapping.getInt(HEADER_LENGTH - Integer.BYTES))
+                return null;
+
+            long namesVersion = mapping.getLong(MAGIC.length + 1);
+            long lastRowId = mapping.getLong(MAGIC.length + 1 + Long.BYTES);
+            int count = mapping.getInt(MAGIC.length + 1 + 2 * Long.BYTES);
+
+            var names = new ArrayList<String>(count);
+            var rowIds = new long[count];
+            String lastRowName = null;
+            var name = new byte[64];
+            var buffer = mapping.position(HEADER_LENGTH);
+            for (int i = 0; i < count; i++) {
+                int shared = (int) getVarint(buffer);
+                int suffix = (int) getVarint(buffer);
+                if (shared + suffix > name.length)
+                    name = Arrays.copyOf(name, Math.max(shared + suffix, 2 * name.length));
+                buffer.get(name, shared, suffix);
+
+                var accountName = new String(name, 0, shared + suffix, StandardCharsets.UTF_8);
+                long rowId = getVarint(buffer);
+                names.add(accountName);
+                rowIds[i] = rowId;
+                if (rowId == lastRowId)
+                    lastRowName = accountName;
+            }
+
+            return new AccountNameFile(namesVersion, names, rowIds, lastRowId, lastRowName);
+        }
+        catch (IOException | RuntimeException e) {
+            // A file which cannot be read is rebuilt from the vault.
+            return null;
+        }
+    }
+
+    /**
+     * Write an account name index file, replacing the current one once it is complete.
+     *
+     * @param path the path of the file
+     * @param namesVersion the names version of the vault the rows were read from
+     * @param rows the row id of every account name, by account name
+     */
+    static void write(Path path, long namesVersion, SortedMap<String, Long> rows) {
+        var names = new ByteArrayOutputStream();
+        long lastRowId = 0;
+        var previous = new byte[0];
+        for (Map.Entry<String, Long> row : rows.entrySet()) {
+            var name = row.getKey().getBytes(StandardCharsets.UTF_8);
+            int shared = Arrays.mismatch(previous, name);
+            if (shared < 0)
+                shared = name.length;
+
+            putVarint(names, shared);
+            putVarint(names, name.length - shared);
+            names.write(name, shared, name.length - shared);
+            putVarint(names, row.getValue());
+
+            lastRowId = Math.max(lastRowId, row.getValue());
+            previous = name;
+        }
+
+        var header = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put((byte) ACCOUNT_NAME_FILE_FORMAT_VERSION)
+                .putLong(namesVersion)
+                .putLong(lastRowId)
+                .putInt(rows.size());
+
+        var body = names.toByteArray();
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        crc.update(body);
+        header.putInt((int) crc.getValue()).flip();
+
+        var temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (var channel = FileChannel.open(temporaryPath, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                var buffers = new ByteBuffer[] {header, ByteBuffer.wrap(body)};
+                while (buffers[1].hasRemaining()) {
+                    channel.write(buffers);
+                }
+                channel.force(true);
+            }
+            Files.move(temporaryPath, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the names version of the vault when the file was written.
+     */
+    long namesVersion() {
+        return NAMES_VERSION;
+    }
+
+    /**
+     * Get the account names in the file, in alphabetical order.
+     */
+    List<String> names() {
+        return NAMES;
+    }
+
+    /**
+     * Get the row id of every account name in the file, by account name.
+     */
+    TreeMap<String, Long> rows() {
+        var rows = new TreeMap<String, Long>();
+        for (int i = 0; i < NAMES.size(); i++) {
+            rows.put(NAMES.get(i), ROW_IDS[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * Get the highest row id in the file, 0 if the file holds no name.
+     */
+    long lastRowId() {
+        return LAST_ROW_ID;
+    }
+
+    /**
+     * Get the account name with the highest row id in the file, null if the file holds no name.
+     */
+    String lastRowName() {
+        return LAST_ROW_NAME;
+    }
+
+    /**
+     * Write a non-negative number in 7-bit groups, lowest first, the high bit set on every group but the last.
+     */
+    private static void putVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Malformed varint.");
+    }
+
+} // class AccountNameFile
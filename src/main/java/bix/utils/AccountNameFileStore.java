@@ -0,0 +1,38 @@
+package bix.utils;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * Vault store which keeps an account name index file next to the vault, see {@code AccountNameFile}. Such a store
+ * also keeps a names version and row ids, and deletes the file along with the vault. The account name search index
+ * of other stores is built from {@code VaultStore.getAccountNames()}.
+ */
+interface AccountNameFileStore extends VaultStore {
+
+    /**
+     * Get the path of the account name index file kept next to the vault.
+     *
+     * @return the path of the file, or null if this vault keeps none, e.g. an in-memory database
+     */
+    Path getAccountNameFilePath();
+
+    /**
+     * Get the names version of the vault: a counter advanced by every account name added to or deleted from the
+     * vault, by any process. It tells if an account name index file written earlier is stale.
+     *
+     * @return the names version, or -1 if the vault has not been migrated to count the account names yet
+     */
+    long getNamesVersion();
+
+    /**
+     * Get the account names of the entries from a row id on, with their row ids, in row id order. A new entry gets a
+     * row id above every row id in the vault.
+     *
+     * @param rowId the row id to start at, inclusive
+     *
+     * @return the account names, mapped by row id
+     */
+    LinkedHashMap<Long, String> getAccountNamesFromRow(long rowId);
+
+} // interface AccountNameFileStore
@@ -0,0 +1,179 @@
+package bix.utils;
+
+import java.nio.ByteBuffer;
+
+import static bix.utils.Constants.ACCOUNT_NAME_FILTER_FALSE_POSITIVE_RATE;
+
+/**
+ * Bloom filter over the account names in the vault, which answers "this account does not exist" without a lookup in
+ * the vault. A name which was added is always reported as possibly present; a name which was not is reported absent,
+ * except for a small share of false positives, which are then looked up.
+ *
+ * Each name sets {@code k} bits of an array of {@code m} bits, at positions derived from a 64-bit hash of the name:
+ * position i is (h1 + i * h2) mod m, h1 and h2 being the two halves of the hash. The array is sized for a capacity of
+ * names at the target false-positive rate (see {@code Constants.ACCOUNT_NAME_FILTER_FALSE_POSITIVE_RATE}); once more
+ * names than that were added the filter is full, and is rebuilt larger. Deleted names cannot be taken out of a Bloom
+ * filter, they stay in it until it is rebuilt.
+ *
+ * The filter records the names version of the vault it describes (see {@code AccountNameFileStore.getNamesVersion()}).
+ * It is stored in the vault as a blob, all numbers big-endian:
+ *
+ *   names version (8) | capacity (4) | number of names added (4) | number of hash functions (1) | bits (8 per 64)
+ */
+final class AccountNameFilter {
+    private static final int HEADER_LENGTH = Long.BYTES + 2 * Integer.BYTES + 1;
+
+    private final long[] BITS;
+    private final int CAPACITY;
+    private final int HASH_COUNT;
+
+    private long namesVersion;
+    private int count;
+
+    private AccountNameFilter(long[] bits, int capacity, int hashCount, long namesVersion, int count) {
+        BITS = bits;
+        CAPACITY = capacity;
+        HASH_COUNT = hashCount;
+        this.namesVersion = namesVersion;
+        this.count = count;
+    }
+
+    /**
+     * Create an empty filter, sized for {@code capacity} names at the target false-positive rate:
+     * m = -capacity * ln(p) / ln(2)^2 bits, and k = m / capacity * ln(2) hash functions.
+     *
+     * @param capacity the number of names the filter is sized for
+     * @param namesVersion the names version of the vault the names are added from
+     */
+    static AccountNameFilter create(int capacity, long namesVersion) {
+        double bitCount = -capacity * Math.log(ACCOUNT_NAME_FILTER_FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2));
+        int words = (int) Math.ceil(bitCount / Long.SIZE);
+        int hashCount = Math.max(1, (int) Math.round((double) words * Long.SIZE / capacity * Math.log(2)));
+        return new AccountNameFilter(new long[words], capacity, hashCount, namesVersion, 0);
+    }
+
+    /**
+     * Decode a filter stored with {@code toBytes()}.
+     *
+     * @return the filter, or null if the bytes are not a stored filter
+     */
+    static AccountNameFilter fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length < HEADER_LENGTH || (bytes.length - HEADER_LENGTH) % Long.BYTES != 0)
+            return null;
+
+        var buffer = ByteBuffer.wrap(bytes);
+        long namesVersion = buffer.getLong();
+        int capacity = buffer.getInt();
+        int count = buffer.getInt();
+        int hashCount = buffer.get();
+
+        var bits = new long[buffer.remaining() / Long.BYTES];
+        buffer.asLongBuffer().get(bits);
+        if (capacity <= 0 || hashCount <= 0 || bits.length == 0)
+            return null;
+
+        return new AccountNameFilter(bits, capacity, hashCount, namesVersion, count);
+    }
+
+    /**
+     * Encode the filter to be stored in the vault.
+     */
+    byte[] toBytes() {
+        var buffer = ByteBuffer.allocate(HEADER_LENGTH + BITS.length * Long.BYTES)
+                .putLong(namesVersion)
+                .putInt(CAPACITY)
+                .putInt(count)
+                .put((byte) HASH_COUNT);
+        buffer.asLongBuffer().put(BITS);
+        return buffer.array();
+    }
+
+    /**
+     * Add an account name to the filter.
+     */
+    void add(String accountName) {
+        long hash = hash(accountName);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        long bitCount = (long) BITS.length * Long.SIZE;
+
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            BITS[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    /**
+     * Check if an account name may have been added to the filter.
+     *
+     * @return false if the name was certainly not added, true if it probably was
+     */
+    boolean mightContain(String accountName) {
+        long hash = hash(accountName);
+        long h1 = hash & 0xFFFFFFFFL;
+        long h2 = hash >>> 32;
+        long bitCount = (long) BITS.length * Long.SIZE;
+
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = (h1 + i * h2) % bitCount;
+            if ((BITS[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the names version of the vault the filter describes.
+     */
+    long namesVersion() {
+        return namesVersion;
+    }
+
+    /**
+     * Set the names version of the vault the filter describes, once the names added to the vault are added to it.
+     */
+    void setNamesVersion(long namesVersion) {
+        this.namesVersion = namesVersion;
+    }
+
+    /**
+     * Check if more names were added to the filter than it is sized for, its false-positive rate is then above the
+     * target.
+     */
+    boolean isFull() {
+        return count > CAPACITY;
+    }
+
+    /**
+     * Get the false-positive rate expected from the share of bits set: a name which was not added passes every one
+     * of the {@code k} bit checks with the probability (bits set / m)^k.
+     */
+    double expectedFalsePositiveRate() {
+        long bitsSet = 0;
+        for (long word : BITS) {
+            bitsSet += Long.bitCount(word);
+        }
+        return Math.pow((double) bitsSet / (BITS.length * Long.SIZE), HASH_COUNT);
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the chars of a name, finished with the MurmurHash3 mix so both halves are well spread.
+     * The hash must not change between versions of Bix, as the filter is stored.
+     */
+    private static long hash(String accountName) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < accountName.length(); i++) {
+            hash ^= accountName.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+} // class AccountNameFilter
@@ -0,0 +1,24 @@
+package bix.utils;
+
+/**
+ * Counters of the Bloom filter over the account names of a vault store (see {@code AccountNameFilter}), telling how
+ * many lookups of account names which are not in the vault it answered on its own.
+ *
+ * @param rejected the lookups of account names the filter reported absent, answered without reading the vault
+ * @param falsePositives the lookups of account names the filter reported possibly present, which were not in the
+ *     vault
+ * @param expectedFalsePositiveRate the false-positive rate expected from the bits set in the filter, NaN if the
+ *     filter is not loaded
+ */
+public record AccountNameFilterStats(long rejected, long falsePositives, double expectedFalsePositiveRate) {
+    /**
+     * Get the false-positive rate observed: the share of the lookups of account names not in the vault which the
+     * filter let through to the vault.
+     *
+     * @return the false-positive rate, 0 if no account name missing from the vault was looked up
+     */
+    public double falsePositiveRate() {
+        long misses = rejected + falsePositives;
+        return misses == 0 ? 0 : (double) falsePositives / misses;
+    }
+}
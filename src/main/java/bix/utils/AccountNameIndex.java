@@ -0,0 +1,253 @@
+package bix.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * In-memory trigram index over the account names in the vault, used for the case-insensitive substring search.
+ *
+ * Every account name is given an id, and every trigram (3 consecutive characters) of the uppercase account name maps
+ * to the sorted list of ids of the names containing it. A keyword of 3 or more characters can only be contained in
+ * names which contain every trigram of the keyword, so the search intersects the posting lists of the keyword's
+ * trigrams, starting with the shortest, and only checks the remaining candidates. Keywords shorter than a trigram
+ * fall back to checking every name.
+ *
+ * Ids are handed out in increasing order and never reused, so a new id is always appended to the end of a posting
+ * list. Removed names leave a gap, the index is rebuilt once more than half of the ids are gaps.
+ */
+public final class AccountNameIndex {
+    private static final int GRAM_LENGTH = 3;
+
+    // Account names, and their uppercase form, by id; null if the name was removed.
+    private final ArrayList<String> NAMES = new ArrayList<>();
+    private final ArrayList<String> UPPERCASE_NAMES = new ArrayList<>();
+
+    // Id of every account name in the index.
+    private final HashMap<String, Integer> IDS = new HashMap<>();
+
+    // Posting list of every trigram, the ids of the names containing it in ascending order.
+    private final HashMap<Long, PostingList> POSTINGS = new HashMap<>();
+
+    /**
+     * AccountNameIndex constructor.
+     *
+     * @param accountNames the account names to index
+     */
+    public AccountNameIndex(Collection<String> accountNames) {
+        for (var accountName : accountNames) {
+            add(accountName);
+        }
+    }
+
+    /**
+     * Add an account name to the index. Does nothing if the name is already indexed.
+     *
+     * @param accountName the account name
+     */
+    public synchronized void add(String accountName) {
+        if (IDS.containsKey(accountName))
+            return;
+
+        int id = NAMES.size();
+        var uppercaseName = accountName.toUpperCase(Locale.ROOT);
+
+        NAMES.add(accountName);
+        UPPERCASE_NAMES.add(uppercaseName);
+        IDS.put(accountName, id);
+
+        for (var gram : grams(uppercaseName)) {
+            POSTINGS.computeIfAbsent(gram, key -> new PostingList()).append(id);
+        }
+    }
+
+    /**
+     * Remove an account name from the index. Does nothing if the name is not indexed.
+     *
+     * @param accountName the account name
+     */
+    public synchronized void remove(String accountName) {
+        var id = IDS.remove(accountName);
+        if (id == null)
+            return;
+
+        for (var gram : grams(UPPERCASE_NAMES.get(id))) {
+            var postings = POSTINGS.get(gram);
+            postings.remove(id);
+            if (postings.size == 0)
+                POSTINGS.remove(gram);
+        }
+
+        NAMES.set(id, null);
+        UPPERCASE_NAMES.set(id, null);
+
+        // Rebuild the index once most of the ids are gaps, so memory use follows the number of names.
+        if (IDS.size() < NAMES.size() / 2)
+            rebuild();
+    }
+
+    /**
+     * Get the account names containing a keyword, ignoring case.
+     *
+     * @param keyword the keyword to search for
+     *
+     * @return the matching account names, in alphabetical order
+     */
+    public synchronized ArrayList<String> search(String keyword) {
+        var uppercaseKeyword = keyword.toUpperCase(Locale.ROOT);
+        var accountNames = new ArrayList<String>();
+
+        if (uppercaseKeyword.length() < GRAM_LENGTH) {
+            // The keyword has no trigram, check every name.
+            for (int id = 0; id < NAMES.size(); id++) {
+                var uppercaseName = UPPERCASE_NAMES.get(id);
+                if (uppercaseName != null && uppercaseName.contains(uppercaseKeyword))
+                    accountNames.add(NAMES.get(id));
+            }
+        }
+        else {
+            // Collect the posting list of every trigram of the keyword, any trigram without one means no match.
+            var grams = grams(uppercaseKeyword);
+            var postings = new PostingList[grams.length];
+            for (int i = 0; i < grams.length; i++) {
+                postings[i] = POSTINGS.get(grams[i]);
+                if (postings[i] == null)
+                    return accountNames;
+            }
+
+            // Intersecting the shortest posting lists first keeps the candidates few.
+            Arrays.sort(postings, Comparator.comparingInt(list -> list.size));
+
+            int[] candidates = Arrays.copyOf(postings[0].ids, postings[0].size);
+            int count = candidates.length;
+            for (int i = 1; i < postings.length && count > 0; i++) {
+                count = postings[i].retainAll(candidates, count);
+            }
+
+            // The trigrams of a match may appear in another order or apart, so every candidate is checked.
+            for (int i = 0; i < count; i++) {
+                if (UPPERCASE_NAMES.get(candidates[i]).contains(uppercaseKeyword))
+                    accountNames.add(NAMES.get(candidates[i]));
+            }
+        }
+
+        accountNames.sort(null);
+        return accountNames;
+    }
+
+    /**
+     * Get the number of account names in the index.
+     */
+    public synchronized int size() {
+        return IDS.size();
+    }
+
+    /**
+     * Re-index the remaining account names with consecutive ids.
+     */
+    private void rebuild() {
+        var accountNames = new ArrayList<String>(IDS.size());
+        for (var accountName : NAMES) {
+            if (accountName != null)
+                accountNames.add(accountName);
+        }
+
+        NAMES.clear();
+        UPPERCASE_NAMES.clear();
+        IDS.clear();
+        POSTINGS.clear();
+
+        for (var accountName : accountNames) {
+            add(accountName);
+        }
+    }
+
+    /**
+     * Get the distinct trigrams of an uppercase String, each packed into a long as 3 16-bit chars.
+     *
+     * @param uppercaseString the uppercase String
+     *
+     * @return the distinct trigrams, an empty array if the String is shorter than a trigram
+     */
+    private static long[] grams(String uppercaseString) {
+        int count = Math.max(uppercaseString.length() - GRAM_LENGTH + 1, 0);
+        var grams = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            grams[i] = ((long) uppercaseString.charAt(i) << 32)
+                    | ((long) uppercaseString.charAt(i + 1) << 16)
+                    | uppercaseString.charAt(i + 2);
+        }
+
+        // A trigram repeated in the String must only be posted once.
+        Arrays.sort(grams);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || grams[i] != grams[distinct - 1])
+                grams[distinct++] = grams[i];
+        }
+        return distinct == count ? grams : Arrays.copyOf(grams, distinct);
+    }
+
+
+    //--------------------
+
+
+    /**
+     * A growable array of ids in ascending order.
+     */
+    private static final class PostingList {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        /**
+         * Append an id larger than every id in the list.
+         */
+        private void append(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        /**
+         * Remove an id from the list, if present.
+         */
+        private void remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0)
+                return;
+
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+        }
+
+        /**
+         * Keep only the candidates which are also in this list, in place.
+         *
+         * @param candidates ids in ascending order
+         * @param count the number of candidates
+         *
+         * @return the number of candidates kept, at the start of the candidates array
+         */
+        private int retainAll(int[] candidates, int count) {
+            int kept = 0;
+            int from = 0;
+
+            for (int i = 0; i < count && from < size; i++) {
+                int index = Arrays.binarySearch(ids, from, size, candidates[i]);
+                if (index >= 0) {
+                    candidates[kept++] = candidates[i];
+                    from = index + 1;
+                }
+                else {
+                    from = -index - 1;
+                }
+            }
+            return kept;
+        }
+    }
+
+} // class AccountNameIndex
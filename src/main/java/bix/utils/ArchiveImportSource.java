@@ -0,0 +1,194 @@
+package bix.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+/**
+ * Reads the accounts of a vault archive written by Export Vault (see {@code VaultArchive}), one chunk at a time.
+ * Every chunk is authenticated before any of its records is returned, and the decrypted bytes are cleared as soon
+ * as they are decoded. The credentials are decoded straight into char arrays, never into Strings.
+ */
+public final class ArchiveImportSource implements ImportSource {
+    // Largest field accepted, well beyond any account name or credential.
+    private static final int MAX_FIELD_LENGTH = 1 << 20;
+
+    private final FileChannel CHANNEL;
+    private final VaultArchive.Header HEADER;
+    private final SecretKey KEY;
+    private final Cipher CIPHER = VaultArchive.newCipher();
+    private final CharsetDecoder DECODER = StandardCharsets.UTF_8.newDecoder();
+
+    // Ciphertext of the current chunk, and the decrypted bytes not yet decoded.
+    private final ByteBuffer CIPHERTEXT;
+    private ByteBuffer plaintext;
+
+    private int index = 0;
+    private boolean finished = false;
+
+    /**
+     * ArchiveImportSource constructor. Reads the header of the archive and derives the archive key.
+     *
+     * @param path the path of the archive
+     * @param archivePassword the password the archive is encrypted under
+     *
+     * @throws IOException if the file cannot be read, or is not a vault archive
+     */
+    public ArchiveImportSource(Path path, char[] archivePassword) throws IOException {
+        CHANNEL = FileChannel.open(path, READ);
+        try {
+            HEADER = VaultArchive.Header.read(CHANNEL);
+        }
+        catch (IOException e) {
+            CHANNEL.close();
+            throw e;
+        }
+        KEY = VaultArchive.deriveKey(archivePassword, HEADER);
+        CIPHERTEXT = ByteBuffer.allocate(HEADER.chunkSize() + VaultArchive.CHUNK_OVERHEAD);
+        plaintext = ByteBuffer.allocate(2 * HEADER.chunkSize()).flip();
+    }
+
+    @Override
+    public ImportRecord next() throws IOException {
+        // The archive ends after the final chunk, on a record boundary.
+        if (!plaintext.hasRemaining() && !fill(1))
+            return null;
+
+        char[] accountName = readField();
+        char[] associatedEmail = readField();
+        char[] username = readField();
+        char[] password = readField();
+        if (accountName == null || username == null || password == null)
+            throw new IOException("The vault archive is damaged.");
+
+        var record = new ImportRecord(new String(accountName),
+                associatedEmail == null ? null : new String(associatedEmail), username, password);
+        clearCharArrayFromMemory(accountName);
+        if (associatedEmail != null)
+            clearCharArrayFromMemory(associatedEmail);
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plaintext.array(), (byte) 0);
+        CHANNEL.close();
+    }
+
+    /**
+     * Read a field: its UTF-8 length, then its UTF-8 bytes, decoded into a char array.
+     *
+     * @return the field, or null for an absent field
+     */
+    private char[] readField() throws IOException {
+        require(Integer.BYTES);
+        int length = plaintext.getInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > MAX_FIELD_LENGTH)
+            throw new IOException("The vault archive is damaged.");
+        require(length);
+
+        // A UTF-8 sequence never decodes to more chars than it has bytes.
+        int start = plaintext.position();
+        var bytes = plaintext.slice(start, length);
+        var chars = CharBuffer.allocate(length);
+        try {
+            DECODER.reset();
+            var result = DECODER.decode(bytes, chars, true);
+            if (result.isError())
+                result.throwException();
+            DECODER.flush(chars);
+
+            return Arrays.copyOf(chars.array(), chars.position());
+        }
+        catch (CharacterCodingException e) {
+            throw new IOException("The vault archive is damaged.", e);
+        }
+        finally {
+            clearCharArrayFromMemory(chars.array());
+            Arrays.fill(plaintext.array(), start, start + length, (byte) 0);
+            plaintext.position(start + length);
+        }
+    }
+
+    /**
+     * Make sure at least {@code length} decrypted bytes are available.
+     *
+     * @throws IOException if the archive ends first
+     */
+    private void require(int length) throws IOException {
+        if (!fill(length))
+            throw new IOException("The vault archive is damaged.");
+    }
+
+    /**
+     * Decrypt chunks until at least {@code length} decrypted bytes are available, or the final chunk is decrypted.
+     *
+     * @return true if {@code length} bytes are available
+     */
+    private boolean fill(int length) throws IOException {
+        while (plaintext.remaining() < length) {
+            if (finished)
+                return false;
+            readChunk();
+        }
+        return true;
+    }
+
+    /**
+     * Read and decrypt the next chunk, appending its plaintext to the decrypted bytes not yet decoded.
+     */
+    private void readChunk() throws IOException {
+        int length = VaultArchive.readFully(CHANNEL, Integer.BYTES).getInt();
+        if (length < VaultArchive.CHUNK_OVERHEAD - Integer.BYTES || length > CIPHERTEXT.capacity())
+            throw new IOException("The vault archive is damaged.");
+
+        CIPHERTEXT.clear().limit(length);
+        while (CIPHERTEXT.hasRemaining()) {
+            if (CHANNEL.read(CIPHERTEXT) < 0)
+                throw new IOException("The vault archive is incomplete.");
+        }
+        CIPHERTEXT.flip();
+
+        // Move the bytes not yet decoded to the front, clearing the copies left behind, and grow the buffer if a
+        // field spans more chunks than it holds.
+        int remaining = plaintext.remaining();
+        int limit = plaintext.limit();
+        plaintext.compact();
+        Arrays.fill(plaintext.array(), remaining, limit, (byte) 0);
+        if (plaintext.remaining() < length) {
+            var grown = ByteBuffer.allocate(remaining + Math.max(length, plaintext.capacity()));
+            grown.put(plaintext.flip());
+            Arrays.fill(plaintext.array(), (byte) 0);
+            plaintext = grown;
+        }
+
+        // The final flag is part of the nonce: a chunk which only authenticates as final ends the archive.
+        if (!VaultArchive.decryptChunk(CIPHER, KEY, HEADER, index, false, CIPHERTEXT, plaintext)) {
+            if (!VaultArchive.decryptChunk(CIPHER, KEY, HEADER, index, true, CIPHERTEXT, plaintext))
+                throw new IOException("The vault archive is damaged, or the archive password is wrong.");
+            finished = true;
+
+            // Nothing may follow the final chunk, bytes appended to the archive are not part of it.
+            if (CHANNEL.position() != CHANNEL.size())
+                throw new IOException("The vault archive is damaged.");
+        }
+        index++;
+        plaintext.flip();
+    }
+
+} // class ArchiveImportSource
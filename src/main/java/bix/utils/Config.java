@@ -0,0 +1,73 @@
+package bix.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import static bix.utils.Constants.CONFIG_FILE_RESOURCE_PATH;
+
+/**
+ * Class to read the settings in the "config.properties" resource file.
+ * Values may be wrapped in double quotes, the quotes are not part of the value.
+ */
+public final class Config {
+    private Config(){} // Enforce non-instantiability of this class.
+
+    private static final Properties PROPERTIES = load();
+
+    /**
+     * Loads the config.properties file from the resources. A missing file results in empty properties, so every
+     * setting falls back to its default value.
+     *
+     * @return the loaded properties
+     */
+    private static Properties load() {
+        var properties = new Properties();
+        try (InputStream in = Config.class.getClassLoader().getResourceAsStream(CONFIG_FILE_RESOURCE_PATH)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        }
+        catch (IOException ignored) {} // Fall back to the default values.
+        return properties;
+    }
+
+    /**
+     * Get a String setting.
+     *
+     * @param key the name of the setting
+     * @param defaultValue the value returned if the setting is absent
+     *
+     * @return the String value of the setting
+     */
+    public static String getString(String key, String defaultValue) {
+        var value = PROPERTIES.getProperty(key);
+        if (value == null)
+            return defaultValue;
+
+        // Strip the surrounding double quotes.
+        value = value.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\""))
+            value = value.substring(1, value.length() - 1);
+
+        return value;
+    }
+
+    /**
+     * Get an integer setting.
+     *
+     * @param key the name of the setting
+     * @param defaultValue the value returned if the setting is absent or not an integer
+     *
+     * @return the integer value of the setting
+     */
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        }
+        catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+} // class Config
@@ -3,15 +3,144 @@ package bix.utils;
 public final class Constants {
     private Constants() {} // Enforce non-instantiability for this class.
 
-    // Cipher Algorithm: AES in CBC mode with PKCS5 padding.
-    public static final String CIPHER_ALGORITHM = "AES/CBC/PKCS5PADDING";
+    // Cipher Algorithm: AES in GCM mode, an authenticated mode which needs no padding.
+    public static final String CIPHER_ALGORITHM = "AES/GCM/NoPadding";
+
+    // Legacy Cipher Algorithm: AES in CBC mode with PKCS5 padding. Only used to read entries written before GCM.
+    public static final String LEGACY_CIPHER_ALGORITHM = "AES/CBC/PKCS5PADDING";
+
+    // ChaCha20-Poly1305 Cipher Algorithm: an authenticated stream cipher, fast on hosts without AES acceleration.
+    public static final String CHACHA20_POLY1305_ALGORITHM = "ChaCha20-Poly1305";
+
+    // GCM authentication tag length in bits and nonce length in bytes.
+    // ChaCha20-Poly1305 uses the same tag and nonce lengths.
+    public static final int GCM_TAG_LENGTH = 128;
+    public static final int GCM_IV_LENGTH = 12;
+
+    // Key length of ChaCha20 in bits, it has no other flavors.
+    public static final int CHACHA20_KEY_LENGTH = 256;
+
+    // Size in bytes of the buffer encrypted by the cipher suite benchmark, and how long each suite is measured.
+    public static final int CIPHER_BENCHMARK_BUFFER_SIZE = 4096;
+    public static final int CIPHER_BENCHMARK_MILLIS = 200;
+
+    // PBKDF2 iteration count of legacy entries (kdf version 1), and of the master key in vaults created before
+    // the iteration count was calibrated.
+    public static final int PBKDF2_ITERATIONS = 65536;
+
+    // Lower and Upper limits for the calibrated PBKDF2 iteration count.
+    public static final int PBKDF2_MIN_ITERATIONS = 10_000;
+    public static final int PBKDF2_MAX_ITERATIONS = 10_000_000;
+
+    // Number of probe derivations timed while calibrating, and the iteration count of each probe.
+    public static final int PBKDF2_CALIBRATION_PROBES = 8;
+    public static final int PBKDF2_CALIBRATION_PROBE_ITERATIONS = 20_000;
+
+    // Upper limit for the calibrated Argon2id time cost, and the number of probe derivations timed while calibrating.
+    public static final int ARGON2_MAX_ITERATIONS = 100;
+    public static final int ARGON2_CALIBRATION_PROBES = 3;
+
+    // Default Argon2id memory cost in KiB, used when config.properties does not specify argon2_memory_kib.
+    public static final int DEFAULT_ARGON2_MEMORY_KIB = 64 * 1024;
+
+    // Default target time in milliseconds for deriving the master key, used when config.properties does not
+    // specify kdf_target_unlock_ms.
+    public static final int DEFAULT_KDF_TARGET_UNLOCK_MS = 500;
+
+    // Length of the master key and of the vault's data key in bits.
+    public static final int MASTER_KEY_LENGTH = 256;
+    public static final int DATA_KEY_LENGTH = 256;
+
+    // Additional authenticated data of the wrapped data key.
+    public static final String DATA_KEY_AAD = "bix-data-key";
+
+    // HKDF context info used when expanding entry keys from the session master key. ChaCha20-Poly1305 entry keys
+    // use their own context info, so they are never related to an AES entry key.
+    public static final String HKDF_ENTRY_KEY_INFO = "bix-entry-key-v2";
+    public static final String HKDF_CHACHA20_ENTRY_KEY_INFO = "bix-entry-key-v2-chacha20-poly1305";
+
+    // Key derivation versions stored with every account entry.
+    // Version 1: entry key derived from the Master Password with PBKDF2 (legacy).
+    // Version 2: entry key expanded from the session master key with HKDF.
+    public static final int KDF_VERSION_PBKDF2 = 1;
+    public static final int KDF_VERSION_HKDF = 2;
+
+    // JCE providers considered for every cryptographic primitive: Bouncy Castle and the JDK's own providers.
+    public static final String[] PROVIDER_CANDIDATES = {"BC", "SunJCE", "SUN"};
+
+    // Number of passes and length of each pass in milliseconds when measuring a provider for a primitive. The
+    // buffer is about the size of a credential, so the per-operation overhead counts as much as the raw throughput.
+    public static final int PROVIDER_BENCHMARK_PASSES = 4;
+    public static final int PROVIDER_BENCHMARK_MILLIS = 50;
+    public static final int PROVIDER_BENCHMARK_BUFFER_SIZE = 256;
+    public static final int PROVIDER_BENCHMARK_PBKDF2_ITERATIONS = 1000;
+
+    // Number of entries read, re-encrypted and written together when rekeying the vault, and the number of such
+    // batches held in memory at once.
+    public static final int REKEY_BATCH_SIZE = 256;
+    public static final int REKEY_BATCHES_IN_FLIGHT = 4;
+
+    // Interval in milliseconds at which a rekey renews its lease, and the time after which the lease of a rekey which
+    // stopped renewing it is stale: the rekey is then taken to be interrupted, and another session may resume it.
+    public static final long REKEY_LEASE_HEARTBEAT_MS = 10_000;
+    public static final long REKEY_LEASE_TIMEOUT_MS = 60_000;
+
+    // Default number of records written together in one transaction when importing accounts, and the number of
+    // such batches held in memory at once.
+    public static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+    public static final int IMPORT_BATCHES_IN_FLIGHT = 4;
+
+    // Maximum number of account names listed per category in the report of an import.
+    public static final int IMPORT_REPORT_NAME_LIMIT = 20;
+
+    // Number of entries read from the vault at once when exporting it.
+    public static final int EXPORT_BATCH_SIZE = 256;
+
+    // Vault archive written by Export Vault: magic at the start of the file, format version, and the maximum number
+    // of plaintext bytes in an encrypted chunk.
+    public static final String ARCHIVE_MAGIC = "BIXARCHV";
+    public static final int ARCHIVE_FORMAT_VERSION = 1;
+    public static final int ARCHIVE_CHUNK_SIZE = 65536;
+
+    // Vault log of the "log" vault store: magic at the start of the file, and format version.
+    public static final String VAULT_LOG_MAGIC = "BIXVALOG";
+    public static final int VAULT_LOG_FORMAT_VERSION = 2;
+
+    // The vault log is compacted once it is larger than this many bytes and more than half of it is dead records,
+    // or records of the tail replayed on open.
+    public static final long VAULT_LOG_COMPACTION_MIN_SIZE = 1 << 20;
+
+    // Number of bytes appended to the vault log before its memory mapping is extended over them.
+    public static final int VAULT_LOG_REMAP_THRESHOLD = 1 << 20;
+
+    // Longest time in milliseconds a connection to the SQLite vault waits for another Bix session to release the
+    // write lock before its write fails.
+    public static final int SQLITE_BUSY_TIMEOUT_MS = 5000;
+
+    // Account name index file, kept next to the vault: magic at the start of the file, and format version.
+    public static final String ACCOUNT_NAME_FILE_MAGIC = "BIXNAMES";
+    public static final int ACCOUNT_NAME_FILE_FORMAT_VERSION = 1;
+
+    // Target false-positive rate of the account name Bloom filter, and the smallest number of names it is sized for;
+    // it is sized for twice the names in the vault when built, and rebuilt once they outgrow it.
+    public static final double ACCOUNT_NAME_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    public static final int ACCOUNT_NAME_FILTER_MIN_CAPACITY = 1024;
+
+    // Number of account names listed at once by Display Accounts, and retrieved from the vault at once.
+    public static final int ACCOUNT_LIST_PAGE_SIZE = 50;
+
+    // Maximum number of account names listed by a full-text search, best matches first.
+    public static final int SEARCH_RESULT_LIMIT = 20;
 
     // Resource path to config file.
     public static final String CONFIG_FILE_RESOURCE_PATH = "config.properties";
 
-    // Resource path to vault file.
+    // Resource path to the vault file of older Bix versions, which kept the vault in the resources.
     public static final String VAULT_RESOURCE_PATH = "vault.db";
 
+    // Default path of the vault file, "~" stands for the user's home directory.
+    public static final String DEFAULT_VAULT_PATH = "~/.bix/vault.db";
+
     // URL to Bix GitHub page.
     public static final String BIX_GITHUB_URL = "https://github.com/CookieCrumbs19212/Bix";
 
@@ -26,6 +155,8 @@ public final class Constants {
 
             \t[1] Retrieve Account
 
+            \t[S] Search Accounts
+
             \t[2] Add Account
 
             \t[3] Update Account
@@ -50,6 +181,10 @@ public final class Constants {
             
             \t[7] Change Idle Timeout Duration
             
+            \t[C] Recalibrate Key Derivation
+            
+            \t[K] Rekey Vault
+            
             \t[8] Import Vault
             
             \t[9] Export Vault
@@ -80,6 +215,9 @@ public final class Constants {
             
             \t[1] Retrieve Account - Retrieve a stored account's credentials
             
+            \t[S] Search Accounts - Search account names and emails by words, e.g. git* matches words starting with
+            \t                      "git", and combine them with AND, OR and NOT. The best matches are listed first
+            
             \t[2] Add Account - Add a new account
 
             \t[3] Update Account - Update an existing account's credentials
@@ -95,12 +233,18 @@ public final class Constants {
             
             \t[7] Change Idle Timeout Duration - Change how long Bix can stay idle before terminating the session
             
+            \t[C] Recalibrate Key Derivation - Re-tune how long unlocking Bix takes on the current machine
+            
             
             - Vault Actions:
             
-            \t[8] Import Vault - Import a Bix vault
+            \t[8] Import Vault - Import accounts from a vault archive, or from the CSV export of Bix (columns
+            \t    account_name, associated_email, username, password), Bitwarden, LastPass, KeePassXC,
+            \t    1Password, Firefox or Chrome
+            
+            \t[9] Export Vault - Export the Bix vault into an archive encrypted under a password of your choice
             
-            \t[9] Export Vault - Export the Bix vault
+            \t[K] Rekey Vault - Re-encrypt the Bix vault under a new key, optionally with a different AES flavor
             
             \t[P] Purge Vault - Destroy the contents of the Bix vault. Use this option if you no longer intend to use Bix
             
@@ -127,13 +271,38 @@ public final class Constants {
             Although AES-128 is technically considered "less secure" compared to the other flavors,
             it still provides a very high level of security.
             
-            WARNING: You cannot change the AES flavor once it has been set.
+            WARNING: Changing the AES flavor later re-encrypts the whole vault.
             
             [1] AES-128
             [2] AES-192
             [3] AES-256 (default)
             """;
 
+    // Helpful descriptions for choosing a cipher suite during setup.
+    public static final String CIPHER_SUITE_HELP_STRING = """
+            Pick a cipher. Bix will use it when encrypting credentials. Both ciphers are authenticated: any
+            tampering with a stored entry is detected when it is decrypted.
+            
+            AES-GCM is the fastest on hosts with AES acceleration, and comes in 3 flavors.
+            ChaCha20-Poly1305 is the fastest on hosts without AES acceleration, e.g. some ARM and virtual machines.
+            
+            Bix has measured both ciphers on this machine, and recommends the faster one:
+            """;
+
+    // Helpful descriptions for choosing a key derivation function during setup.
+    public static final String KDF_ALGORITHM_HELP_STRING = """
+            Pick a key derivation function. Bix will use it to derive the key that unlocks the vault from your
+            Master Password. Its cost is calibrated to this machine, so unlocking Bix takes about the same time
+            with either function.
+            
+            Argon2id is memory-hard: guessing passwords on GPUs or dedicated hardware is far more expensive.
+            This is the default function.
+            PBKDF2 needs no extra memory, pick it for machines with very little memory to spare.
+            
+            [1] PBKDF2
+            [2] Argon2id (default)
+            """;
+
     // Warning message that is printed when purging the vault.
     public static final String PURGE_VAULT_WARNING_MSG = """
             WARNING: All the saved accounts from the Bix vault will be permanently deleted.
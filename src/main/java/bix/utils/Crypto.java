@@ -1,5 +1,15 @@
 package bix.utils;
 
+import bix.enums.CipherSuite;
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
+import bix.exceptions.EntryAuthenticationFailedException;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import java.math.BigInteger;
@@ -8,41 +18,124 @@ import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 
 import java.security.*;
-import java.security.spec.KeySpec;
+import java.security.spec.AlgorithmParameterSpec;
 
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.EnumMap;
 
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
 // Get the cipher algorithm which contains the encryption system, encryption mode, and padding mode.
 import static bix.utils.Constants.CIPHER_ALGORITHM;
+import static bix.utils.Constants.LEGACY_CIPHER_ALGORITHM;
+import static bix.utils.Constants.CHACHA20_POLY1305_ALGORITHM;
+import static bix.utils.Constants.GCM_TAG_LENGTH;
+import static bix.utils.Constants.GCM_IV_LENGTH;
+import static bix.utils.Constants.CHACHA20_KEY_LENGTH;
+import static bix.utils.Constants.CIPHER_BENCHMARK_BUFFER_SIZE;
+
+import static bix.utils.Constants.PBKDF2_ITERATIONS;
+import static bix.utils.Constants.PBKDF2_MIN_ITERATIONS;
+import static bix.utils.Constants.PBKDF2_MAX_ITERATIONS;
+import static bix.utils.Constants.PBKDF2_CALIBRATION_PROBE_ITERATIONS;
+import static bix.utils.Constants.PBKDF2_CALIBRATION_PROBES;
+import static bix.utils.Constants.ARGON2_MAX_ITERATIONS;
+import static bix.utils.Constants.ARGON2_CALIBRATION_PROBES;
+import static bix.utils.Constants.MASTER_KEY_LENGTH;
+import static bix.utils.Constants.DATA_KEY_LENGTH;
+import static bix.utils.Constants.DATA_KEY_AAD;
+import static bix.utils.Constants.HKDF_ENTRY_KEY_INFO;
+import static bix.utils.Constants.HKDF_CHACHA20_ENTRY_KEY_INFO;
+import static bix.utils.Constants.KDF_VERSION_PBKDF2;
 
 /**
  * This class serves 2 functions:
  * 1. Generating SHA256 hashes
- * 2. Encrypting and decrypting data (with choice of AES flavors 128, 192, or 256)
+ * 2. Encrypting and decrypting data with an authenticated cipher suite: AES (with choice of flavors 128, 192, or 256)
+ *    in GCM mode, or ChaCha20-Poly1305
+ *
+ * Key hierarchy:
+ * The master key is derived from the Master Password with PBKDF2 or Argon2id once per session (see {@code unlock()}),
+ * using the cost calibrated for the machine. The master key unwraps the vault's random data key. Every account
+ * entry is then encrypted with its own entry key, which is expanded from the data key and the entry's salt using
+ * HKDF. Every entry is tagged with the cipher suite it was encrypted with, so a vault can hold entries of both
+ * suites. Entries written before the key hierarchy was introduced (kdf version 1) derive their
+ * key directly from the Master Password with PBKDF2. Entries written before GCM was introduced are AES-CBC encrypted.
+ * Both kinds of entries are still readable through the legacy methods.
  */
 
 public final class Crypto {
+    static {
+        // Add the Bouncy Castle provider. Done once per JVM, before any of the per-thread primitives are created.
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    /* Per-thread cryptographic primitives.
+     *
+     * Every getInstance() call goes through a provider lookup, which is costly on hot paths. Cipher, MessageDigest,
+     * SecretKeyFactory and the HKDF generator are all re-initialisable, but not thread-safe; so each thread keeps
+     * its own instances and re-initialises them for every operation. Each primitive comes from the provider
+     * selected for it in the ProviderRegistry.
+     */
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST =
+            perThread(() -> MessageDigest.getInstance(
+                    "SHA-256", ProviderRegistry.getProvider(CryptoPrimitive.SHA256)));
+    private static final ThreadLocal<Cipher> CIPHER =
+            perThread(() -> Cipher.getInstance(
+                    CIPHER_ALGORITHM, ProviderRegistry.getProvider(CryptoPrimitive.AES_GCM)));
+    private static final ThreadLocal<Cipher> CHACHA20_POLY1305_CIPHER =
+            perThread(() -> Cipher.getInstance(
+                    CHACHA20_POLY1305_ALGORITHM, ProviderRegistry.getProvider(CryptoPrimitive.CHACHA20_POLY1305)));
+    private static final ThreadLocal<Cipher> LEGACY_CIPHER =
+            perThread(() -> Cipher.getInstance(
+                    LEGACY_CIPHER_ALGORITHM, ProviderRegistry.getProvider(CryptoPrimitive.AES_CBC)));
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY =
+            perThread(() -> SecretKeyFactory.getInstance(
+                    "PBKDF2WithHmacSHA256", ProviderRegistry.getProvider(CryptoPrimitive.PBKDF2)));
+    private static final ThreadLocal<HKDFBytesGenerator> HKDF_GENERATOR =
+            ThreadLocal.withInitial(() -> new HKDFBytesGenerator(new SHA256Digest()));
+
     // SecureRandom object for salt and Initialization Vector (IV) generation.
     private final SecureRandom RANDOM;
     private final int AES_FLAVOR;
 
+    // Cipher suite used to encrypt entries. Entries are decrypted with the cipher suite they are tagged with.
+    private final CipherSuite CIPHER_SUITE;
+
+    // Session data key, present only while the session is unlocked.
+    private byte[] dataKey = null;
+
     public Crypto(int aesFlavor) {
-        // Add the Bouncy Castle provider.
-        Security.addProvider(new BouncyCastleProvider());
+        this(aesFlavor, CipherSuite.AES_GCM);
+    }
 
+    public Crypto(int aesFlavor, CipherSuite cipherSuite) {
         // Create new SecureRandom instance, constructs a secure Random Number Generator.
         RANDOM = new SecureRandom();
 
         // Set the AES Flavor.
         AES_FLAVOR = aesFlavor;
+
+        // Set the Cipher Suite.
+        CIPHER_SUITE = cipherSuite;
+    }
+
+    /**
+     * Get the cipher suite new entries are encrypted with.
+     *
+     * @return the cipher suite
+     */
+    public CipherSuite getCipherSuite() {
+        return CIPHER_SUITE;
     }
 
 
@@ -54,15 +147,9 @@ public final class Crypto {
      *
      * @return SHA256 hash as a hexadecimal String
      */
-    public String getSHA256Hash(char[] input) {
-        // Generating MessageDigest object initialized with the SHA-256 algorithm.
-        MessageDigest md;
-        try {
-            md = MessageDigest.getInstance("SHA-256", "BC");
-        }
-        catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public static String getSHA256Hash(char[] input) {
+        // Get this thread's MessageDigest object initialized with the SHA-256 algorithm.
+        MessageDigest md = SHA256_DIGEST.get();
 
         // Converting char[] to byte[].
         byte[] inputAsBytes = charToByteArray(input);
@@ -77,106 +164,370 @@ public final class Crypto {
      *
      * @param secretKey the secret key to hash
      *
-     * @return the SHA256 hash of the secret key as a hexadecimal String
+     * @return the SHA256 hash of the secret key
      */
-    public String getKeyHash(SecretKey secretKey) {
+    public static byte[] getKeyHash(SecretKey secretKey) {
         // Convert SecretKey object to byte array.
         byte[] byteArray = secretKey.getEncoded();
 
-        // Converting byte[] to char[], then return the SHA256 hash of the char[].
-        return getSHA256Hash(byteToCharArray(byteArray));
+        // Round trip the key through char[], as legacy secret hashes were computed over the UTF-8 re-encoding.
+        return SHA256_DIGEST.get().digest(charToByteArray(byteToCharArray(byteArray)));
+    }
+
+
+    // Session Data Key
+    /**
+     * Unlocks the session. The master key is derived from the Master Password, this is the only key derivation
+     * run in a session. The master key then unwraps the vault's data key, and every entry key is expanded from the
+     * data key afterwards.
+     *
+     * Vaults created before the data key was introduced have no wrapped data key. For them the master key itself
+     * is the data key, as it is the key their entries were encrypted under.
+     *
+     * @param masterPassword the master password
+     * @param masterKeySalt the master key salt as a Base64 String
+     * @param kdfParameters the calibrated key derivation parameters
+     * @param wrappedDataKey the wrapped data key as a Base64 String, or null for vaults without a data key
+     *
+     * @return true if the session was unlocked, false if the data key could not be unwrapped
+     */
+    public boolean unlock(char[] masterPassword, String masterKeySalt, KDFParameters kdfParameters,
+                          String wrappedDataKey) {
+        // Clear any previous session data key.
+        lock();
+
+        var masterKey = deriveMasterKey(masterPassword, decode(masterKeySalt), kdfParameters);
+
+        // Legacy vault, the master key is the data key.
+        if (wrappedDataKey == null) {
+            dataKey = masterKey.getEncoded();
+            return true;
+        }
+
+        byte[] wrapped = decode(wrappedDataKey);
+        try {
+            var cipher = CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, masterKey,
+                    new GCMParameterSpec(GCM_TAG_LENGTH, wrapped, 0, GCM_IV_LENGTH));
+            cipher.updateAAD(DATA_KEY_AAD.getBytes(StandardCharsets.UTF_8));
+            dataKey = cipher.doFinal(wrapped, GCM_IV_LENGTH, wrapped.length - GCM_IV_LENGTH);
+            return true;
+        }
+        catch (AEADBadTagException e) {
+            return false;
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Generates a new random data key for the session. Used when a new vault is set up.
+     */
+    public void createDataKey() {
+        lock();
+        dataKey = new byte[DATA_KEY_LENGTH / 8];
+        RANDOM.nextBytes(dataKey);
     }
 
     /**
-     * Compares secret key hash generated from {@code masterPassword} and {@code salt} to the {@code target hash}
+     * Wraps the session data key under a master key derived from the Master Password. Only the wrapped data key
+     * changes when the Master Password or the key derivation cost changes, the entries are not re-encrypted.
      *
      * @param masterPassword the master password
-     * @param salt the salt as a String
+     * @param masterKeySalt the master key salt as a Base64 String
+     * @param kdfParameters the key derivation parameters
      *
-     * @return true if the hash of the generated secret key matches the target hash
+     * @return the wrapped data key as a Base64 String
      */
-    public boolean authenticateSecretKey(char[] masterPassword, String salt, String targetHash) {
-        // Generate the secret key.
-        SecretKey secretKey = getSecretKey(masterPassword, decode(salt));
+    public String wrapDataKey(char[] masterPassword, String masterKeySalt, KDFParameters kdfParameters) {
+        if (dataKey == null)
+            throw new IllegalStateException("The session data key is not available.");
 
-        // Return true iff secret key is not null, and it is equal to the target hash.
-        return secretKey != null && getKeyHash(secretKey).equals(targetHash);
+        var masterKey = deriveMasterKey(masterPassword, decode(masterKeySalt), kdfParameters);
+
+        // The wrapped data key is laid out as [NONCE | CIPHERTEXT | TAG].
+        byte[] wrapped = new byte[GCM_IV_LENGTH + dataKey.length + GCM_TAG_LENGTH / 8];
+        RANDOM.nextBytes(wrapped);
+        try {
+            var cipher = CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, masterKey,
+                    new GCMParameterSpec(GCM_TAG_LENGTH, wrapped, 0, GCM_IV_LENGTH));
+            cipher.updateAAD(DATA_KEY_AAD.getBytes(StandardCharsets.UTF_8));
+            cipher.doFinal(dataKey, 0, dataKey.length, wrapped, GCM_IV_LENGTH);
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+        return encode(wrapped);
     }
 
+    /**
+     * Clears the session data key from memory.
+     */
+    public void lock() {
+        if (dataKey != null) {
+            Arrays.fill(dataKey, (byte) 0);
+            dataKey = null;
+        }
+    }
+
+    /**
+     * Generates a new random salt for the master key.
+     *
+     * @return the salt as a Base64 String
+     */
+    public String generateMasterKeySalt() {
+        return encode(generateRandomSalt());
+    }
 
-    // AES Encryption/Decryption
     /**
-     * Encrypts plaintext using AES algorithm
+     * Benchmarks PBKDF2 on the current machine and picks the iteration count which makes deriving the master key
+     * take about {@code targetMillis} milliseconds.
      *
-     * @param plaintext the String to be encrypted
-     * @param password the password, along with a randomly generated salt, will be used to generate the secret key
-     *                 for encrypting the plaintext
+     * @param targetMillis the target unlock latency in milliseconds
      *
-     * @return a String[] containing [CIPHERTEXT (base64), SALT (base64), IV (base64), SECRET_KEY_HASH]
+     * @return the calibrated parameters, with an iteration count within the limits specified in the Constants class
      */
-    public String[] encrypt(char[] plaintext, char[] password) {
+    public static KDFParameters calibratePBKDF2(int targetMillis) {
+        var password = "bix-kdf-calibration".toCharArray();
+        var salt = new byte[16];
+
+        // Time several probe derivations and keep the fastest. The first ones run before the JIT has compiled the
+        // key derivation, while the unlock itself is long enough to run mostly compiled code.
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < PBKDF2_CALIBRATION_PROBES; i++) {
+            long start = System.nanoTime();
+            getSecretKey(password, salt, PBKDF2_CALIBRATION_PROBE_ITERATIONS, MASTER_KEY_LENGTH);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        // Scale the probe linearly to the target latency, rounded down to a multiple of 1000.
+        long iterations = targetMillis * 1_000_000L * PBKDF2_CALIBRATION_PROBE_ITERATIONS / Math.max(1, fastest);
+        iterations = iterations / 1000 * 1000;
+
+        iterations = Math.min(PBKDF2_MAX_ITERATIONS, Math.max(PBKDF2_MIN_ITERATIONS, iterations));
+
+        return KDFParameters.pbkdf2((int) iterations);
+    }
+
+    /**
+     * Benchmarks Argon2id on the current machine and picks the time cost which makes deriving the master key take
+     * about {@code targetMillis} milliseconds. The memory cost and the number of lanes are fixed by the caller.
+     *
+     * @param targetMillis the target unlock latency in milliseconds
+     * @param memoryKiB the memory cost in KiB
+     * @param parallelism the number of lanes
+     *
+     * @return the calibrated parameters, with a time cost of at least 1
+     */
+    public static KDFParameters calibrateArgon2id(int targetMillis, int memoryKiB, int parallelism) {
+        var password = "bix-kdf-calibration".toCharArray();
+        var salt = new byte[16];
+        var probe = new KDFParameters(KDFAlgorithm.ARGON2ID, 1, memoryKiB, parallelism);
+
+        // Time a few single-pass probe derivations and keep the fastest.
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < ARGON2_CALIBRATION_PROBES; i++) {
+            long start = System.nanoTime();
+            deriveMasterKey(password, salt, probe);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        // Every pass costs about the same, so scale the number of passes to the target latency.
+        long iterations = targetMillis * 1_000_000L / Math.max(1, fastest);
+        iterations = Math.min(ARGON2_MAX_ITERATIONS, Math.max(1, iterations));
+
+        return new KDFParameters(KDFAlgorithm.ARGON2ID, (int) iterations, memoryKiB, parallelism);
+    }
+
+    /**
+     * Benchmarks the authenticated cipher suites on the current machine, by encrypting a buffer of
+     * {@code CIPHER_BENCHMARK_BUFFER_SIZE} bytes under a random key for about {@code millis} milliseconds each.
+     *
+     * @param aesFlavor the AES flavor to benchmark AES-GCM with
+     * @param millis how long to measure each cipher suite for, in milliseconds
+     *
+     * @return the throughput of each cipher suite in MiB per second
+     */
+    public static EnumMap<CipherSuite, Double> benchmarkCipherSuites(int aesFlavor, int millis) {
+        var crypto = new Crypto(aesFlavor);
+        var data = new byte[CIPHER_BENCHMARK_BUFFER_SIZE];
+        var salt = crypto.generateRandomSalt();
+        var iv = crypto.generateRandomIV();
+        crypto.createDataKey();
+
+        var throughput = new EnumMap<CipherSuite, Double>(CipherSuite.class);
+        for (var cipherSuite : new CipherSuite[] {CipherSuite.AES_GCM, CipherSuite.CHACHA20_POLY1305}) {
+            var secretKey = crypto.getEntryKey(salt, cipherSuite);
+            var cipher = getCipher(cipherSuite);
+            try {
+                // The first pass warms up the JIT and is discarded, the second pass is measured.
+                long bytes = 0, elapsed = 0;
+                for (int pass = 0; pass < 2; pass++) {
+                    bytes = 0;
+                    long start = System.nanoTime();
+                    while ((elapsed = System.nanoTime() - start) < millis * 1_000_000L) {
+                        // A nonce must never repeat under the same key, so it is incremented for every operation.
+                        for (int i = GCM_IV_LENGTH - 1; i >= 0 && ++iv[i] == 0; i--);
+
+                        cipher.init(Cipher.ENCRYPT_MODE, secretKey, getParameterSpec(cipherSuite, iv, 0));
+                        bytes += cipher.doFinal(data).length;
+                    }
+                }
+                throughput.put(cipherSuite, bytes / (1024.0 * 1024.0) / (elapsed / 1e9));
+            }
+            catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        crypto.lock();
+        return throughput;
+    }
+
+
+    // Encryption/Decryption
+    /**
+     * Encrypts the credentials of an account entry using the cipher suite of this instance (AES-GCM or
+     * ChaCha20-Poly1305). Both credentials are encrypted with the same entry key, which is expanded from the
+     * session data key and a randomly generated salt, and each credential gets its own nonce. The account name is
+     * authenticated as additional data, so a ciphertext cannot be moved to another account without failing
+     * decryption.
+     *
+     * @param accountName the account name, authenticated along with the ciphertext
+     * @param username the username to be encrypted
+     * @param password the password to be encrypted
+     *
+     * @return a byte[][] containing [CIPHERTEXT_U, CIPHERTEXT_P, SALT, IV]
+     */
+    public byte[][] encrypt(String accountName, char[] username, char[] password) {
         try{
             // Generate random salt.
             var salt = generateRandomSalt();
 
-            // Generate random initialization vector (IV).
+            // Generate random initialization vector (IV), it holds one nonce per credential.
             var iv = generateRandomIV();
 
-            // Generate secret key.
-            var secretKey = getSecretKey(password, salt);
-
-            // Initializing cipher for AES in CBC mode using PKCS5 padding.
-            var cipher = Cipher.getInstance(CIPHER_ALGORITHM, "BC");
+            // Expand the entry key from the session data key.
+            var secretKey = getEntryKey(salt, CIPHER_SUITE);
 
-            // Initialize the cipher in encrypt mode with the secret key and IV.
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, iv);
+            // Get this thread's cipher for the cipher suite.
+            var cipher = getCipher(CIPHER_SUITE);
+            byte[] aad = accountName.getBytes(StandardCharsets.UTF_8);
 
-            // Convert the plaintext from char[] to byte[].
-            byte[] plaintextBytes = charToByteArray(plaintext);
+            // Encrypting the username with the first nonce.
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, getParameterSpec(CIPHER_SUITE, iv, 0));
+            cipher.updateAAD(aad);
+            byte[] ciphertextUsername = cipher.doFinal(charToByteArray(username));
 
-            // Encrypting the plaintext.
-            byte[] ciphertext = cipher.doFinal(plaintextBytes);
+            // Encrypting the password with the second nonce.
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, getParameterSpec(CIPHER_SUITE, iv, GCM_IV_LENGTH));
+            cipher.updateAAD(aad);
+            byte[] ciphertextPassword = cipher.doFinal(charToByteArray(password));
 
-            // Return a String[] containing [ciphertext(base64), salt(base64), iv(base64), hash of secretKey].
-            return new String[] {
-                    encode(ciphertext),
-                    encode(salt),
-                    encode(iv.getIV()),
-                    getKeyHash(secretKey)
-            };
+            // Return a byte[][] containing [ciphertext_u, ciphertext_p, salt, iv].
+            return new byte[][] {ciphertextUsername, ciphertextPassword, salt, iv};
         }
         catch(Exception e) {
-            throw new RuntimeException();
+            throw new RuntimeException(e);
         }
     }
 
     /**
-     * Decrypts the AES-encrypted ciphertext
+     * Decrypts the AES-GCM or ChaCha20-Poly1305 encrypted credentials of an account entry, using the session data
+     * key. The integrity of the ciphertext and the account name is verified as part of the decryption.
      *
-     * @param ciphertext the ciphertext to decrypt
-     * @param password the master password
+     * @param cipherSuite the cipher suite the entry is tagged with
+     * @param accountName the account name the credentials were encrypted for
+     * @param ciphertextUsername the ciphertext containing the encrypted username
+     * @param ciphertextPassword the ciphertext containing the encrypted password
      * @param salt salt used during encryption
      * @param iv initialization vector used during encryption
      *
-     * @return the decrypted plaintext as a String
+     * @return a char[][] containing [USERNAME, PASSWORD]
+     *
+     * @throws EntryAuthenticationFailedException if the entry fails the integrity check
      */
-    public char[] decrypt(char[] password, String ciphertext, String salt, String iv) {
+    public char[][] decrypt(CipherSuite cipherSuite, String accountName,
+                            byte[] ciphertextUsername, byte[] ciphertextPassword, byte[] salt, byte[] iv)
+            throws EntryAuthenticationFailedException {
+        // Expand the entry key from the session data key.
+        var secretKey = getEntryKey(salt, cipherSuite);
+        byte[] aad = accountName.getBytes(StandardCharsets.UTF_8);
+
+        try {
+            // Get this thread's Cipher object for the cipher suite.
+            var cipher = getCipher(cipherSuite);
+
+            // Decrypting the username with the first nonce.
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, getParameterSpec(cipherSuite, iv, 0));
+            cipher.updateAAD(aad);
+            char[] username = byteToCharArray(cipher.doFinal(ciphertextUsername));
+
+            // Decrypting the password with the second nonce.
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, getParameterSpec(cipherSuite, iv, GCM_IV_LENGTH));
+            cipher.updateAAD(aad);
+            char[] password = byteToCharArray(cipher.doFinal(ciphertextPassword));
+
+            return new char[][] {username, password};
+        }
+        // A failed tag check is reported as AEADBadTagException by GCM, and as its superclass by some providers.
+        catch (BadPaddingException e) {
+            throw new EntryAuthenticationFailedException(accountName);
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-        // Generate secret key object.
-        var secretKey = getSecretKey(password, decode(salt));
+    /**
+     * Authenticates and decrypts both credentials of a legacy AES-CBC entry. The entry's secret key is derived only
+     * once, which matters for entries with kdf version 1, whose key derivation is a full PBKDF2 run.
+     *
+     * @param entry the legacy entry
+     * @param masterPassword the master password, used for entries with kdf version 1
+     *
+     * @return a char[][] containing [USERNAME, PASSWORD]
+     *
+     * @throws EntryAuthenticationFailedException if the secret key does not match the entry's secret hash
+     */
+    public char[][] decryptLegacy(AccountEntry entry, char[] masterPassword)
+            throws EntryAuthenticationFailedException {
+        var secretKey = entry.kdfVersion() == KDF_VERSION_PBKDF2
+                ? getSecretKey(masterPassword, entry.salt())
+                : getEntryKey(entry.salt(), CipherSuite.AES_CBC);
+
+        if (!MessageDigest.isEqual(getKeyHash(secretKey), entry.secretHash()))
+            throw new EntryAuthenticationFailedException(entry.accountName());
+
+        return new char[][] {
+                decryptLegacy(secretKey, entry.ciphertextUsername(), entry.iv()),
+                decryptLegacy(secretKey, entry.ciphertextPassword(), entry.iv())};
+    }
 
+    /**
+     * Decrypts the AES-CBC encrypted ciphertext with the given secret key.
+     *
+     * @param secretKey the secret key used during encryption
+     * @param ciphertext the ciphertext to decrypt
+     * @param iv initialization vector used during encryption
+     *
+     * @return the decrypted plaintext as a char[]
+     */
+    private char[] decryptLegacy(SecretKey secretKey, byte[] ciphertext, byte[] iv) {
         // Initialize IvParameterSpec object.
-        var ivSpec = new IvParameterSpec(decode(iv));
+        var ivSpec = new IvParameterSpec(iv);
 
         // Decrypting ciphertext.
         char[] plaintext;
         try {
-            // Initialize Cipher object.
-            var cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            // Get this thread's legacy Cipher object.
+            var cipher = LEGACY_CIPHER.get();
             cipher.init(Cipher.DECRYPT_MODE, secretKey, ivSpec);
 
-            // Decode the ciphertext from Base64 String to byte[] then decrypt the ciphertext.
-            byte[] plaintextByteArray = cipher.doFinal(decode(ciphertext));
+            // Decrypt the ciphertext.
+            byte[] plaintextByteArray = cipher.doFinal(ciphertext);
 
             // Converting plaintext from byte[] to char[].
             plaintext = byteToCharArray(plaintextByteArray);
@@ -189,6 +540,32 @@ public final class Crypto {
 
 
     // Helper Functions
+    /**
+     * Provider lookup of a cryptographic primitive, e.g. {@code Cipher.getInstance(...)}.
+     */
+    @FunctionalInterface
+    private interface ProviderLookup<T> {
+        T getInstance() throws GeneralSecurityException;
+    }
+
+    /**
+     * Creates a {@code ThreadLocal} which performs the provider lookup once per thread.
+     *
+     * @param lookup the provider lookup of the primitive
+     *
+     * @return a {@code ThreadLocal} holding the primitive
+     */
+    private static <T> ThreadLocal<T> perThread(ProviderLookup<T> lookup) {
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return lookup.getInstance();
+            }
+            catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
     /**
      * Generates a random salt
      *
@@ -201,18 +578,18 @@ public final class Crypto {
     }
 
     /**
-     * Generates a random Initialization Vector
+     * Generates a random Initialization Vector holding one GCM nonce for each credential of an entry
      *
-     * @return an {@code IvParameterSpec} object
+     * @return a byte array of size 2 * {@code GCM_IV_LENGTH}
      */
-    private IvParameterSpec generateRandomIV() {
-        byte[] iv = new byte[16];
+    private byte[] generateRandomIV() {
+        byte[] iv = new byte[2 * GCM_IV_LENGTH];
         RANDOM.nextBytes(iv);
-        return new IvParameterSpec(iv);
+        return iv;
     }
 
     /**
-     * Generates the Secret Key
+     * Generates the Secret Key of a legacy entry (kdf version 1)
      *
      * @param password the master password
      * @param salt randomly generated salt
@@ -220,16 +597,33 @@ public final class Crypto {
      * @return {@code SecretKey} object
      */
     private SecretKey getSecretKey(char[] password, byte[] salt) {
+        return getSecretKey(password, salt, PBKDF2_ITERATIONS, AES_FLAVOR);
+    }
+
+    /**
+     * Generates a Secret Key of the specified length with PBKDF2
+     *
+     * @param password the master password
+     * @param salt randomly generated salt
+     * @param iterations the PBKDF2 iteration count
+     * @param keyLength length of the key in bits
+     *
+     * @return {@code SecretKey} object
+     */
+    private static SecretKey getSecretKey(char[] password, byte[] salt, int iterations, int keyLength) {
         SecretKey secretKey;
         try {
-            // Create an instance of SecretKeyFactory with Password-Based Key Derivation Function 2 (PBKDF2).
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256", "BC");
+            // Get this thread's SecretKeyFactory with Password-Based Key Derivation Function 2 (PBKDF2).
+            SecretKeyFactory factory = KEY_FACTORY.get();
 
             // Create a Key Specifications object.
-            KeySpec spec = new PBEKeySpec(password, salt, 65536, AES_FLAVOR);
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
 
             // Generate the secret key
             secretKey = new SecretKeySpec(factory.generateSecret(spec).getEncoded(), "AES");
+
+            // Clear the copy of the password held by the key specification.
+            spec.clearPassword();
         }
         catch (Exception e) {
             throw new RuntimeException(e);
@@ -237,6 +631,109 @@ public final class Crypto {
         return secretKey;
     }
 
+    /**
+     * Derives the master key from the Master Password with the configured key derivation function.
+     *
+     * @param password the master password
+     * @param salt the master key salt
+     * @param kdfParameters the key derivation parameters
+     *
+     * @return {@code SecretKey} object
+     */
+    static SecretKey deriveMasterKey(char[] password, byte[] salt, KDFParameters kdfParameters) {
+        return switch (kdfParameters.algorithm()) {
+            case PBKDF2 -> getSecretKey(password, salt, kdfParameters.iterations(), MASTER_KEY_LENGTH);
+            case ARGON2ID -> getArgon2idKey(password, salt, kdfParameters, MASTER_KEY_LENGTH);
+        };
+    }
+
+    /**
+     * Generates a Secret Key of the specified length with Argon2id
+     *
+     * @param password the master password
+     * @param salt randomly generated salt
+     * @param kdfParameters the Argon2id time cost, memory cost and number of lanes
+     * @param keyLength length of the key in bits
+     *
+     * @return {@code SecretKey} object
+     */
+    private static SecretKey getArgon2idKey(char[] password, byte[] salt, KDFParameters kdfParameters,
+                                            int keyLength) {
+        var parameters = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withIterations(kdfParameters.iterations())
+                .withMemoryAsKB(kdfParameters.memoryKiB())
+                .withParallelism(kdfParameters.parallelism())
+                .withSalt(salt)
+                .build();
+
+        // Argon2 needs a fresh block memory for every derivation, so the generator is not pooled.
+        var generator = new Argon2BytesGenerator();
+        generator.init(parameters);
+
+        byte[] key = new byte[keyLength / 8];
+        generator.generateBytes(password, key);
+
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Get this thread's Cipher object for an authenticated cipher suite.
+     *
+     * @param cipherSuite AES-GCM or ChaCha20-Poly1305
+     *
+     * @return {@code Cipher} object
+     */
+    private static Cipher getCipher(CipherSuite cipherSuite) {
+        return switch (cipherSuite) {
+            case AES_GCM -> CIPHER.get();
+            case CHACHA20_POLY1305 -> CHACHA20_POLY1305_CIPHER.get();
+            case AES_CBC -> throw new IllegalArgumentException("AES-CBC is not an authenticated cipher suite.");
+        };
+    }
+
+    /**
+     * Creates the parameters of an authenticated cipher suite for the nonce at {@code offset} in {@code iv}.
+     *
+     * @param cipherSuite AES-GCM or ChaCha20-Poly1305
+     * @param iv the initialization vector holding the nonce
+     * @param offset offset of the nonce in the initialization vector
+     *
+     * @return {@code AlgorithmParameterSpec} object
+     */
+    private static AlgorithmParameterSpec getParameterSpec(CipherSuite cipherSuite, byte[] iv, int offset) {
+        return switch (cipherSuite) {
+            case CHACHA20_POLY1305 -> new IvParameterSpec(iv, offset, GCM_IV_LENGTH);
+            default -> new GCMParameterSpec(GCM_TAG_LENGTH, iv, offset, GCM_IV_LENGTH);
+        };
+    }
+
+    /**
+     * Expands the entry key from the session data key and the entry's salt with HKDF-SHA256.
+     *
+     * @param salt the entry's salt
+     * @param cipherSuite the cipher suite the entry key is used with
+     *
+     * @return {@code SecretKey} object
+     */
+    private SecretKey getEntryKey(byte[] salt, CipherSuite cipherSuite) {
+        if (dataKey == null)
+            throw new IllegalStateException("The session data key is not available.");
+
+        boolean chacha20 = cipherSuite == CipherSuite.CHACHA20_POLY1305;
+        var info = chacha20 ? HKDF_CHACHA20_ENTRY_KEY_INFO : HKDF_ENTRY_KEY_INFO;
+
+        // Re-initialize this thread's HKDF generator with the data key as input keying material.
+        var hkdf = HKDF_GENERATOR.get();
+        hkdf.init(new HKDFParameters(dataKey, salt, info.getBytes(StandardCharsets.UTF_8)));
+
+        // Expand the entry key, the length of AES keys is dictated by the AES flavor.
+        byte[] entryKey = new byte[(chacha20 ? CHACHA20_KEY_LENGTH : AES_FLAVOR) / 8];
+        hkdf.generateBytes(entryKey, 0, entryKey.length);
+
+        return new SecretKeySpec(entryKey, chacha20 ? "ChaCha20" : "AES");
+    }
+
     /**
      * Converts byte arrays to hexadecimal Strings
      *
@@ -0,0 +1,305 @@
+package bix.utils;
+
+import bix.enums.CsvProfile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+/**
+ * Reads accounts from the CSV export of Bix or of another password manager (RFC 4180: comma separated, fields
+ * containing commas, quotes or line breaks are quoted, quotes inside quoted fields are doubled). The first line is a
+ * header naming the columns, which selects the {@code CsvProfile} mapping the columns to the account fields; the
+ * columns a profile does not map are ignored.
+ *
+ * The file is memory mapped and parsed in place: the parser only scans the mapped UTF-8 bytes for field boundaries,
+ * and decodes the fields of the mapped columns straight from the mapping into one reusable char buffer per account
+ * field. Ignored columns are never decoded. The buffers are cleared after every row, and the credentials are copied
+ * from them into the char arrays of the record, never into Strings.
+ */
+public final class CsvImportSource implements ImportSource {
+    // Account fields, the index of their reusable buffer.
+    private static final int IGNORED = -1;
+    private static final int ACCOUNT_NAME = 0;
+    private static final int ASSOCIATED_EMAIL = 1;
+    private static final int USERNAME = 2;
+    private static final int PASSWORD = 3;
+
+    private static final int END_OF_FILE = -1;
+
+    // The mapped file, and the position of the next byte to parse.
+    private final MappedByteBuffer BYTES;
+    private int position = 0;
+
+    // View of the mapping handed to the decoder, moved over the field being decoded.
+    private final ByteBuffer SOURCE;
+
+    private final CharsetDecoder DECODER = StandardCharsets.UTF_8.newDecoder();
+    private final CsvProfile PROFILE;
+
+    // Account field of every column, by the index of the column.
+    private final int[] COLUMNS;
+
+    // Reusable buffers holding the fields of the current row, by account field; and whether the field was present.
+    private final CharBuffer[] FIELDS = new CharBuffer[4];
+    private final boolean[] PRESENT = new boolean[4];
+
+    // Bounds of the last field scanned, quotes excluded; and whether it holds doubled quotes.
+    private int fieldStart;
+    private int fieldEnd;
+    private boolean fieldEscaped;
+
+    /**
+     * CsvImportSource constructor. Maps the file and reads its header, the profile is detected from the header.
+     *
+     * @param path the path of the CSV file, encoded in UTF-8
+     *
+     * @throws IOException if the file cannot be read, or the header matches no profile
+     */
+    public CsvImportSource(Path path) throws IOException {
+        this(path, null);
+    }
+
+    /**
+     * CsvImportSource constructor. Maps the file and reads its header.
+     *
+     * @param path the path of the CSV file, encoded in UTF-8
+     * @param profile the profile of the file, or null to detect it from the header
+     *
+     * @throws IOException if the file cannot be read, or the header lacks a column of the profile
+     */
+    public CsvImportSource(Path path, CsvProfile profile) throws IOException {
+        // The mapping stays valid once the channel is closed.
+        try (var channel = FileChannel.open(path, READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The CSV file is too large to import.");
+            BYTES = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        SOURCE = BYTES.duplicate();
+
+        for (int i = 0; i < FIELDS.length; i++) {
+            FIELDS[i] = CharBuffer.allocate(64);
+        }
+
+        // Skip the byte order mark written by some spreadsheet applications.
+        if (BYTES.limit() >= 3 && BYTES.get(0) == (byte) 0xEF && BYTES.get(1) == (byte) 0xBB
+                && BYTES.get(2) == (byte) 0xBF)
+            position = 3;
+
+        var header = readHeader();
+        PROFILE = profile != null ? profile : CsvProfile.detect(header);
+        if (PROFILE == null || !PROFILE.matches(header))
+            throw new IOException(String.format(
+                    "The CSV header \"%s\" matches none of the supported exports (%s).", String.join(",", header),
+                    Arrays.stream(CsvProfile.values()).map(CsvProfile::toString).collect(Collectors.joining(", "))));
+
+        // Map every column to the account field it holds, the first column of a name wins.
+        COLUMNS = new int[header.size()];
+        Arrays.fill(COLUMNS, IGNORED);
+        mapColumn(header, PROFILE.accountNameColumn(), ACCOUNT_NAME);
+        mapColumn(header, PROFILE.associatedEmailColumn(), ASSOCIATED_EMAIL);
+        mapColumn(header, PROFILE.usernameColumn(), USERNAME);
+        mapColumn(header, PROFILE.passwordColumn(), PASSWORD);
+    }
+
+    /**
+     * Get the profile of the file.
+     */
+    public CsvProfile profile() {
+        return PROFILE;
+    }
+
+    @Override
+    public ImportRecord next() throws IOException {
+        // Skip empty lines.
+        int limit = BYTES.limit();
+        while (position < limit && (BYTES.get(position) == '\n' || BYTES.get(position) == '\r')) {
+            position++;
+        }
+        if (position >= limit)
+            return null;
+
+        Arrays.fill(PRESENT, false);
+        int column = 0;
+        int end;
+        do {
+            end = scanField();
+            int field = column < COLUMNS.length ? COLUMNS[column] : IGNORED;
+            if (field != IGNORED)
+                decodeField(field);
+            column++;
+        } while (end == ',');
+
+        try {
+            // Account names and emails are stored in plaintext in the vault, only the credentials stay char arrays.
+            return new ImportRecord(
+                    PRESENT[ACCOUNT_NAME] ? FIELDS[ACCOUNT_NAME].flip().toString().strip() : null,
+                    PRESENT[ASSOCIATED_EMAIL] && FIELDS[ASSOCIATED_EMAIL].position() > 0
+                            ? FIELDS[ASSOCIATED_EMAIL].flip().toString().strip() : null,
+                    copyField(USERNAME),
+                    copyField(PASSWORD));
+        }
+        finally {
+            for (var field : FIELDS) {
+                clearCharArrayFromMemory(field.array());
+                field.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (var field : FIELDS) {
+            clearCharArrayFromMemory(field.array());
+        }
+    }
+
+    /**
+     * Read the header line.
+     *
+     * @return the lowercase column names, in column order
+     */
+    private ArrayList<String> readHeader() throws IOException {
+        var header = new ArrayList<String>();
+        int end;
+        do {
+            end = scanField();
+            decodeField(ACCOUNT_NAME);
+            header.add(FIELDS[ACCOUNT_NAME].flip().toString().strip().toLowerCase(Locale.ROOT));
+            FIELDS[ACCOUNT_NAME].clear();
+        } while (end == ',');
+        return header;
+    }
+
+    private void mapColumn(ArrayList<String> header, String name, int field) {
+        int column = name == null ? -1 : header.indexOf(name);
+        if (column >= 0 && COLUMNS[column] == IGNORED)
+            COLUMNS[column] = field;
+    }
+
+    /**
+     * Find the bounds of the next field, and move past the character which ends it.
+     *
+     * @return the character which ended the field: ',', '\n', or {@code END_OF_FILE}
+     */
+    private int scanField() throws IOException {
+        int limit = BYTES.limit();
+        int i = position;
+        fieldEscaped = false;
+
+        if (i < limit && BYTES.get(i) == '"') {
+            // Quoted field: runs to the next single quote, a doubled quote stands for one quote.
+            fieldStart = ++i;
+            while (true) {
+                if (i >= limit)
+                    throw new IOException("The CSV file ends inside a quoted field.");
+                if (BYTES.get(i) == '"') {
+                    if (i + 1 >= limit || BYTES.get(i + 1) != '"')
+                        break;
+                    fieldEscaped = true;
+                    i++;
+                }
+                i++;
+            }
+            fieldEnd = i;
+
+            // Skip the closing quote, and anything up to the end of the field.
+            while (i < limit && BYTES.get(i) != ',' && BYTES.get(i) != '\n') {
+                i++;
+            }
+        }
+        else {
+            // Unquoted field: runs to the next separator, the '\r' of a "\r\n" line break is not part of it.
+            fieldStart = i;
+            while (i < limit && BYTES.get(i) != ',' && BYTES.get(i) != '\n') {
+                i++;
+            }
+            fieldEnd = i > fieldStart && BYTES.get(i - 1) == '\r' ? i - 1 : i;
+        }
+
+        if (i >= limit) {
+            position = limit;
+            return END_OF_FILE;
+        }
+        position = i + 1;
+        return BYTES.get(i);
+    }
+
+    /**
+     * Decode the last field scanned from the mapping into the buffer of an account field.
+     */
+    private void decodeField(int field) throws IOException {
+        int length = fieldEnd - fieldStart;
+
+        // A UTF-8 sequence never decodes to more chars than it has bytes.
+        var chars = FIELDS[field];
+        if (chars.capacity() < length) {
+            clearCharArrayFromMemory(chars.array());
+            chars = FIELDS[field] = CharBuffer.allocate(Math.max(length, 2 * chars.capacity()));
+        }
+        chars.clear();
+
+        // Most fields are plain ASCII, which is copied byte by byte; the decoder takes over at the first byte of a
+        // multibyte sequence.
+        var array = chars.array();
+        int ascii = fieldStart;
+        while (ascii < fieldEnd && BYTES.get(ascii) >= 0) {
+            array[ascii - fieldStart] = (char) BYTES.get(ascii);
+            ascii++;
+        }
+        chars.position(ascii - fieldStart);
+
+        if (ascii < fieldEnd) {
+            SOURCE.limit(fieldEnd).position(ascii);
+            DECODER.reset();
+            CoderResult result = DECODER.decode(SOURCE, chars, true);
+            if (result.isError()) {
+                try {
+                    result.throwException();
+                }
+                catch (CharacterCodingException e) {
+                    throw new IOException("The CSV file is not valid UTF-8.", e);
+                }
+            }
+            DECODER.flush(chars);
+        }
+
+        // Collapse the doubled quotes in place.
+        if (fieldEscaped) {
+            int kept = 0;
+            for (int i = 0; i < chars.position(); i++) {
+                array[kept++] = array[i];
+                if (array[i] == '"')
+                    i++;
+            }
+            Arrays.fill(array, kept, chars.position(), '\0');
+            chars.position(kept);
+        }
+        PRESENT[field] = true;
+    }
+
+    /**
+     * Copy a credential out of its reusable buffer.
+     *
+     * @return the credential, empty if the row lacks its column
+     */
+    private char[] copyField(int field) {
+        return Arrays.copyOf(FIELDS[field].array(), FIELDS[field].position());
+    }
+
+} // class CsvImportSource
@@ -0,0 +1,54 @@
+package bix.utils;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+/**
+ * An account read from an import file, before it is encrypted. The credentials are held in char arrays, so they can
+ * be cleared from memory as soon as the record is encrypted.
+ */
+public final class ImportRecord {
+    private final String ACCOUNT_NAME;
+    private final String ASSOCIATED_EMAIL;
+    private final char[] USERNAME;
+    private final char[] PASSWORD;
+
+    /**
+     * ImportRecord constructor. The record takes ownership of the credential arrays.
+     *
+     * @param accountName the account name
+     * @param associatedEmail the email associated with the account, can be null
+     * @param username the username
+     * @param password the password
+     */
+    public ImportRecord(String accountName, String associatedEmail, char[] username, char[] password) {
+        this.ACCOUNT_NAME = accountName;
+        this.ASSOCIATED_EMAIL = associatedEmail;
+        this.USERNAME = username;
+        this.PASSWORD = password;
+    }
+
+    public String accountName() {
+        return ACCOUNT_NAME;
+    }
+
+    public String associatedEmail() {
+        return ASSOCIATED_EMAIL;
+    }
+
+    public char[] username() {
+        return USERNAME;
+    }
+
+    public char[] password() {
+        return PASSWORD;
+    }
+
+    /**
+     * Clear the credentials from memory.
+     */
+    public void clear() {
+        clearCharArrayFromMemory(USERNAME);
+        clearCharArrayFromMemory(PASSWORD);
+    }
+
+} // class ImportRecord
@@ -0,0 +1,15 @@
+package bix.utils;
+
+import java.util.List;
+
+/**
+ * The outcome of an import. Records whose account name is already in the vault are never written.
+ *
+ * @param imported the number of records added to the vault
+ * @param duplicates the account names already in the vault with the same email and credentials
+ * @param conflicts the account names already in the vault with a different email or credentials, or repeated in
+ *                  the import file; the entry already in the vault is kept
+ * @param invalid the number of records without an account name, or without any credential
+ */
+public record ImportReport(int imported, List<String> duplicates, List<String> conflicts, int invalid) {
+}
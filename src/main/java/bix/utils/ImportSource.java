@@ -0,0 +1,21 @@
+package bix.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A file of accounts to import into the vault, read one record at a time so that the file is never held in memory
+ * as a whole.
+ */
+public interface ImportSource extends Closeable {
+
+    /**
+     * Read the next record.
+     *
+     * @return the next record, or null at the end of the file
+     *
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    ImportRecord next() throws IOException;
+
+}
@@ -0,0 +1,35 @@
+package bix.utils;
+
+import bix.enums.KDFAlgorithm;
+
+/**
+ * Parameters for deriving the master key from the Master Password, as stored in the "bix_metadata" table.
+ *
+ * @param algorithm the key derivation function
+ * @param iterations the PBKDF2 iteration count, or the Argon2id time cost
+ * @param memoryKiB the Argon2id memory cost in KiB, unused by PBKDF2
+ * @param parallelism the number of Argon2id lanes, unused by PBKDF2
+ */
+public record KDFParameters(KDFAlgorithm algorithm, int iterations, int memoryKiB, int parallelism) {
+
+    /**
+     * Creates PBKDF2 parameters.
+     *
+     * @param iterations the PBKDF2 iteration count
+     *
+     * @return the key derivation parameters
+     */
+    public static KDFParameters pbkdf2(int iterations) {
+        return new KDFParameters(KDFAlgorithm.PBKDF2, iterations, 0, 1);
+    }
+
+    @Override
+    public String toString() {
+        return switch (algorithm) {
+            case PBKDF2 -> String.format("%d iterations of %s", iterations, algorithm);
+            case ARGON2ID -> String.format("%s with %d passes over %d KiB in %d lanes",
+                    algorithm, iterations, memoryKiB, parallelism);
+        };
+    }
+
+} // record KDFParameters
@@ -0,0 +1,1260 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.AccountAlreadyExistsException;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.InvalidSearchQueryException;
+import bix.exceptions.VaultInUseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import static bix.utils.Constants.VAULT_LOG_COMPACTION_MIN_SIZE;
+import static bix.utils.Constants.VAULT_LOG_FORMAT_VERSION;
+import static bix.utils.Constants.VAULT_LOG_MAGIC;
+import static bix.utils.Constants.VAULT_LOG_REMAP_THRESHOLD;
+
+/**
+ * Vault store kept in an append-only log file, "vault.log", read through a memory mapping.
+ *
+ * The file has three parts: a header, a base of every entry sorted by account name, and a tail of the records
+ * appended since. All numbers are big-endian.
+ *
+ *   header: magic "BIXVALOG" (8) | format version (1) | base entry count (4) | offset table position (8) |
+ *           tail position (8) | CRC32C of the header (4)
+ *
+ * Every write of the store appends exactly one record to the tail:
+ *
+ *   payload length (4) | CRC32C of the payload (4) | payload
+ *
+ * The payload is a sequence of operations, all applied together, which is what makes the batch operations atomic:
+ *
+ *   PUT_ACCOUNT (1) | account name | associated email | ciphertext_u | ciphertext_p | salt | iv | secret_hash |
+ *                     kdf version (4) | cipher suite
+ *   DELETE_ACCOUNT (2) | account name
+ *   PUT_METADATA (3) | id | value
+ *
+ * Strings are their UTF-8 length (4) followed by their UTF-8 bytes, byte arrays their length (4) followed by their
+ * bytes; null is the length -1.
+ *
+ * The base is written by compaction: a record of every metadata value, records of the entries in account name
+ * order, and the offset table, the position (8) and length (4) of every encoded entry in the same order. Opening
+ * the store maps the file and only replays the tail, into a sorted map of the account names written or deleted
+ * since the base was written, which overrides the base. An account name is looked up in that map, then by binary
+ * search over the offset table; the listing merges the two. Opening therefore costs the size of the tail, not of
+ * the vault. The base was synced before it replaced the previous log, so its records are not checked on open; a
+ * tail record cut short by a crash fails its checksum and is dropped.
+ *
+ * Writers share syncs: a write syncs the log up to its own record, and a write whose record was already synced by
+ * another thread returns at once. With a sync delay, writes return once they are appended and a background thread
+ * syncs them, at most once per delay; a power failure can then lose the writes of the last delay, as with
+ * synchronous=NORMAL in SQLite. Entries overwritten or deleted stay in the log as dead records. Once more than half
+ * of the log is dead records, or is tail, the log is compacted into a new base on a background thread while reads
+ * and writes go on.
+ *
+ * The log serves a single Bix session: the store holds an exclusive lock on the file while it is open, and opening a
+ * log locked by another process fails with {@code VaultInUseException}. The new log written by a compaction is locked
+ * before it is moved into place.
+ */
+public final class LogVaultStore implements VaultStore {
+    // Operations of a record.
+    private static final byte PUT_ACCOUNT = 1;
+    private static final byte DELETE_ACCOUNT = 2;
+    private static final byte PUT_METADATA = 3;
+
+    private static final byte[] MAGIC = VAULT_LOG_MAGIC.getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + Integer.BYTES + 2 * Long.BYTES + Integer.BYTES;
+    private static final int RECORD_HEADER_LENGTH = 2 * Integer.BYTES;
+    private static final int TABLE_ENTRY_LENGTH = Long.BYTES + Integer.BYTES;
+
+    // Logs of format version 1 have a header of the magic and the version only, and no base.
+    private static final int VERSION_1_HEADER_LENGTH = MAGIC.length + 1;
+
+    // Number of entries written per record when the log is compacted.
+    private static final int COMPACTION_BATCH_SIZE = 1000;
+
+    /**
+     * The position of an encoded entry in the log, after its operation byte.
+     */
+    private record Location(long offset, int length) {}
+
+    // Marks an account name deleted in the tail, which hides its entry in the base.
+    private static final Location DELETED = new Location(-1, 0);
+
+    // Logs open in this process. A second channel on a log is never opened: closing it would release the lock of the
+    // first one, the locks of a file belonging to the process rather than the channel on some systems.
+    private static final Set<Path> OPEN_LOGS = ConcurrentHashMap.newKeySet();
+
+    private final Path PATH;
+    private final long SYNC_DELAY_MILLIS;
+
+    // Runs the delayed syncs and the compactions while the log is open, null once it is closed; guarded by SYNC_LOCK.
+    private ScheduledExecutorService background = null;
+
+    // Latest entry of every account name written or deleted in the tail, and every metadata value.
+    private final TreeMap<String, Location> TAIL = new TreeMap<>();
+    private final HashMap<String, String> METADATA = new HashMap<>();
+
+    // The open log file, null until the first operation; and its mapping, which may not cover the latest records.
+    private volatile FileChannel channel = null;
+    private MappedByteBuffer mapping;
+
+    // The base: number of entries, position of the offset table, and position of the tail which follows it.
+    private int baseCount;
+    private long tablePosition;
+    private long tailPosition;
+
+    // Position where the next record is appended, number of live entries, and bytes of dead records.
+    private long end;
+    private int size;
+    private long deadBytes;
+
+    // Bumped whenever the log is closed or replaced, so a compaction started before is abandoned.
+    private int generation = 0;
+    private boolean compacting = false;
+
+    // Bytes appended to the log by this store, and bytes known to be synced; guarded by SYNC_LOCK once appended.
+    private volatile long appended = 0;
+    private long synced = 0;
+    private boolean syncScheduled = false;
+    private final Object SYNC_LOCK = new Object();
+
+    /**
+     * LogVaultStore constructor, with every write synced before it returns. The log is not opened until the first
+     * operation.
+     *
+     * @param path the path of the log file
+     */
+    public LogVaultStore(Path path) {
+        this(path, 0);
+    }
+
+    /**
+     * LogVaultStore constructor. The log is not opened until the first operation.
+     *
+     * @param path the path of the log file
+     * @param syncDelayMillis the longest time a write waits to be synced once it returns; 0 syncs every write
+     *     before it returns
+     */
+    public LogVaultStore(Path path, long syncDelayMillis) {
+        PATH = path;
+        SYNC_DELAY_MILLIS = syncDelayMillis;
+    }
+
+
+    //--------------------
+
+
+    @Override
+    public void setup() {
+        long target;
+        synchronized (this) {
+            close();
+            try {
+                // The log is truncated only once it is locked, the vault of another session is left as it is.
+                lockLog();
+                channel.truncate(0);
+                write(channel, header(0, HEADER_LENGTH, HEADER_LENGTH), 0);
+                channel.force(true);
+                load();
+            }
+            catch (IOException e) {
+                close();
+                throw new RuntimeException(e);
+            }
+
+            var record = new RecordBuilder();
+            for (var metadata : VaultStore.defaultMetadata().entrySet()) {
+                record.putMetadata(metadata.getKey(), metadata.getValue());
+            }
+            target = append(record);
+        }
+        sync(target);
+    }
+
+    /**
+     * Add the metadata values missing from a log written by an older version of Bix, with their default values.
+     */
+    @Override
+    public void migrate() {
+        long target;
+        synchronized (this) {
+            open();
+            var record = new RecordBuilder();
+            for (var value : VaultStore.defaultMetadata().entrySet()) {
+                if (!METADATA.containsKey(value.getKey()))
+                    record.putMetadata(value.getKey(), value.getValue());
+            }
+            target = append(record);
+        }
+        sync(target);
+    }
+
+    @Override
+    public synchronized int size() {
+        open();
+        return size;
+    }
+
+    @Override
+    public synchronized int sizeAfter(String accountName) {
+        open();
+
+        // Entries of the base after the name, corrected by the names of the tail after it.
+        int count = baseCount - insertionPoint(accountName);
+        for (var tail : TAIL.tailMap(accountName, false).entrySet()) {
+            boolean inBase = findInBase(tail.getKey()) >= 0;
+            if (tail.getValue() == DELETED && inBase)
+                count--;
+            else if (tail.getValue() != DELETED && !inBase)
+                count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized ArrayList<String> getAccountNames() {
+        open();
+        var accountNames = new ArrayList<String>(size);
+        var cursor = new Cursor("");
+        while (cursor.next()) {
+            accountNames.add(cursor.name);
+        }
+        return accountNames;
+    }
+
+    @Override
+    public synchronized ArrayList<String> getAccountNamesAfter(String accountName, int limit) {
+        open();
+        var accountNames = new ArrayList<String>(limit);
+        var cursor = new Cursor(accountName);
+        while (accountNames.size() < limit && cursor.next()) {
+            accountNames.add(cursor.name);
+        }
+        return accountNames;
+    }
+
+    @Override
+    public synchronized ArrayList<String> searchAccounts(String query, int limit)
+            throws InvalidSearchQueryException {
+        var searchQuery = new SearchQuery(query);
+        open();
+
+        var accountNames = new ArrayList<String>();
+        var cursor = new Cursor("");
+        while (accountNames.size() < limit && cursor.next()) {
+            if (searchQuery.matches(cursor.name, readEmail(cursor.location)))
+                accountNames.add(cursor.name);
+        }
+        return accountNames;
+    }
+
+    @Override
+    public synchronized boolean accountExists(String accountName) {
+        open();
+        return find(accountName) != null;
+    }
+
+    @Override
+    public void addAccount(AccountEntry entry) throws AccountAlreadyExistsException {
+        long target;
+        synchronized (this) {
+            open();
+            checkEntryWrite(null);
+            if (find(entry.accountName()) != null)
+                throw new AccountAlreadyExistsException(entry.accountName());
+
+            target = append(new RecordBuilder().putAccount(entry));
+        }
+        sync(target);
+    }
+
+    @Override
+    public ArrayList<String> addAccounts(List<AccountEntry> entries) {
+        var existing = new ArrayList<String>();
+        long target;
+        synchronized (this) {
+            open();
+            checkEntryWrite(null);
+            var added = new HashMap<String, AccountEntry>();
+            var record = new RecordBuilder();
+
+            for (var entry : entries) {
+                if (find(entry.accountName()) != null || added.putIfAbsent(entry.accountName(), entry) != null) {
+                    existing.add(entry.accountName());
+                    continue;
+                }
+                record.putAccount(entry);
+            }
+            target = append(record);
+        }
+        sync(target);
+        return existing;
+    }
+
+    @Override
+    public synchronized AccountEntry retrieveAccount(String accountName) throws AccountNotFoundException {
+        open();
+        var location = find(accountName);
+        if (location == null)
+            throw new AccountNotFoundException(accountName);
+        return readEntry(location);
+    }
+
+    @Override
+    public synchronized ArrayList<AccountEntry> retrieveAccountsAfter(String accountName, int limit) {
+        open();
+        var entries = new ArrayList<AccountEntry>(limit);
+        var cursor = new Cursor(accountName);
+        while (entries.size() < limit && cursor.next()) {
+            entries.add(readEntry(cursor.location));
+        }
+        return entries;
+    }
+
+    @Override
+    public void updateAccount(AccountEntry entry) throws AccountNotFoundException {
+        long target;
+        synchronized (this) {
+            open();
+            checkEntryWrite(null);
+            if (find(entry.accountName()) == null)
+                throw new AccountNotFoundException(entry.accountName());
+
+            target = append(new RecordBuilder().putAccount(entry));
+        }
+        sync(target);
+    }
+
+    @Override
+    public void updateAccounts(List<AccountEntry> entries, Map<String, String> metadata) {
+        long target;
+        synchronized (this) {
+            open();
+            checkEntryWrite(metadata);
+            var record = new RecordBuilder();
+            for (var entry : entries) {
+                if (find(entry.accountName()) != null)
+                    record.putAccount(entry);
+            }
+            for (var value : metadata.entrySet()) {
+                if (METADATA.containsKey(value.getKey()))
+                    record.putMetadata(value.getKey(), value.getValue());
+            }
+            target = append(record);
+        }
+        sync(target);
+    }
+
+    @Override
+    public boolean deleteAccount(String accountName) {
+        long target;
+        synchronized (this) {
+            open();
+            checkEntryWrite(null);
+            if (find(accountName) == null)
+                return false;
+
+            target = append(new RecordBuilder().deleteAccount(accountName));
+        }
+        sync(target);
+        return true;
+    }
+
+    @Override
+    public synchronized HashMap<String, String> getAllMetadata() {
+        open();
+        return new HashMap<>(METADATA);
+    }
+
+    @Override
+    public synchronized String getMetadata(String id) {
+        open();
+        return METADATA.get(id);
+    }
+
+    @Override
+    public void updateMetadata(Map<String, String> values) {
+        compareAndUpdateMetadata(Map.of(), values);
+    }
+
+    @Override
+    public boolean compareAndUpdateMetadata(Map<String, String> expected, Map<String, String> values) {
+        long target;
+        synchronized (this) {
+            open();
+            for (var value : expected.entrySet()) {
+                if (!Objects.equals(METADATA.get(value.getKey()), value.getValue()))
+                    return false;
+            }
+
+            var record = new RecordBuilder();
+            for (var value : values.entrySet()) {
+                if (METADATA.containsKey(value.getKey()))
+                    record.putMetadata(value.getKey(), value.getValue());
+            }
+            target = append(record);
+        }
+        sync(target);
+        return true;
+    }
+
+    /**
+     * Check that entries may be written, see {@code VaultStore.checkEntryWrite()}. Called with the store's lock held.
+     */
+    private void checkEntryWrite(Map<String, String> metadata) {
+        VaultStore.checkEntryWrite(METADATA.get("rekey_wrapped_data_key"), METADATA.get("rekey_owner"), metadata);
+    }
+
+    /**
+     * Purges the vault. Deletes the log file.
+     */
+    @Override
+    public synchronized void purge() {
+        close();
+        try {
+            Files.deleteIfExists(PATH);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sync the writes not synced yet and close the log. A compaction in progress is abandoned, and the background
+     * thread stops once it is; a delayed sync still pending is dropped, the writes being synced here.
+     */
+    @Override
+    public synchronized void close() {
+        generation++;
+        TAIL.clear();
+        METADATA.clear();
+        mapping = null;
+        if (channel == null)
+            return;
+
+        synchronized (SYNC_LOCK) {
+            if (background != null)
+                background.shutdown();
+            background = null;
+            syncScheduled = false;
+            try {
+                if (synced < appended)
+                    channel.force(false);
+                synced = appended;
+                channel.close();
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            finally {
+                channel = null;
+                OPEN_LOGS.remove(PATH.toAbsolutePath().normalize());
+            }
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Open the log file, map it and replay its tail, if it is not open yet. A missing log is an empty vault without
+     * metadata, as a missing database is.
+     *
+     * @throws VaultInUseException if another process holds the log
+     */
+    private void open() {
+        if (channel != null)
+            return;
+
+        try {
+            lockLog();
+            if (channel.size() == 0) {
+                write(channel, header(0, HEADER_LENGTH, HEADER_LENGTH), 0);
+                channel.force(true);
+            }
+            load();
+        }
+        catch (IOException e) {
+            close();
+            throw new RuntimeException(e);
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Open the log file, take the exclusive lock on it, and start the background thread. The lock is held until the
+     * channel is closed.
+     *
+     * @throws VaultInUseException if another process, or another store of this process, holds the lock
+     */
+    private void lockLog() throws IOException {
+        if (!OPEN_LOGS.add(PATH.toAbsolutePath().normalize()))
+            throw new VaultInUseException();
+        try {
+            Files.createDirectories(PATH.toAbsolutePath().getParent());
+            channel = FileChannel.open(PATH, CREATE, READ, WRITE);
+        }
+        catch (IOException | RuntimeException e) {
+            OPEN_LOGS.remove(PATH.toAbsolutePath().normalize());
+            throw e;
+        }
+        if (!tryLock(channel)) {
+            close();
+            throw new VaultInUseException();
+        }
+
+        synchronized (SYNC_LOCK) {
+            var executor = new ScheduledThreadPoolExecutor(1, task -> {
+                var thread = new Thread(task, "bix-vault-log");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            background = executor;
+        }
+    }
+
+    /**
+     * Take the exclusive lock on a log file, if no other process holds it.
+     *
+     * @return true if the lock was taken
+     */
+    private static boolean tryLock(FileChannel channel) throws IOException {
+        return channel.tryLock() != null;
+    }
+
+    /**
+     * Map the log, read its header and the metadata record of its base, and replay its tail.
+     */
+    private void load() throws IOException {
+        if (channel.size() > Integer.MAX_VALUE)
+            throw new IOException("The vault log is too large to map.");
+        mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        var magic = new byte[MAGIC.length];
+        if (mapping.capacity() >= VERSION_1_HEADER_LENGTH)
+            mapping.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("The file is not a Bix vault log.");
+
+        int version = mapping.get(MAGIC.length);
+        if (version == 1) {
+            baseCount = 0;
+            tablePosition = VERSION_1_HEADER_LENGTH;
+            tailPosition = VERSION_1_HEADER_LENGTH;
+        }
+        else if (version == VAULT_LOG_FORMAT_VERSION && mapping.capacity() >= HEADER_LENGTH) {
+            var crc = new CRC32C();
+            crc.update(mapping.slice(0, HEADER_LENGTH - Integer.BYTES));
+            if ((int) crc.getValue() != mapping.getInt(HEADER_LENGTH - Integer.BYTES))
+                throw new IOException("The vault log header is damaged.");
+
+            baseCount = mapping.getInt(MAGIC.length + 1);
+            tablePosition = mapping.getLong(MAGIC.length + 1 + Integer.BYTES);
+            tailPosition = mapping.getLong(MAGIC.length + 1 + Integer.BYTES + Long.BYTES);
+
+            // The base starts with the record of every metadata value.
+            if (tablePosition > HEADER_LENGTH) {
+                int length = mapping.getInt(HEADER_LENGTH);
+                apply(mapping.slice(HEADER_LENGTH + RECORD_HEADER_LENGTH, length),
+                        HEADER_LENGTH + RECORD_HEADER_LENGTH);
+            }
+        }
+        else {
+            throw new IOException("The vault log was written by an unsupported version of Bix.");
+        }
+
+        size = baseCount;
+        deadBytes = 0;
+        replay(tailPosition);
+    }
+
+    /**
+     * Read every record of the tail and apply it. A damaged record at the end of the log is the last write of a
+     * crashed process, it is cut off; a damaged record anywhere else is an error.
+     */
+    private void replay(long position) throws IOException {
+        long size = mapping.capacity();
+        var crc = new CRC32C();
+
+        while (position < size) {
+            ByteBuffer payload = null;
+            if (size - position >= RECORD_HEADER_LENGTH) {
+                int length = mapping.getInt((int) position);
+                if (length >= 0 && length <= size - position - RECORD_HEADER_LENGTH) {
+                    payload = mapping.slice((int) position + RECORD_HEADER_LENGTH, length);
+                    crc.reset();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != mapping.getInt((int) position + Integer.BYTES))
+                        payload = null;
+                }
+            }
+
+            if (payload == null) {
+                if (!isLastRecord(position, size))
+                    throw new IOException("The vault log is damaged at byte " + position + ".");
+
+                channel.truncate(position);
+                channel.force(true);
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+                break;
+            }
+
+            apply(payload.rewind(), position + RECORD_HEADER_LENGTH);
+            position += RECORD_HEADER_LENGTH + payload.capacity();
+        }
+
+        end = position;
+    }
+
+    /**
+     * Check if a damaged record can be the last write of a crashed process: it is, unless its stated length ends
+     * inside the file, with more bytes after it.
+     */
+    private boolean isLastRecord(long position, long size) {
+        if (size - position < RECORD_HEADER_LENGTH)
+            return true;
+
+        int length = mapping.getInt((int) position);
+        return length < 0 || position + RECORD_HEADER_LENGTH + length >= size;
+    }
+
+    /**
+     * Apply the operations of a record payload to the tail index.
+     *
+     * @param payload the payload, from its start
+     * @param offset the position of the payload in the log
+     */
+    private void apply(ByteBuffer payload, long offset) throws IOException {
+        while (payload.hasRemaining()) {
+            byte operation = payload.get();
+            int start = payload.position();
+            switch (operation) {
+                case PUT_ACCOUNT -> {
+                    var accountName = getString(payload);
+                    skipEntryFields(payload);
+                    var previous = find(accountName);
+                    TAIL.put(accountName, new Location(offset + start, payload.position() - start));
+                    if (previous == null)
+                        size++;
+                    else
+                        deadBytes += previous.length();
+                }
+                case DELETE_ACCOUNT -> {
+                    var accountName = getString(payload);
+                    var previous = find(accountName);
+                    if (findInBase(accountName) >= 0)
+                        TAIL.put(accountName, DELETED);
+                    else
+                        TAIL.remove(accountName);
+                    if (previous != null) {
+                        size--;
+                        deadBytes += previous.length();
+                    }
+                    deadBytes += payload.position() - start + 1;
+                }
+                case PUT_METADATA -> {
+                    var id = getString(payload);
+                    METADATA.put(id, getString(payload));
+                    deadBytes += payload.position() - start + 1;
+                }
+                default -> throw new IOException("The vault log holds an unknown operation: " + operation);
+            }
+        }
+    }
+
+    /**
+     * Append a record to the log and apply it, without syncing it. Starts a compaction if the log has become mostly
+     * dead records, and extends the mapping once enough bytes were appended past it.
+     *
+     * @return the number of bytes appended by this store once the record is, to be synced with {@code sync()}
+     */
+    private long append(RecordBuilder record) {
+        open();
+        var payload = record.toByteArray();
+        if (payload.length == 0)
+            return appended;
+
+        var buffer = frame(payload);
+        try {
+            write(channel, buffer, end);
+            apply(ByteBuffer.wrap(payload), end + RECORD_HEADER_LENGTH);
+            end += buffer.capacity();
+            appended += buffer.capacity();
+
+            if (end - mapping.capacity() > VAULT_LOG_REMAP_THRESHOLD && end <= Integer.MAX_VALUE)
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        catch (IOException e) {
+            // The index may be ahead of the log, it is loaded from the log again by the next operation.
+            close();
+            throw new RuntimeException(e);
+        }
+
+        compactIfNeeded();
+        return appended;
+    }
+
+    /**
+     * Start a compaction on the background thread if more than half of the log is dead records, or is a tail to be
+     * replayed on open.
+     */
+    private void compactIfNeeded() {
+        if (compacting || end <= VAULT_LOG_COMPACTION_MIN_SIZE)
+            return;
+
+        if (2 * deadBytes > end || 2 * (end - tailPosition) > end) {
+            compacting = true;
+            execute(this::compact);
+        }
+    }
+
+    /**
+     * Compact the log unless its tail is empty, and wait for the compaction to end.
+     */
+    synchronized void awaitCompaction() throws InterruptedException {
+        open();
+        if (!compacting && end > tailPosition) {
+            compacting = true;
+            execute(this::compact);
+        }
+        while (compacting) {
+            wait();
+        }
+    }
+
+    /**
+     * Run a task on the background thread of the open log.
+     */
+    private void execute(Runnable task) {
+        synchronized (SYNC_LOCK) {
+            background.execute(task);
+        }
+    }
+
+    /**
+     * Make sure the bytes appended by this store are synced to disk, up to {@code target}. A single sync covers the
+     * records of every thread which appended before it, so concurrent writers share it. With a sync delay, a
+     * background sync is scheduled instead.
+     */
+    private void sync(long target) {
+        synchronized (SYNC_LOCK) {
+            if (synced >= target)
+                return;
+
+            if (SYNC_DELAY_MILLIS > 0) {
+                if (!syncScheduled && background != null) {
+                    syncScheduled = true;
+                    background.schedule(() -> {
+                        synchronized (SYNC_LOCK) {
+                            syncScheduled = false;
+                        }
+                        syncAppended();
+                    }, SYNC_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        syncAppended();
+    }
+
+    /**
+     * Sync every byte appended so far.
+     */
+    private void syncAppended() {
+        synchronized (SYNC_LOCK) {
+            long target = appended;
+            var current = channel;
+            if (synced >= target || current == null)
+                return;
+
+            try {
+                current.force(false);
+                synced = target;
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Rewrite the log into a new base of the live entries and the metadata values, followed by the records
+     * appended meanwhile. Runs on the background thread: the new base is written from a snapshot of the index
+     * without holding the store's lock, only the records appended since the snapshot are copied under it. The new
+     * log is synced before it is moved over the current one, so a crash during compaction leaves the current log
+     * intact. If the compaction fails, the current log stays as it is and compaction is tried again after a later
+     * write.
+     */
+    private void compact() {
+        var compacted = PATH.resolveSibling(PATH.getFileName() + ".compact");
+        FileChannel newChannel = null;
+        try {
+            // Take a snapshot of the live entries, all covered by the mapping.
+            int snapshotGeneration;
+            long snapshotEnd;
+            MappedByteBuffer snapshot;
+            var locations = new ArrayList<Location>();
+            HashMap<String, String> metadata;
+            synchronized (this) {
+                if (channel == null)
+                    return;
+                snapshotGeneration = generation;
+                snapshotEnd = end;
+                if (mapping.capacity() < end)
+                    mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+                snapshot = mapping;
+                metadata = new HashMap<>(METADATA);
+
+                var cursor = new Cursor("");
+                while (cursor.next()) {
+                    locations.add(cursor.location);
+                }
+            }
+
+            // Write the new base: the metadata record, the entry records, and the offset table.
+            newChannel = FileChannel.open(compacted, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+            if (!tryLock(newChannel))
+                throw new IOException("The compacted vault log is locked.");
+            long position = HEADER_LENGTH;
+
+            var record = new RecordBuilder();
+            for (var value : metadata.entrySet()) {
+                record.putMetadata(value.getKey(), value.getValue());
+            }
+            position = write(newChannel, frame(record.toByteArray()), position);
+
+            var table = ByteBuffer.allocate(locations.size() * TABLE_ENTRY_LENGTH);
+            for (int start = 0; start < locations.size(); start += COMPACTION_BATCH_SIZE) {
+                record = new RecordBuilder();
+                long payloadPosition = position + RECORD_HEADER_LENGTH;
+                for (var location : locations.subList(start, Math.min(start + COMPACTION_BATCH_SIZE,
+                        locations.size()))) {
+                    // The entries are copied as they are encoded in the current log.
+                    table.putLong(payloadPosition + record.size() + 1).putInt(location.length());
+                    record.putEncodedAccount(snapshot.slice((int) location.offset(), location.length()));
+                }
+                position = write(newChannel, frame(record.toByteArray()), position);
+            }
+
+            long newTablePosition = position;
+            long newTailPosition = write(newChannel, table.flip(), position);
+            write(newChannel, header(locations.size(), newTablePosition, newTailPosition), 0);
+            newChannel.force(true);
+
+            // Copy the records appended since the snapshot, and move the new log into place.
+            synchronized (this) {
+                if (generation != snapshotGeneration || channel == null)
+                    return;
+
+                long tailLength = end - snapshotEnd;
+                var tail = ByteBuffer.allocate((int) tailLength);
+                read(tail, snapshotEnd);
+                write(newChannel, tail.flip(), newTailPosition);
+
+                synchronized (SYNC_LOCK) {
+                    newChannel.force(true);
+                    Files.move(compacted, PATH, REPLACE_EXISTING, ATOMIC_MOVE);
+                    channel.close();
+                    channel = newChannel;
+                    newChannel = null;
+                    synced = appended;
+                }
+
+                TAIL.clear();
+                METADATA.clear();
+                try {
+                    load();
+                }
+                catch (IOException e) {
+                    // The next operation opens the new log again.
+                    close();
+                    throw e;
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // The current log is left as it is.
+        }
+        finally {
+            synchronized (this) {
+                compacting = false;
+                notifyAll();
+            }
+            try {
+                if (newChannel != null) {
+                    newChannel.close();
+                    Files.deleteIfExists(compacted);
+                }
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Find the latest entry of an account name, in the tail first and then in the base.
+     *
+     * @return the location of the entry, or null if the account does not exist
+     */
+    private Location find(String accountName) {
+        var location = TAIL.get(accountName);
+        if (location != null)
+            return location == DELETED ? null : location;
+
+        int index = findInBase(accountName);
+        return index < 0 ? null : baseLocation(index);
+    }
+
+    /**
+     * Binary search of the base for an account name.
+     *
+     * @return the index of the name in the base, or (-(insertion point) - 1) if the base does not hold it
+     */
+    private int findInBase(String accountName) {
+        int low = 0;
+        int high = baseCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = baseName(middle).compareTo(accountName);
+            if (comparison < 0)
+                low = middle + 1;
+            else if (comparison > 0)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Get the index of the first entry of the base whose account name sorts after {@code accountName}.
+     */
+    private int insertionPoint(String accountName) {
+        int index = findInBase(accountName);
+        return index >= 0 ? index + 1 : -(index + 1);
+    }
+
+    private Location baseLocation(int index) {
+        int position = (int) (tablePosition + (long) index * TABLE_ENTRY_LENGTH);
+        return new Location(mapping.getLong(position), mapping.getInt(position + Long.BYTES));
+    }
+
+    private String baseName(int index) {
+        int offset = (int) mapping.getLong((int) (tablePosition + (long) index * TABLE_ENTRY_LENGTH));
+        var bytes = new byte[mapping.getInt(offset)];
+        mapping.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Get the encoded entry at a location, from the mapping if it covers the entry and read from the file if not.
+     */
+    private ByteBuffer entryBytes(Location location) {
+        if (location.offset() + location.length() <= mapping.capacity())
+            return mapping.slice((int) location.offset(), location.length());
+
+        try {
+            var buffer = ByteBuffer.allocate(location.length());
+            read(buffer, location.offset());
+            return buffer.flip();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decode the entry at a location of the log.
+     */
+    private AccountEntry readEntry(Location location) {
+        try {
+            var buffer = entryBytes(location);
+            return new AccountEntry(getString(buffer), getString(buffer), getBytes(buffer), getBytes(buffer),
+                    getBytes(buffer), getBytes(buffer), getBytes(buffer), buffer.getInt(),
+                    CipherSuite.fromString(getString(buffer)));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decode the associated email of the entry at a location of the log.
+     */
+    private String readEmail(Location location) {
+        try {
+            var buffer = entryBytes(location);
+            skipBytes(buffer);
+            return getString(buffer);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Move past the fields of an encoded entry which follow the account name.
+     */
+    private static void skipEntryFields(ByteBuffer buffer) throws IOException {
+        for (int i = 0; i < 6; i++) {
+            skipBytes(buffer);
+        }
+        buffer.getInt();
+        skipBytes(buffer);
+    }
+
+    private static void skipBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < -1 || length > buffer.remaining())
+            throw new IOException("The vault log is damaged.");
+        if (length > 0)
+            buffer.position(buffer.position() + length);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        var bytes = getBytes(buffer);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length == -1)
+            return null;
+        if (length < 0 || length > buffer.remaining())
+            throw new IOException("The vault log is damaged.");
+
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Encode the header of a log.
+     */
+    private static ByteBuffer header(int baseCount, long tablePosition, long tailPosition) {
+        var header = ByteBuffer.allocate(HEADER_LENGTH)
+                .put(MAGIC)
+                .put((byte) VAULT_LOG_FORMAT_VERSION)
+                .putInt(baseCount)
+                .putLong(tablePosition)
+                .putLong(tailPosition);
+
+        var crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        return header.putInt((int) crc.getValue()).flip();
+    }
+
+    /**
+     * Frame a payload as a record.
+     */
+    private static ByteBuffer frame(byte[] payload) {
+        var crc = new CRC32C();
+        crc.update(payload);
+        return ByteBuffer.allocate(RECORD_HEADER_LENGTH + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+    }
+
+    /**
+     * Read bytes of the log at a position until the buffer is full.
+     */
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("The vault log is incomplete.");
+            position += read;
+        }
+    }
+
+    /**
+     * Write a buffer to a channel at a position.
+     *
+     * @return the position after the written bytes
+     */
+    private static long write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Walks the live entries in account name order, after a given name: the entries of the base merged with the
+     * tail, whose entries replace those of the base and whose deletions hide them.
+     */
+    private final class Cursor {
+        private final Iterator<Map.Entry<String, Location>> TAIL_ENTRIES;
+        private Map.Entry<String, Location> tailEntry;
+        private int baseIndex;
+        private String baseName;
+
+        // The current entry.
+        private String name;
+        private Location location;
+
+        private Cursor(String accountName) {
+            TAIL_ENTRIES = TAIL.tailMap(accountName, false).entrySet().iterator();
+            tailEntry = TAIL_ENTRIES.hasNext() ? TAIL_ENTRIES.next() : null;
+            baseIndex = insertionPoint(accountName);
+            baseName = baseIndex < baseCount ? baseName(baseIndex) : null;
+        }
+
+        /**
+         * Move to the next live entry.
+         *
+         * @return false once there are no more entries
+         */
+        private boolean next() {
+            while (tailEntry != null || baseName != null) {
+                int comparison = tailEntry == null ? 1 : baseName == null ? -1 : tailEntry.getKey().compareTo(baseName);
+                if (comparison > 0) {
+                    name = baseName;
+                    location = baseLocation(baseIndex);
+                    nextBase();
+                    return true;
+                }
+
+                // The tail entry replaces the base entry of the same name.
+                if (comparison == 0)
+                    nextBase();
+                var entry = tailEntry;
+                tailEntry = TAIL_ENTRIES.hasNext() ? TAIL_ENTRIES.next() : null;
+                if (entry.getValue() != DELETED) {
+                    name = entry.getKey();
+                    location = entry.getValue();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void nextBase() {
+            baseIndex++;
+            baseName = baseIndex < baseCount ? baseName(baseIndex) : null;
+        }
+    }
+
+    /**
+     * Encodes the operations of a record payload.
+     */
+    private static final class RecordBuilder {
+        private final ByteArrayOutputStream BYTES = new ByteArrayOutputStream();
+        private final DataOutputStream OUT = new DataOutputStream(BYTES);
+
+        private RecordBuilder putAccount(AccountEntry entry) {
+            try {
+                OUT.writeByte(PUT_ACCOUNT);
+                putString(entry.accountName());
+                putString(entry.associatedEmail());
+                putBytes(entry.ciphertextUsername());
+                putBytes(entry.ciphertextPassword());
+                putBytes(entry.salt());
+                putBytes(entry.iv());
+                putBytes(entry.secretHash());
+                OUT.writeInt(entry.kdfVersion());
+                putString(entry.cipherSuite().toString());
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+
+        private void putEncodedAccount(ByteBuffer encodedEntry) throws IOException {
+            OUT.writeByte(PUT_ACCOUNT);
+            var bytes = new byte[encodedEntry.remaining()];
+            encodedEntry.get(bytes);
+            OUT.write(bytes);
+        }
+
+        private RecordBuilder deleteAccount(String accountName) {
+            try {
+                OUT.writeByte(DELETE_ACCOUNT);
+                putString(accountName);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+
+        private RecordBuilder putMetadata(String id, String value) {
+            try {
+                OUT.writeByte(PUT_METADATA);
+                putString(id);
+                putString(value);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+
+        private void putString(String value) throws IOException {
+            putBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void putBytes(byte[] value) throws IOException {
+            if (value == null) {
+                OUT.writeInt(-1);
+                return;
+            }
+            OUT.writeInt(value.length);
+            OUT.write(value);
+        }
+
+        private int size() {
+            return OUT.size();
+        }
+
+        private byte[] toByteArray() {
+            return BYTES.toByteArray();
+        }
+    }
+
+} // class LogVaultStore
@@ -0,0 +1,182 @@
+package bix.utils;
+
+import bix.exceptions.AccountAlreadyExistsException;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.InvalidSearchQueryException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Vault store held entirely in memory, for tests, benchmarks and ephemeral sessions. Nothing is written to disk: the
+ * vault is gone once the process ends, and {@code close()} keeps its contents.
+ *
+ * The entries are kept in a sorted map by account name, so lookups are logarithmic and pages are ranges of the map.
+ * Every operation holds the store's lock, which makes the batch operations atomic.
+ */
+public final class MemoryVaultStore implements VaultStore {
+    private final TreeMap<String, AccountEntry> ACCOUNTS = new TreeMap<>();
+    private final HashMap<String, String> METADATA = new HashMap<>();
+
+    @Override
+    public synchronized void setup() {
+        ACCOUNTS.clear();
+        METADATA.clear();
+        METADATA.putAll(VaultStore.defaultMetadata());
+    }
+
+    @Override
+    public synchronized int size() {
+        return ACCOUNTS.size();
+    }
+
+    @Override
+    public synchronized int sizeAfter(String accountName) {
+        return ACCOUNTS.tailMap(accountName, false).size();
+    }
+
+    @Override
+    public synchronized ArrayList<String> getAccountNames() {
+        return new ArrayList<>(ACCOUNTS.keySet());
+    }
+
+    @Override
+    public synchronized ArrayList<String> getAccountNamesAfter(String accountName, int limit) {
+        var accountNames = new ArrayList<String>(limit);
+        for (var name : ACCOUNTS.tailMap(accountName, false).keySet()) {
+            if (accountNames.size() == limit)
+                break;
+            accountNames.add(name);
+        }
+        return accountNames;
+    }
+
+    @Override
+    public ArrayList<String> searchAccounts(String query, int limit) throws InvalidSearchQueryException {
+        var searchQuery = new SearchQuery(query);
+        var accountNames = new ArrayList<String>();
+
+        synchronized (this) {
+            for (var entry : ACCOUNTS.values()) {
+                if (accountNames.size() == limit)
+                    break;
+                if (searchQuery.matches(entry.accountName(), entry.associatedEmail()))
+                    accountNames.add(entry.accountName());
+            }
+        }
+        return accountNames;
+    }
+
+    @Override
+    public synchronized boolean accountExists(String accountName) {
+        return ACCOUNTS.containsKey(accountName);
+    }
+
+    @Override
+    public synchronized void addAccount(AccountEntry entry) throws AccountAlreadyExistsException {
+        checkEntryWrite(null);
+        if (ACCOUNTS.putIfAbsent(entry.accountName(), entry) != null)
+            throw new AccountAlreadyExistsException(entry.accountName());
+    }
+
+    @Override
+    public synchronized ArrayList<String> addAccounts(List<AccountEntry> entries) {
+        checkEntryWrite(null);
+        var existing = new ArrayList<String>();
+        for (var entry : entries) {
+            if (ACCOUNTS.putIfAbsent(entry.accountName(), entry) != null)
+                existing.add(entry.accountName());
+        }
+        return existing;
+    }
+
+    @Override
+    public synchronized AccountEntry retrieveAccount(String accountName) throws AccountNotFoundException {
+        var entry = ACCOUNTS.get(accountName);
+        if (entry == null)
+            throw new AccountNotFoundException(accountName);
+        return entry;
+    }
+
+    @Override
+    public synchronized ArrayList<AccountEntry> retrieveAccountsAfter(String accountName, int limit) {
+        var entries = new ArrayList<AccountEntry>(limit);
+        for (var entry : ACCOUNTS.tailMap(accountName, false).values()) {
+            if (entries.size() == limit)
+                break;
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    @Override
+    public synchronized void updateAccount(AccountEntry entry) throws AccountNotFoundException {
+        checkEntryWrite(null);
+        if (ACCOUNTS.replace(entry.accountName(), entry) == null)
+            throw new AccountNotFoundException(entry.accountName());
+    }
+
+    @Override
+    public synchronized void updateAccounts(List<AccountEntry> entries, Map<String, String> metadata) {
+        checkEntryWrite(metadata);
+        for (var entry : entries) {
+            ACCOUNTS.replace(entry.accountName(), entry);
+        }
+        updateMetadata(metadata);
+    }
+
+    @Override
+    public synchronized boolean deleteAccount(String accountName) {
+        checkEntryWrite(null);
+        return ACCOUNTS.remove(accountName) != null;
+    }
+
+    @Override
+    public synchronized HashMap<String, String> getAllMetadata() {
+        return new HashMap<>(METADATA);
+    }
+
+    @Override
+    public synchronized String getMetadata(String id) {
+        return METADATA.get(id);
+    }
+
+    @Override
+    public synchronized void updateMetadata(Map<String, String> values) {
+        for (var value : values.entrySet()) {
+            if (METADATA.containsKey(value.getKey()))
+                METADATA.put(value.getKey(), value.getValue());
+        }
+    }
+
+    @Override
+    public synchronized boolean compareAndUpdateMetadata(Map<String, String> expected, Map<String, String> values) {
+        for (var value : expected.entrySet()) {
+            if (!Objects.equals(METADATA.get(value.getKey()), value.getValue()))
+                return false;
+        }
+        updateMetadata(values);
+        return true;
+    }
+
+    @Override
+    public synchronized void purge() {
+        ACCOUNTS.clear();
+        METADATA.clear();
+    }
+
+    @Override
+    public void close() {}
+
+    /**
+     * Check that entries may be written, see {@code VaultStore.checkEntryWrite()}.
+     */
+    private void checkEntryWrite(Map<String, String> metadata) {
+        VaultStore.checkEntryWrite(METADATA.get("rekey_wrapped_data_key"), METADATA.get("rekey_owner"), metadata);
+    }
+
+} // class MemoryVaultStore
@@ -0,0 +1,232 @@
+package bix.utils;
+
+import bix.enums.CryptoPrimitive;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Security;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static bix.utils.Constants.GCM_TAG_LENGTH;
+import static bix.utils.Constants.GCM_IV_LENGTH;
+import static bix.utils.Constants.PROVIDER_CANDIDATES;
+import static bix.utils.Constants.PROVIDER_BENCHMARK_PASSES;
+import static bix.utils.Constants.PROVIDER_BENCHMARK_BUFFER_SIZE;
+import static bix.utils.Constants.PROVIDER_BENCHMARK_PBKDF2_ITERATIONS;
+
+/**
+ * Registry of the JCE provider serving each cryptographic primitive.
+ *
+ * Every primitive is served by Bouncy Castle until providers are selected. {@code selectProviders()} benchmarks
+ * each installed candidate provider for each primitive and picks the fastest compliant one: on HotSpot, the JDK
+ * providers use CPU intrinsics for AES and SHA-256 which Bouncy Castle's pure-Java code cannot use. A provider is
+ * compliant if it produces exactly the same output as Bouncy Castle for the same input, so entries and master keys
+ * stay readable whichever provider is selected.
+ *
+ * The Argon2id and HKDF generators are not JCE services, they always come from Bouncy Castle's lightweight API.
+ */
+public final class ProviderRegistry {
+    private ProviderRegistry(){} // Enforce non-instantiability of this class.
+
+    static {
+        // Add the Bouncy Castle provider, it is the default and the reference provider. No-op if already added.
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    // Name of the provider used until providers are selected, and against which candidates are checked.
+    private static final String DEFAULT_PROVIDER = BouncyCastleProvider.PROVIDER_NAME;
+
+    // Fixed inputs of the compliance checks and benchmarks. The password is not ASCII, so that every candidate
+    // must encode it the same way as the reference provider.
+    private static final byte[] KEY = new byte[32];
+    private static final char[] PASSWORD = "bix-pr\u00f8vider-ch\u00e9ck".toCharArray();
+    private static final byte[] DATA = new byte[PROVIDER_BENCHMARK_BUFFER_SIZE];
+
+    // The selected provider of each primitive. Replaced as a whole, so readers never see a partial selection.
+    private static volatile Map<CryptoPrimitive, String> providers = new EnumMap<>(CryptoPrimitive.class);
+
+    /**
+     * A single operation of a primitive, as run by the compliance checks and benchmarks.
+     */
+    @FunctionalInterface
+    private interface Operation {
+        byte[] run(byte[] nonce) throws GeneralSecurityException;
+    }
+
+
+    /**
+     * Get the name of the provider serving a primitive.
+     *
+     * @param primitive the cryptographic primitive
+     *
+     * @return the provider name
+     */
+    public static String getProvider(CryptoPrimitive primitive) {
+        return providers.getOrDefault(primitive, DEFAULT_PROVIDER);
+    }
+
+    /**
+     * Routes the primitives through the given providers. Providers which are not installed in this JVM are
+     * ignored, their primitives are served by the default provider.
+     *
+     * Must be called before the first cryptographic operation: the per-thread primitives of {@code Crypto} keep
+     * the provider they were created with.
+     *
+     * @param selection the provider name of each primitive
+     */
+    public static void setProviders(Map<CryptoPrimitive, String> selection) {
+        var installed = new EnumMap<CryptoPrimitive, String>(CryptoPrimitive.class);
+        selection.forEach((primitive, provider) -> {
+            if (provider != null && Security.getProvider(provider) != null)
+                installed.put(primitive, provider);
+        });
+        providers = installed;
+    }
+
+    /**
+     * Benchmarks every candidate provider for every primitive on the current machine and picks the fastest
+     * compliant one. A candidate which does not offer the primitive, or fails the compliance check, is skipped.
+     *
+     * @param millis how long each measurement pass of a provider for a primitive takes, in milliseconds
+     *
+     * @return the selected provider name of each primitive
+     */
+    public static EnumMap<CryptoPrimitive, String> selectProviders(int millis) {
+        var selection = new EnumMap<CryptoPrimitive, String>(CryptoPrimitive.class);
+
+        for (var primitive : CryptoPrimitive.values()) {
+            String fastest = DEFAULT_PROVIDER;
+            double fastestRate = 0;
+
+            try {
+                byte[] reference = prepare(primitive, DEFAULT_PROVIDER).run(new byte[16]);
+
+                for (var candidate : PROVIDER_CANDIDATES) {
+                    if (Security.getProvider(candidate) == null)
+                        continue;
+
+                    Operation operation;
+                    try {
+                        operation = prepare(primitive, candidate);
+
+                        // The candidate must produce the same output as the reference provider.
+                        if (!Arrays.equals(reference, operation.run(new byte[16])))
+                            continue;
+                    }
+                    catch (GeneralSecurityException e) {
+                        continue; // The candidate does not offer the primitive.
+                    }
+
+                    double rate = measure(operation, millis);
+                    if (rate > fastestRate) {
+                        fastest = candidate;
+                        fastestRate = rate;
+                    }
+                }
+            }
+            catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+
+            selection.put(primitive, fastest);
+        }
+
+        return selection;
+    }
+
+    /**
+     * Creates a single operation of a primitive from a provider, with the fixed key and input.
+     *
+     * @param primitive the cryptographic primitive
+     * @param provider the provider name
+     *
+     * @return the operation, which takes a 16 byte nonce; primitives which need no nonce ignore it
+     *
+     * @throws GeneralSecurityException if the provider does not offer the primitive
+     */
+    private static Operation prepare(CryptoPrimitive primitive, String provider) throws GeneralSecurityException {
+        var algorithm = primitive.toString();
+
+        switch (primitive) {
+            case SHA256 -> {
+                var md = MessageDigest.getInstance(algorithm, provider);
+                return nonce -> md.digest(DATA);
+            }
+            case AES_GCM -> {
+                var cipher = Cipher.getInstance(algorithm, provider);
+                var key = new SecretKeySpec(KEY, "AES");
+                return nonce -> {
+                    cipher.init(Cipher.ENCRYPT_MODE, key,
+                            new GCMParameterSpec(GCM_TAG_LENGTH, nonce, 0, GCM_IV_LENGTH));
+                    return cipher.doFinal(DATA);
+                };
+            }
+            case AES_CBC -> {
+                var cipher = Cipher.getInstance(algorithm, provider);
+                var key = new SecretKeySpec(KEY, "AES");
+                return nonce -> {
+                    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(nonce));
+                    return cipher.doFinal(DATA);
+                };
+            }
+            case CHACHA20_POLY1305 -> {
+                var cipher = Cipher.getInstance(algorithm, provider);
+                var key = new SecretKeySpec(KEY, "ChaCha20");
+                return nonce -> {
+                    cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(nonce, 0, GCM_IV_LENGTH));
+                    return cipher.doFinal(DATA);
+                };
+            }
+            case PBKDF2 -> {
+                var factory = SecretKeyFactory.getInstance(algorithm, provider);
+                return nonce -> factory.generateSecret(
+                        new PBEKeySpec(PASSWORD, nonce, PROVIDER_BENCHMARK_PBKDF2_ITERATIONS, 256)).getEncoded();
+            }
+            default -> throw new IllegalArgumentException(primitive.name());
+        }
+    }
+
+    /**
+     * Measures the rate of an operation over several passes and keeps the fastest. The first passes run before the
+     * JIT has compiled the provider's code, and some providers only use CPU intrinsics once it has.
+     *
+     * @param operation the operation to measure
+     * @param millis how long each pass takes, in milliseconds
+     *
+     * @return the number of operations per second
+     */
+    private static double measure(Operation operation, int millis) throws GeneralSecurityException {
+        var nonce = "bix-bench-nonce!".getBytes(StandardCharsets.UTF_8);
+
+        double fastestRate = 0;
+        for (int pass = 0; pass < PROVIDER_BENCHMARK_PASSES; pass++) {
+            long operations = 0, elapsed;
+            long start = System.nanoTime();
+            while ((elapsed = System.nanoTime() - start) < millis * 1_000_000L) {
+                // A nonce must never repeat under the same key, so it is incremented for every operation.
+                for (int i = GCM_IV_LENGTH - 1; i >= 0 && ++nonce[i] == 0; i--);
+
+                operation.run(nonce);
+                operations++;
+            }
+            fastestRate = Math.max(fastestRate, operations / (elapsed / 1e9));
+        }
+
+        return fastestRate;
+    }
+
+} // class ProviderRegistry
@@ -0,0 +1,167 @@
+package bix.utils;
+
+import bix.exceptions.InvalidSearchQueryException;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A full-text search query, matched against the account name and associated email of an entry by the vault stores
+ * without a full-text index. It follows the FTS5 query syntax of the SQLite store, tokenized the same way as the
+ * "unicode61 remove_diacritics" tokenizer: text is split into tokens of letters and digits, which are compared
+ * ignoring case and diacritics.
+ *
+ * A query is one or more alternatives separated by OR; an alternative matches if all of its terms match (AND is
+ * optional). A term is a word, which matches a whole token; a word ending in '*', which matches a token prefix; or a
+ * quoted phrase, which matches consecutive tokens. A term preceded by NOT matches if the term does not.
+ */
+final class SearchQuery {
+    /**
+     * A term of the query.
+     *
+     * @param tokens the tokens of the term, more than one for a phrase
+     * @param prefix true if the last token matches a token prefix
+     * @param negated true if the term is preceded by NOT
+     */
+    private record Term(List<String> tokens, boolean prefix, boolean negated) {}
+
+    // Alternatives of the query, each a list of terms which must all match.
+    private final List<List<Term>> ALTERNATIVES = new ArrayList<>();
+
+    /**
+     * Parse a query.
+     *
+     * @throws InvalidSearchQueryException if the query is empty, has an unterminated phrase, or an operator without
+     *     a term
+     */
+    SearchQuery(String query) throws InvalidSearchQueryException {
+        var terms = new ArrayList<Term>();
+        boolean negated = false;
+        int i = 0;
+
+        while (true) {
+            while (i < query.length() && Character.isWhitespace(query.charAt(i))) {
+                i++;
+            }
+            if (i >= query.length())
+                break;
+
+            String word;
+            boolean phrase = query.charAt(i) == '"';
+            if (phrase) {
+                int end = query.indexOf('"', i + 1);
+                if (end < 0)
+                    throw new InvalidSearchQueryException(query);
+                word = query.substring(i + 1, end);
+                i = end + 1;
+            }
+            else {
+                int start = i;
+                while (i < query.length() && !Character.isWhitespace(query.charAt(i)) && query.charAt(i) != '"') {
+                    i++;
+                }
+                word = query.substring(start, i);
+            }
+
+            // Operators are uppercase words, as in FTS5.
+            if (!phrase && word.equals("OR")) {
+                if (terms.isEmpty() || negated)
+                    throw new InvalidSearchQueryException(query);
+                ALTERNATIVES.add(terms);
+                terms = new ArrayList<>();
+            }
+            else if (!phrase && word.equals("AND")) {
+                if (terms.isEmpty() || negated)
+                    throw new InvalidSearchQueryException(query);
+            }
+            else if (!phrase && word.equals("NOT")) {
+                if (negated)
+                    throw new InvalidSearchQueryException(query);
+                negated = true;
+            }
+            else {
+                boolean prefix = !phrase && word.endsWith("*");
+                var tokens = tokenize(prefix ? word.substring(0, word.length() - 1) : word);
+                if (tokens.isEmpty())
+                    throw new InvalidSearchQueryException(query);
+                terms.add(new Term(tokens, prefix, negated));
+                negated = false;
+            }
+        }
+
+        if (terms.isEmpty() || negated)
+            throw new InvalidSearchQueryException(query);
+        ALTERNATIVES.add(terms);
+    }
+
+    /**
+     * Check if an entry matches the query.
+     *
+     * @param accountName the account name of the entry
+     * @param associatedEmail the associated email of the entry, "nil" or null if it has none
+     */
+    boolean matches(String accountName, String associatedEmail) {
+        var nameTokens = tokenize(accountName);
+        var emailTokens = associatedEmail == null ? List.<String>of() : tokenize(associatedEmail);
+
+        for (var terms : ALTERNATIVES) {
+            boolean matches = true;
+            for (var term : terms) {
+                boolean found = contains(nameTokens, term) || contains(emailTokens, term);
+                if (found == term.negated()) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check if the tokens of a column contain a term, its tokens being consecutive.
+     */
+    private static boolean contains(List<String> tokens, Term term) {
+        int length = term.tokens().size();
+        for (int start = 0; start + length <= tokens.size(); start++) {
+            boolean matches = true;
+            for (int i = 0; i < length && matches; i++) {
+                var token = tokens.get(start + i);
+                var expected = term.tokens().get(i);
+                matches = term.prefix() && i == length - 1 ? token.startsWith(expected) : token.equals(expected);
+            }
+            if (matches)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Split text into lowercase tokens of letters and digits, with the diacritics removed.
+     */
+    private static List<String> tokenize(String text) {
+        var folded = Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase(Locale.ROOT);
+        var tokens = new ArrayList<String>();
+        var token = new StringBuilder();
+
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK)
+                continue;
+            if (Character.isLetterOrDigit(c)) {
+                token.append(c);
+            }
+            else if (!token.isEmpty()) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        if (!token.isEmpty())
+            tokens.add(token.toString());
+        return tokens;
+    }
+
+} // class SearchQuery
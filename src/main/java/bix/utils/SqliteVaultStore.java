@@ -0,0 +1,1771 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
+import bix.exceptions.AccountAlreadyExistsException;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.InvalidSearchQueryException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static bix.utils.Constants.ACCOUNT_NAME_FILTER_MIN_CAPACITY;
+import static bix.utils.Constants.SQLITE_BUSY_TIMEOUT_MS;
+import static bix.utils.Constants.VAULT_RESOURCE_PATH;
+
+import static bix.utils.Constants.KDF_VERSION_PBKDF2;
+import static bix.utils.Constants.PBKDF2_ITERATIONS;
+
+/**
+ * Vault store kept in the SQLite database "vault.db".
+ * The database contains 2 tables: "accounts" and "bix_metadata".
+ * - accounts table stores the encrypted account credentials.
+ * - bix_metadata table stores information critical to Bix operations.
+ */
+
+/* Note:
+ * The names "vault" and "database" are used interchangeably through the documentation in this class
+ * depending on the appropriate naming for doc.
+ *
+ * Conceptually, the "vault" contains all the account entries. And so, when referring to the "vault", we are
+ * essentially referring to the "accounts" table inside the "vault.db" database.
+ */
+
+/* Columns in the vault database's "accounts" table (ciphertext_u, ciphertext_p, salt, iv and secret_hash are BLOBs):
+ * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+-------------+--------------+
+ * | [0]          | [1]          | [2]          | [3]          | [4]          | [5]          | [6]          | [7]         | [8]          |
+ * |--------------|--------------|--------------|--------------|--------------|--------------|--------------|-------------|--------------|
+ * | account_name | email        | ciphertext_u | ciphertext_p | salt         | iv           | secret_hash  | kdf_version | cipher_suite |
+ * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+-------------+--------------+
+ * ciphertext_u is the encrypted username
+ * ciphertext_p is the encrypted password
+ * secret_hash is the SHA256 hash of the secret key (which is generated using thr master password and the salt),
+ *             only present for legacy AES-CBC entries; AES-GCM entries are authenticated by the cipher itself
+ * kdf_version indicates how the secret key is derived (see Constants.KDF_VERSION_*)
+ * cipher_suite indicates how the credentials are encrypted (see enum CipherSuite)
+ */
+
+public final class SqliteVaultStore implements AccountNameFileStore {
+    /* Note:
+     * The vault is a regular file at the path set by the "vault_path" config property, the url looks like:
+     * "jdbc:sqlite:/home/user/.bix/vault.db"
+     *
+     * Older versions of Bix kept the vault in the resource folder, opened with the url
+     * "jdbc:sqlite::resource:vault.db". The driver extracts such a vault to a temporary file, so it can neither be
+     * tuned nor placed on fast storage. It is copied to the vault path the first time the vault is opened.
+     */
+    private final String URL;
+
+    // PRAGMA statements executed on every new connection.
+    private final List<String> PRAGMAS;
+
+    // The connection of each thread, see connection(). SQLite connections must not be shared between threads.
+    private final ThreadLocal<PooledConnection> CONNECTION = new ThreadLocal<>();
+
+    // Every open pooled connection, so close() can close the connections of all threads.
+    private final List<PooledConnection> OPEN_CONNECTIONS = Collections.synchronizedList(new ArrayList<>());
+
+    /* Note:
+     * The Bloom filter over the account names (see AccountNameFilter) answers the lookups of account names which are
+     * not in the vault, it is loaded by the first lookup. It is stored in the "account_name_filter" metadata value
+     * along with the names version it describes, and rebuilt from the accounts table when that is not the names
+     * version of the vault. The names written through this store are added to the filter as they are written, and
+     * the filter is stored again by close(), rather than on every write.
+     *
+     * The filter only knows the names written by this process. A name added by another process makes the names
+     * version of the filter fall behind the one of the vault: the filter is dropped by the next checkDataVersion(),
+     * and the stored filter is rebuilt by the next lookup. A name the filter rejects is only reported missing once
+     * checkDataVersion() found the vault unchanged, otherwise it is looked up in the vault, so a name another process
+     * added since the last check is not missed.
+     */
+
+    // Lock guarding the account name filter and the fields below.
+    private final Object FILTER_LOCK = new Object();
+
+    // The account name filter, null until it is loaded.
+    private AccountNameFilter filter = null;
+
+    // True if the filter describes a names version which is not stored yet.
+    private boolean filterDirty = false;
+
+    // Number of writes to the account names made through this store, a filter loaded while one ran is dropped.
+    private long filterWrites = 0;
+
+    // Lookups of account names which are not in the vault, answered by the filter or let through by it.
+    private long filterRejected = 0;
+    private long filterFalsePositives = 0;
+
+    /* Note:
+     * Several Bix sessions, i.e. processes, may share the vault. The data version of a connection ("PRAGMA
+     * data_version") changes whenever another connection commits to the database, and reading it takes no lock.
+     * checkDataVersion() polls it on a connection of its own which never writes, so a commit of any other connection,
+     * of this process or of another one, is seen; the caches then tell the writes of this process apart by the
+     * names version.
+     */
+
+    // Lock guarding the data version connection and the fields below.
+    private final Object DATA_VERSION_LOCK = new Object();
+
+    // Connection polled by checkDataVersion(), null until the first check.
+    private PooledConnection dataVersionConnection = null;
+
+    // Data version of the connection at the last check, and the number of checks which found the vault written to.
+    private long lastDataVersion = 0;
+    private long dataVersion = 0;
+
+    // SQL Statement for creating the "accounts" table.
+    private static final String ACCOUNTS_TABLE_SCHEMA = String.format("""
+            CREATE TABLE IF NOT EXISTS accounts (
+            	account_name TEXT PRIMARY KEY,
+            	associated_email TEXT,
+            	ciphertext_u BLOB NOT NULL,
+            	ciphertext_p BLOB NOT NULL,
+            	salt BLOB NOT NULL,
+            	iv BLOB NOT NULL,
+            	secret_hash BLOB,
+            	kdf_version INTEGER NOT NULL DEFAULT %d,
+            	cipher_suite TEXT NOT NULL DEFAULT '%s'
+            );""", KDF_VERSION_PBKDF2, CipherSuite.AES_CBC);
+
+    /* Note:
+     * The "accounts_fts" FTS5 table indexes the account names and associated emails for the full-text search.
+     * It is an external content table: it stores only the index and reads the text from the accounts table by rowid.
+     * The triggers below keep it in sync with every insert, delete and rename in the accounts table. The index must
+     * be rebuilt whenever the rowids of the accounts table change, e.g. after the table is recreated or vacuumed.
+     */
+
+    // SQL Statements for creating the "accounts_fts" table and the triggers keeping it in sync.
+    private static final String[] ACCOUNTS_FTS_SCHEMA = {
+            """
+            CREATE VIRTUAL TABLE IF NOT EXISTS accounts_fts USING fts5(
+            	account_name,
+            	associated_email,
+            	content = 'accounts',
+            	content_rowid = 'rowid',
+            	tokenize = 'unicode61 remove_diacritics 2',
+            	prefix = '2 3'
+            );""",
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_insert AFTER INSERT ON accounts BEGIN
+            	INSERT INTO accounts_fts(rowid, account_name, associated_email)
+            	VALUES (new.rowid, new.account_name, new.associated_email);
+            END;""",
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_delete AFTER DELETE ON accounts BEGIN
+            	INSERT INTO accounts_fts(accounts_fts, rowid, account_name, associated_email)
+            	VALUES ('delete', old.rowid, old.account_name, old.associated_email);
+            END;""",
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_fts_update AFTER UPDATE OF account_name, associated_email ON accounts
+            WHEN old.account_name IS NOT new.account_name OR old.associated_email IS NOT new.associated_email BEGIN
+            	INSERT INTO accounts_fts(accounts_fts, rowid, account_name, associated_email)
+            	VALUES ('delete', old.rowid, old.account_name, old.associated_email);
+            	INSERT INTO accounts_fts(rowid, account_name, associated_email)
+            	VALUES (new.rowid, new.account_name, new.associated_email);
+            END;"""
+    };
+
+    // SQL Statements for creating the triggers advancing the "names_version" metadata value, the names version of the
+    // vault, whenever an account name is added, deleted or renamed. A write which leaves the names as they are, e.g.
+    // an updated password, leaves it as it is.
+    private static final String[] NAMES_VERSION_TRIGGERS = {
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_names_version_insert AFTER INSERT ON accounts BEGIN
+            	UPDATE bix_metadata SET metadata_value = CAST(metadata_value AS INTEGER) + 1 WHERE id = 'names_version';
+            END;""",
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_names_version_delete AFTER DELETE ON accounts BEGIN
+            	UPDATE bix_metadata SET metadata_value = CAST(metadata_value AS INTEGER) + 1 WHERE id = 'names_version';
+            END;""",
+            """
+            CREATE TRIGGER IF NOT EXISTS accounts_names_version_update AFTER UPDATE OF account_name ON accounts
+            WHEN old.account_name IS NOT new.account_name BEGIN
+            	UPDATE bix_metadata SET metadata_value = CAST(metadata_value AS INTEGER) + 1 WHERE id = 'names_version';
+            END;"""
+    };
+
+    /**
+     * SqliteVaultStore constructor. No connection is opened until the first operation.
+     *
+     * @param url the JDBC URL of the database
+     * @param pragmas the pragmas applied to every connection, in the format of the "sqlite_pragmas" config property
+     */
+    public SqliteVaultStore(String url, String pragmas) {
+        URL = url;
+        PRAGMAS = parsePragmas(pragmas);
+    }
+
+    /**
+     * Open the vault database at a path. The directory of the vault file is created, and the vault of an older
+     * version of Bix is copied over from the resources if there is no vault file yet.
+     *
+     * Other Bix sessions may share the vault file, so every connection is in WAL mode, where readers do not block
+     * the writer, and waits up to {@code SQLITE_BUSY_TIMEOUT_MS} for the write lock held by another session rather
+     * than failing at once. The given pragmas can override both.
+     *
+     * @param vaultPath the path of the vault file
+     * @param pragmas the pragmas applied to every connection, in the format of the "sqlite_pragmas" config property
+     *
+     * @return the SqliteVaultStore object
+     */
+    static SqliteVaultStore open(Path vaultPath, String pragmas) {
+        try {
+            Files.createDirectories(vaultPath.getParent());
+
+            if (Files.notExists(vaultPath)) {
+                try (InputStream in = SqliteVaultStore.class.getClassLoader().getResourceAsStream(VAULT_RESOURCE_PATH)) {
+                    if (in != null)
+                        Files.copy(in, vaultPath);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return new SqliteVaultStore("jdbc:sqlite:" + vaultPath,
+                "journal_mode=WAL;busy_timeout=" + SQLITE_BUSY_TIMEOUT_MS + ";" + pragmas);
+    }
+
+    /**
+     * Get the JDBC URL of the database.
+     */
+    String url() {
+        return URL;
+    }
+
+
+    //--------------------
+
+
+    @Override
+    public void setup() {
+        // Clean up any junk data in the vault database.
+        purge();
+
+        // Create the bix_metadata table if it does not already exist.
+        createMetadataTable();
+
+        // Create the accounts table if it does not already exist.
+        createAccountsTable();
+
+        // Create the full-text search index over the accounts table.
+        createAccountsSearchTable();
+
+        // Start counting the account names added and deleted.
+        addMetadata("names_version", "0");
+        createNamesVersionTriggers();
+    }
+
+    @Override
+    public void migrate() {
+        // Vaults created before the full-text search have no search index, it is built from the accounts table.
+        boolean rebuildSearchIndex = !getTables().contains("accounts_fts");
+
+        // Entries written before the key hierarchy was introduced are tagged with kdf version 1.
+        if (!columnExists("accounts", "kdf_version")) {
+            executeStatement(String.format(
+                    "ALTER TABLE accounts ADD COLUMN kdf_version INTEGER NOT NULL DEFAULT %d", KDF_VERSION_PBKDF2));
+        }
+
+        // Entries written before GCM was introduced are tagged as AES-CBC, they are re-encrypted when first read.
+        if (!columnExists("accounts", "cipher_suite")) {
+            executeStatement(String.format(
+                    "ALTER TABLE accounts ADD COLUMN cipher_suite TEXT NOT NULL DEFAULT '%s'", CipherSuite.AES_CBC));
+        }
+
+        // Vaults written before the binary row format store Base64 and hex TEXT, convert them to BLOBs.
+        // This also lifts the NOT NULL constraint on secret_hash, which AES-GCM entries do not have.
+        if ("TEXT".equalsIgnoreCase(getColumnType("accounts", "salt"))) {
+            convertAccountsTableToBinary();
+
+            // The converted entries have new rowids.
+            rebuildSearchIndex = true;
+        }
+
+        createAccountsSearchTable();
+        if (rebuildSearchIndex) {
+            executeStatement("INSERT INTO accounts_fts(accounts_fts) VALUES ('rebuild')");
+        }
+
+        // Vaults created before the account name index file do not count the account names added and deleted.
+        addMetadataIfAbsent("names_version", "0");
+        createNamesVersionTriggers();
+
+        inTransaction(conn -> {
+            // Add the key derivation metadata fields if they are missing. Vaults created before the calibration
+            // derive their master key with the legacy iteration count, the salt and the wrapped data key are
+            // generated at the next authentication.
+            addMetadataIfAbsent("master_key_salt", null);
+            addMetadataIfAbsent("kdf_algorithm", KDFAlgorithm.PBKDF2.toString());
+            addMetadataIfAbsent("kdf_iterations", String.valueOf(PBKDF2_ITERATIONS));
+            addMetadataIfAbsent("kdf_memory_kib", "0");
+            addMetadataIfAbsent("kdf_parallelism", "1");
+            addMetadataIfAbsent("wrapped_data_key", null);
+            addMetadataIfAbsent("cipher_suite", CipherSuite.AES_GCM.toString());
+
+            // Add the rekey metadata fields if they are missing.
+            addMetadataIfAbsent("rekey_wrapped_data_key", null);
+            addMetadataIfAbsent("rekey_aes_flavor", null);
+            addMetadataIfAbsent("rekey_cipher_suite", null);
+            addMetadataIfAbsent("rekey_cursor", null);
+            addMetadataIfAbsent("rekey_owner", null);
+            addMetadataIfAbsent("rekey_heartbeat", null);
+
+            // Add the provider metadata fields if they are missing, the providers are selected at the next start.
+            for (var primitive : CryptoPrimitive.values()) {
+                addMetadataIfAbsent(primitive.metadataId(), null);
+            }
+        });
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Get the connection to the vault.db database of the calling thread, opening it on first use.
+     * The connection stays open until {@code close()}, so the cost of opening the database file and applying the
+     * connection pragmas is paid once per thread instead of once per operation.
+     *
+     * @return the Connection object
+     */
+    private Connection connection() {
+        return pooledConnection().connection;
+    }
+
+    /**
+     * Get a prepared statement for an SQL statement from the statement cache of the calling thread's connection,
+     * preparing it on first use. The statement must not be closed by the caller, it is closed by {@code close()}.
+     *
+     * @param sql the SQL statement to prepare
+     *
+     * @return the PreparedStatement object, with its parameters cleared
+     */
+    private PreparedStatement prepare(String sql) throws SQLException {
+        var pooled = pooledConnection();
+
+        var pstmt = pooled.statements.get(sql);
+        if (pstmt != null) {
+            try {
+                pstmt.clearParameters();
+                return pstmt;
+            }
+            catch (SQLException e) {
+                // The driver finalizes a statement whose execution failed, it is prepared again.
+                pstmt.close();
+            }
+        }
+
+        pstmt = pooled.connection.prepareStatement(sql);
+        pooled.statements.put(sql, pstmt);
+        return pstmt;
+    }
+
+    /**
+     * Get the pooled connection of the calling thread, opening a new one if it has none or if it was closed.
+     */
+    private PooledConnection pooledConnection() {
+        var pooled = CONNECTION.get();
+        if (pooled != null && !pooled.closed)
+            return pooled;
+
+        pooled = openConnection();
+        CONNECTION.set(pooled);
+        return pooled;
+    }
+
+    /**
+     * Open a new pooled connection to the vault.db database with the connection pragmas applied. It is closed by
+     * {@code close()}.
+     */
+    private PooledConnection openConnection() {
+        try {
+            var conn = DriverManager.getConnection(URL);
+            try (Statement stmt = conn.createStatement()) {
+                for (var pragma : PRAGMAS) {
+                    stmt.execute(pragma);
+                }
+            }
+
+            var pooled = new PooledConnection(conn);
+            OPEN_CONNECTIONS.add(pooled);
+            return pooled;
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse connection pragmas in the format of the "sqlite_pragmas" config property, e.g.
+     * "temp_store=MEMORY;cache_size=0". Pragmas that are not of the form name=value, with a plain name and value,
+     * are ignored.
+     *
+     * @return the PRAGMA statements to execute on every new connection
+     */
+    private static List<String> parsePragmas(String sqlitePragmas) {
+        var pragmas = new ArrayList<String>();
+
+        for (var pragma : sqlitePragmas.split(";")) {
+            var parts = pragma.split("=", 2);
+            if (parts.length != 2)
+                continue;
+
+            var name = parts[0].strip();
+            var value = parts[1].strip();
+            if (name.matches("[A-Za-z_]+") && value.matches("-?[A-Za-z0-9_]+"))
+                pragmas.add(String.format("PRAGMA %s = %s", name, value));
+        }
+        return pragmas;
+    }
+
+    /**
+     * Run several SQL operations of the calling thread in a single write transaction. The transaction is committed
+     * if every operation succeeds and rolled back otherwise.
+     *
+     * The write lock is taken when the transaction begins ("BEGIN IMMEDIATE"), waiting for another session to
+     * release it under the busy timeout. A transaction which only took it at its first write could instead fail at
+     * once, if another session committed since its first read.
+     *
+     * @param transaction the operations to run, given the connection they run on
+     */
+    private void inTransaction(Transaction transaction) {
+        inTransaction("BEGIN IMMEDIATE", transaction);
+    }
+
+    /**
+     * Run several SQL reads of the calling thread in a single read transaction, so they all see the vault as it was
+     * when the first of them ran. The transaction does not take the write lock.
+     *
+     * @param transaction the reads to run, given the connection they run on
+     */
+    private void inReadTransaction(Transaction transaction) {
+        inTransaction("BEGIN DEFERRED", transaction);
+    }
+
+    /**
+     * Run several SQL operations of the calling thread in a single transaction begun with a BEGIN statement. The
+     * statements are executed directly, the driver would otherwise begin the next transaction right after a commit.
+     */
+    private void inTransaction(String beginStmt, Transaction transaction) {
+        var conn = connection();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(beginStmt);
+            try {
+                transaction.run(conn);
+                stmt.execute("COMMIT");
+            }
+            catch (SQLException | RuntimeException e) {
+                try {
+                    stmt.execute("ROLLBACK");
+                }
+                catch (SQLException rollbackFailure) {
+                    // SQLite already rolled the transaction back after some errors.
+                    e.addSuppressed(rollbackFailure);
+                }
+                throw e;
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Close every cached prepared statement and every pooled connection to the vault.db database.
+     * The next operation on any thread opens a new connection.
+     */
+    @Override
+    public void close() {
+        try {
+            storeAccountNameFilter();
+        }
+        finally {
+            synchronized (OPEN_CONNECTIONS) {
+                for (var pooled : OPEN_CONNECTIONS) {
+                    pooled.close();
+                }
+                OPEN_CONNECTIONS.clear();
+            }
+        }
+    }
+
+    /**
+     * Close the cached prepared statements and the pooled connection of the calling thread, if it has one.
+     */
+    @Override
+    public void releaseThread() {
+        var pooled = CONNECTION.get();
+        if (pooled == null)
+            return;
+
+        CONNECTION.remove();
+        OPEN_CONNECTIONS.remove(pooled);
+        pooled.close();
+    }
+
+    /**
+     * Executes a single SQL statement that does not return a result.
+     *
+     * @param sql the SQL statement to execute
+     */
+    private void executeStatement(String sql) {
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(sql);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks if a column exists in a table.
+     *
+     * @param tableName the name of the table
+     * @param columnName the name of the column
+     *
+     * @return true if the table has a column with the name {@code columnName}
+     */
+    private boolean columnExists(String tableName, String columnName) {
+        try (Statement stmt = connection().createStatement()) {
+            // Each row returned by table_info describes one column of the table.
+            ResultSet rs = stmt.executeQuery(String.format("PRAGMA table_info(%s)", tableName));
+            while (rs.next()) {
+                if (rs.getString("name").equals(columnName))
+                    return true;
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return false;
+    }
+
+    /**
+     * Get the declared type of a column in a table.
+     *
+     * @param tableName the name of the table
+     * @param columnName the name of the column
+     *
+     * @return the declared type of the column, or null if the column does not exist
+     */
+    private String getColumnType(String tableName, String columnName) {
+        try (Statement stmt = connection().createStatement()) {
+            // Each row returned by table_info describes one column of the table.
+            ResultSet rs = stmt.executeQuery(String.format("PRAGMA table_info(%s)", tableName));
+            while (rs.next()) {
+                if (rs.getString("name").equals(columnName))
+                    return rs.getString("type");
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Recreates the accounts table with the binary row format and copies every entry into it, decoding the Base64
+     * ciphertexts, salts and IVs and the hexadecimal secret hashes of the TEXT row format. Used by
+     * {@code migrate()}, the whole conversion runs in a single transaction.
+     */
+    private void convertAccountsTableToBinary() {
+        String insertStmt = "INSERT INTO accounts(account_name,associated_email,ciphertext_u,ciphertext_p,salt,iv," +
+                "secret_hash,kdf_version,cipher_suite) VALUES(?,?,?,?,?,?,?,?,?)";
+
+        var base64 = Base64.getDecoder();
+        var hex = HexFormat.of();
+
+        inTransaction(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE accounts RENAME TO accounts_old");
+                stmt.execute(ACCOUNTS_TABLE_SCHEMA);
+
+                // The insert statement is only used once, so it is not cached.
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM accounts_old");
+                     PreparedStatement pstmt = conn.prepareStatement(insertStmt)) {
+                    while (rs.next()) {
+                        var secretHash = rs.getString("secret_hash");
+
+                        pstmt.setString(1, rs.getString("account_name"));
+                        pstmt.setString(2, rs.getString("associated_email"));
+                        pstmt.setBytes(3, base64.decode(rs.getString("ciphertext_u")));
+                        pstmt.setBytes(4, base64.decode(rs.getString("ciphertext_p")));
+                        pstmt.setBytes(5, base64.decode(rs.getString("salt")));
+                        pstmt.setBytes(6, base64.decode(rs.getString("iv")));
+                        pstmt.setBytes(7, secretHash == null ? null : hex.parseHex(secretHash));
+                        pstmt.setInt(8, rs.getInt("kdf_version"));
+                        pstmt.setString(9, rs.getString("cipher_suite"));
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+
+                stmt.execute("DROP TABLE accounts_old");
+            }
+        });
+    }
+
+    @Override
+    public int size() {
+        int numberOfEntries;
+
+        // Construct SQL statement to count entries in the "accounts" table.
+        String countStmt = "SELECT count(*) FROM accounts";
+
+        try (Statement stmt = connection().createStatement()) {
+            // Execute the SQL query to count the number of entries.
+            ResultSet rs = stmt.executeQuery(countStmt);
+
+            // rs will contain one int value, which is the number of entries in the vault.
+            numberOfEntries = rs.getInt(1);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return numberOfEntries;
+    }
+
+    @Override
+    public int sizeAfter(String accountName) {
+        // Construct SQL statement to count entries after the account name, this is a range scan of the primary key.
+        String countStmt = "SELECT count(*) FROM accounts WHERE account_name > ?";
+
+        try {
+            PreparedStatement pstmt = prepare(countStmt);
+            pstmt.setString(1, accountName);
+
+            // rs will contain one int value, which is the number of entries after the account name.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.getInt(1);
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Create the accounts table in the database. Used during initial Bix setup.
+     */
+    private void createAccountsTable() {
+        // Open connection.
+        try (Statement stmt = connection().createStatement()) {
+            // Execute the SQL statement to create the "accounts" table.
+            stmt.execute(ACCOUNTS_TABLE_SCHEMA);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the "accounts_fts" full-text search table and its triggers if they do not already exist.
+     * The accounts table must exist.
+     */
+    private void createAccountsSearchTable() {
+        try (Statement stmt = connection().createStatement()) {
+            for (var schema : ACCOUNTS_FTS_SCHEMA) {
+                stmt.execute(schema);
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the triggers advancing the names version of the vault if they do not already exist.
+     * The accounts and bix_metadata tables must exist.
+     */
+    private void createNamesVersionTriggers() {
+        try (Statement stmt = connection().createStatement()) {
+            for (var trigger : NAMES_VERSION_TRIGGERS) {
+                stmt.execute(trigger);
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create the bix_metadata table in the database. Used during initial Bix setup.
+     */
+    private void createMetadataTable() {
+        // Construct SQL Statement for creating the "bix_metadata" table.
+        String createTableStmt = """
+                CREATE TABLE IF NOT EXISTS bix_metadata (
+                	id TEXT PRIMARY KEY,
+                	metadata_value TEXT
+                );""";
+
+        // Open connection.
+        try (Statement stmt = connection().createStatement()) {
+            // Execute the SQL statement to create the "bix_metadata" table.
+            stmt.execute(createTableStmt);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        // Add the metadata fields with default values, in a single transaction.
+        inTransaction(conn -> {
+            for (var metadata : VaultStore.defaultMetadata().entrySet()) {
+                addMetadata(metadata.getKey(), metadata.getValue());
+            }
+        });
+    }
+
+    /**
+     * Deletes a table from the SQLite database.
+     *
+     * @param tableName the name of the table to delete from the database
+     */
+    private void deleteTable(String tableName) {
+        // Construct the SQL statement to delete a table if it exists.
+        String deleteTableStmt = String.format("DROP TABLE IF EXISTS %s", tableName);
+
+        try (Statement stmt = connection().createStatement()) {
+            stmt.execute(deleteTableStmt);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get a list of all the tables in the database.
+     */
+    private ArrayList<String> getTables() {
+        // ArrayList to store the tables.
+        ArrayList<String> tables = new ArrayList<>();
+
+        try (ResultSet rs = connection().getMetaData().getTables(null, null, null, null)) {
+            while (rs.next()) {
+                // Add the table to the list.
+                tables.add(rs.getString("TABLE_NAME"));
+            }
+
+            return tables;
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    //--------------------
+
+
+    @Override
+    public ArrayList<String> getAccountNames() {
+        // Construct SQL statement to select all the account names from the accounts table.
+        String selectAccNamesStmt = "SELECT account_name FROM accounts";
+
+        // ArrayList to store the account names.
+        ArrayList<String> accountNames = new ArrayList<>();
+
+        try (Statement stmt = connection().createStatement()) {
+            // Execute the SQL query to select all the account names.
+            ResultSet rs = stmt.executeQuery(selectAccNamesStmt);
+
+            // Loop through every value in the result set and get the account names.
+            while (rs.next()) {
+                // Add the account name to the array.
+                accountNames.add(rs.getString(1));
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return accountNames;
+    }
+
+    /**
+     * Get the next page of account names in alphabetical order. Every page starts after the last account name of
+     * the previous page, which is a range scan of the primary key, so a page costs the same wherever it is in the
+     * vault.
+     */
+    @Override
+    public ArrayList<String> getAccountNamesAfter(String accountName, int limit) {
+        // Construct the SQL select statement.
+        String selectStmt = "SELECT account_name FROM accounts WHERE account_name > ? ORDER BY account_name LIMIT ?";
+
+        // ArrayList to store the account names.
+        ArrayList<String> accountNames = new ArrayList<>(limit);
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            // Set the corresponding values of the select statement.
+            pstmt.setString(1, accountName);
+            pstmt.setInt(2, limit);
+
+            // Execute the select SQL statement and get the account name of every row.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    accountNames.add(rs.getString(1));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return accountNames;
+    }
+
+    /**
+     * Get the path of the account name index file: the path of the database file with the extension ".names".
+     * An in-memory database, or a database opened from the resources, keeps no file.
+     */
+    @Override
+    public Path getAccountNameFilePath() {
+        if (!URL.startsWith("jdbc:sqlite:"))
+            return null;
+
+        var file = URL.substring("jdbc:sqlite:".length());
+        if (file.isEmpty() || file.startsWith(":") || file.startsWith("file:"))
+            return null;
+
+        var databasePath = Path.of(file).toAbsolutePath();
+        var fileName = databasePath.getFileName().toString();
+        if (fileName.endsWith(".db"))
+            fileName = fileName.substring(0, fileName.length() - ".db".length());
+
+        return databasePath.resolveSibling(fileName + ".names");
+    }
+
+    /**
+     * Get the names version from the "names_version" metadata value, advanced by the triggers of the accounts table.
+     * The value is added by {@code migrate()}.
+     */
+    @Override
+    public long getNamesVersion() {
+        var namesVersion = getMetadata("names_version");
+        return namesVersion == null ? -1 : Long.parseLong(namesVersion);
+    }
+
+    @Override
+    public LinkedHashMap<Long, String> getAccountNamesFromRow(long rowId) {
+        // Construct the SQL select statement, this is a range scan of the rowids.
+        String selectStmt = "SELECT rowid, account_name FROM accounts WHERE rowid >= ? ORDER BY rowid";
+
+        // LinkedHashMap to store the account names in rowid order.
+        var accountNames = new LinkedHashMap<Long, String>();
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            pstmt.setLong(1, rowId);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    accountNames.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return accountNames;
+    }
+
+    /**
+     * Full-text search over the "accounts_fts" table, the matches are ranked with bm25.
+     */
+    @Override
+    public ArrayList<String> searchAccounts(String query, int limit) throws InvalidSearchQueryException {
+        // Construct SQL statement to select the best matching account names, the match rank is bm25.
+        String searchStmt = "SELECT account_name FROM accounts_fts WHERE accounts_fts MATCH ? ORDER BY rank LIMIT ?";
+
+        // ArrayList to store the account names.
+        ArrayList<String> accountNames = new ArrayList<>();
+
+        try {
+            PreparedStatement pstmt = prepare(searchStmt);
+            pstmt.setString(1, query);
+            pstmt.setInt(2, limit);
+
+            // Execute the select SQL statement and get the result set.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    accountNames.add(rs.getString(1));
+                }
+            }
+        }
+        catch (SQLException e) {
+            // FTS5 reports malformed queries as errors of the statement, an unterminated phrase as a tokenizer error.
+            if (e.getMessage() != null
+                    && (e.getMessage().contains("fts5") || e.getMessage().contains("unterminated string")))
+                throw new InvalidSearchQueryException(query);
+            throw new RuntimeException(e);
+        }
+
+        return accountNames;
+    }
+
+    @Override
+    public boolean accountExists(String accountName) {
+        // An account name rejected by the account name filter is not in the vault.
+        if (!mayExist(accountName))
+            return false;
+
+        // Construct SQL statement to look the account name up in the primary key index.
+        String selectStmt = "SELECT 1 FROM accounts WHERE account_name = ?";
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            pstmt.setString(1, accountName);
+
+            // The result set has a row only if the account exists.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next())
+                    return true;
+
+                countFalsePositive();
+                return false;
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addAccount(AccountEntry entry) throws AccountAlreadyExistsException {
+        // Construct SQL statement for inserting a new entry. An existing entry with the same account name is left
+        // untouched, and no row is inserted.
+        String insertStmt = "INSERT INTO " +
+                "accounts(account_name,associated_email,ciphertext_u,ciphertext_p,salt,iv,kdf_version,cipher_suite) " +
+                "VALUES(?,?,?,?,?,?,?,?) ON CONFLICT(account_name) DO NOTHING";
+
+        var inserted = new boolean[1];
+        inTransaction(conn -> {
+            checkEntryWrite(null);
+
+            PreparedStatement pstmt = prepare(insertStmt);
+            // Set the corresponding values of the insert statement.
+            setInsertValues(pstmt, entry);
+
+            // Execute the prepared statement, no row is inserted if the account name already exists in the vault.
+            inserted[0] = pstmt.executeUpdate() > 0;
+        });
+
+        if (!inserted[0])
+            throw new AccountAlreadyExistsException(entry.accountName());
+
+        addToAccountNameFilter(List.of(entry.accountName()));
+    }
+
+    /**
+     * Add a batch of account entries to the vault in a single transaction.
+     */
+    @Override
+    public ArrayList<String> addAccounts(List<AccountEntry> entries) {
+        // Construct SQL statement for inserting the new entries.
+        String insertStmt = "INSERT INTO " +
+                "accounts(account_name,associated_email,ciphertext_u,ciphertext_p,salt,iv,kdf_version,cipher_suite) " +
+                "VALUES(?,?,?,?,?,?,?,?) ON CONFLICT(account_name) DO NOTHING";
+
+        ArrayList<String> existing = new ArrayList<>();
+        ArrayList<String> added = new ArrayList<>();
+
+        inTransaction(conn -> {
+            checkEntryWrite(null);
+
+            PreparedStatement pstmt = prepare(insertStmt);
+
+            // Set the corresponding values of the insert statement for every entry.
+            for (var entry : entries) {
+                setInsertValues(pstmt, entry);
+                pstmt.addBatch();
+            }
+
+            // Execute the insert statement, no row is inserted for an account name already in the vault.
+            int[] counts = pstmt.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0)
+                    existing.add(entries.get(i).accountName());
+                else
+                    added.add(entries.get(i).accountName());
+            }
+        });
+
+        addToAccountNameFilter(added);
+        return existing;
+    }
+
+    /**
+     * Set the values of an insert statement into the accounts table from an entry.
+     */
+    private static void setInsertValues(PreparedStatement pstmt, AccountEntry entry) throws SQLException {
+        pstmt.setString(1, entry.accountName());
+        pstmt.setString(2, entry.associatedEmail());
+        pstmt.setBytes(3, entry.ciphertextUsername());
+        pstmt.setBytes(4, entry.ciphertextPassword());
+        pstmt.setBytes(5, entry.salt());
+        pstmt.setBytes(6, entry.iv());
+        pstmt.setInt(7, entry.kdfVersion());
+        pstmt.setString(8, entry.cipherSuite().toString());
+    }
+
+    @Override
+    public AccountEntry retrieveAccount(String accountName) throws AccountNotFoundException {
+        // An account name rejected by the account name filter is not in the vault.
+        if (!mayExist(accountName))
+            throw new AccountNotFoundException(accountName);
+
+        // Construct the SQL select statement.
+        String selectStmt = "SELECT * FROM accounts WHERE account_name = ?";
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            // Set the accountName field.
+            pstmt.setString(1, accountName);
+
+            // Execute the select SQL statement and get the result set.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // The result set is empty if the account does not exist in the vault.
+                if (!rs.next()) {
+                    countFalsePositive();
+                    throw new AccountNotFoundException(accountName);
+                }
+
+                // Unpack the ResultSet into an AccountEntry.
+                return toAccountEntry(rs);
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Retrieve the next page of account entries in account name order. Every page starts after the last account
+     * name of the previous page, which is a range scan of the primary key.
+     */
+    @Override
+    public ArrayList<AccountEntry> retrieveAccountsAfter(String accountName, int limit) {
+        // Construct the SQL select statement.
+        String selectStmt = "SELECT * FROM accounts WHERE account_name > ? ORDER BY account_name LIMIT ?";
+
+        // ArrayList to store the entries.
+        ArrayList<AccountEntry> entries = new ArrayList<>(limit);
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            // Set the corresponding values of the select statement.
+            pstmt.setString(1, accountName);
+            pstmt.setInt(2, limit);
+
+            // Execute the select SQL statement and unpack every row of the result set.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    entries.add(toAccountEntry(rs));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Unpacks the current row of a ResultSet over the accounts table into an AccountEntry.
+     *
+     * @param rs the ResultSet, positioned on a row
+     *
+     * @return an {@code AccountEntry} containing the account information
+     */
+    private static AccountEntry toAccountEntry(ResultSet rs) throws SQLException {
+        return new AccountEntry(rs.getString("account_name"),
+                rs.getString("associated_email"),
+                rs.getBytes("ciphertext_u"),
+                rs.getBytes("ciphertext_p"),
+                rs.getBytes("salt"),
+                rs.getBytes("iv"),
+                rs.getBytes("secret_hash"),
+                rs.getInt("kdf_version"),
+                CipherSuite.fromString(rs.getString("cipher_suite")));
+    }
+
+    // SQL statement to update an account entry.
+    private static final String UPDATE_ACCOUNT_STMT = """
+            UPDATE accounts
+            SET associated_email = ?,
+            ciphertext_u = ?,
+            ciphertext_p = ?,
+            salt = ?,
+            iv = ?,
+            secret_hash = ?,
+            kdf_version = ?,
+            cipher_suite = ?
+            WHERE account_name = ?;""";
+
+    // SQL statement to update a metadata value.
+    private static final String UPDATE_METADATA_STMT = "UPDATE bix_metadata SET metadata_value = ? WHERE id = ?";
+
+    @Override
+    public void updateAccount(AccountEntry entry) throws AccountNotFoundException {
+        // An account name rejected by the account name filter is not in the vault.
+        if (!mayExist(entry.accountName()))
+            throw new AccountNotFoundException(entry.accountName());
+
+        var updated = new boolean[1];
+        inTransaction(conn -> {
+            checkEntryWrite(null);
+
+            PreparedStatement pstmt = prepare(UPDATE_ACCOUNT_STMT);
+            // Set the corresponding values of the update statement.
+            setUpdateValues(pstmt, entry);
+
+            // Execute the update statement, no row is updated if the account does not exist in the vault.
+            updated[0] = pstmt.executeUpdate() > 0;
+        });
+
+        if (!updated[0]) {
+            countFalsePositive();
+            throw new AccountNotFoundException(entry.accountName());
+        }
+    }
+
+    /**
+     * Update a batch of existing account entries, along with metadata values, in a single transaction.
+     */
+    @Override
+    public void updateAccounts(List<AccountEntry> entries, Map<String, String> metadata) {
+        inTransaction(conn -> {
+            checkEntryWrite(metadata);
+
+            PreparedStatement pstmt = prepare(UPDATE_ACCOUNT_STMT);
+            PreparedStatement metadataPstmt = prepare(UPDATE_METADATA_STMT);
+
+            // Set the corresponding values of the update statement for every entry.
+            for (var entry : entries) {
+                setUpdateValues(pstmt, entry);
+                pstmt.addBatch();
+            }
+
+            // Set the corresponding values of the update statement for every metadata field.
+            for (var value : metadata.entrySet()) {
+                metadataPstmt.setString(1, value.getValue());
+                metadataPstmt.setString(2, value.getKey());
+                metadataPstmt.addBatch();
+            }
+
+            // Execute the update statements, they are committed together.
+            pstmt.executeBatch();
+            metadataPstmt.executeBatch();
+        });
+    }
+
+    /**
+     * Set the values of an update statement of the accounts table from an entry.
+     */
+    private static void setUpdateValues(PreparedStatement pstmt, AccountEntry entry) throws SQLException {
+        pstmt.setString(1, entry.associatedEmail());
+        pstmt.setBytes(2, entry.ciphertextUsername());
+        pstmt.setBytes(3, entry.ciphertextPassword());
+        pstmt.setBytes(4, entry.salt());
+        pstmt.setBytes(5, entry.iv());
+        pstmt.setBytes(6, entry.secretHash());
+        pstmt.setInt(7, entry.kdfVersion());
+        pstmt.setString(8, entry.cipherSuite().toString());
+        pstmt.setString(9, entry.accountName());
+    }
+
+    /**
+     * Check that entries may be written in the current transaction, see {@code VaultStore.checkEntryWrite()}. The
+     * rekey metadata values are read in the transaction, so a rekey cannot begin before the write commits.
+     *
+     * @param metadata the metadata values written along with the entries, null if none
+     */
+    private void checkEntryWrite(Map<String, String> metadata) throws SQLException {
+        var rekey = selectMetadata(List.of("rekey_wrapped_data_key", "rekey_owner"));
+        VaultStore.checkEntryWrite(rekey.get("rekey_wrapped_data_key"), rekey.get("rekey_owner"), metadata);
+    }
+
+    @Override
+    public boolean deleteAccount(String accountName) {
+        // An account name rejected by the account name filter is not in the vault.
+        if (!mayExist(accountName))
+            return false;
+
+        // Construct the SQL Statement to delete an account entry.
+        String deleteStmt = "DELETE FROM accounts WHERE account_name = ?";
+
+        var deleted = new boolean[1];
+        inTransaction(conn -> {
+            checkEntryWrite(null);
+
+            PreparedStatement pstmt = prepare(deleteStmt);
+            // Set the corresponding value of the delete statement.
+            pstmt.setString(1, accountName);
+
+            // Execute the delete statement, no row is deleted if the account does not exist in the vault.
+            deleted[0] = pstmt.executeUpdate() > 0;
+        });
+
+        if (!deleted[0]) {
+            countFalsePositive();
+            return false;
+        }
+
+        removeFromAccountNameFilter();
+        return true;
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Get the account name filter, loading it on first use: the stored filter is used if it describes the names
+     * version of the vault and is not full, otherwise the filter is built from the accounts table, sized for twice
+     * the account names in the vault, and stored by {@code close()}. The names version and the account names are
+     * read in one transaction, so the filter matches the names version it records.
+     *
+     * @return the filter, or null if an account name was written through this store while it was loaded; it is
+     *     loaded again by the next lookup
+     */
+    private AccountNameFilter accountNameFilter() {
+        long writes;
+        synchronized (FILTER_LOCK) {
+            if (filter != null)
+                return filter;
+            writes = filterWrites;
+        }
+
+        // Construct the SQL select statements.
+        String selectMetadataStmt =
+                "SELECT id, metadata_value FROM bix_metadata WHERE id IN ('names_version', 'account_name_filter')";
+        String selectNamesStmt = "SELECT account_name FROM accounts";
+
+        var loaded = new AccountNameFilter[1];
+        var rebuilt = new boolean[1];
+        inReadTransaction(conn -> {
+            // The names version is -1 in a vault not migrated to count the account names yet.
+            long namesVersion = -1;
+            AccountNameFilter stored = null;
+            try (ResultSet rs = prepare(selectMetadataStmt).executeQuery()) {
+                while (rs.next()) {
+                    if (rs.getString(1).equals("names_version"))
+                        namesVersion = Long.parseLong(rs.getString(2));
+                    else
+                        stored = AccountNameFilter.fromBytes(rs.getBytes(2));
+                }
+            }
+
+            if (namesVersion >= 0 && stored != null && stored.namesVersion() == namesVersion && !stored.isFull()) {
+                loaded[0] = stored;
+                return;
+            }
+
+            var accountNames = new ArrayList<String>();
+            try (ResultSet rs = prepare(selectNamesStmt).executeQuery()) {
+                while (rs.next()) {
+                    accountNames.add(rs.getString(1));
+                }
+            }
+
+            var built = AccountNameFilter.create(
+                    Math.max(ACCOUNT_NAME_FILTER_MIN_CAPACITY, 2 * accountNames.size()), namesVersion);
+            for (var accountName : accountNames) {
+                built.add(accountName);
+            }
+            loaded[0] = built;
+            rebuilt[0] = namesVersion >= 0;
+        });
+
+        synchronized (FILTER_LOCK) {
+            if (filter == null && filterWrites == writes) {
+                filter = loaded[0];
+                filterDirty = rebuilt[0];
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Check an account name against the account name filter before looking it up in the vault. A name the filter
+     * rejects may have been added by another process since the data version was last checked: the data version is
+     * checked again, and the name is let through to the vault if it moved.
+     *
+     * @return false if the account name is certainly not in the vault, true if it may be
+     */
+    private boolean mayExist(String accountName) {
+        var nameFilter = accountNameFilter();
+        if (nameFilter == null)
+            return true;
+
+        synchronized (FILTER_LOCK) {
+            if (nameFilter.mightContain(accountName))
+                return true;
+        }
+
+        long checkedDataVersion;
+        synchronized (DATA_VERSION_LOCK) {
+            checkedDataVersion = dataVersion;
+        }
+        if (checkDataVersion() != checkedDataVersion)
+            return true;
+
+        synchronized (FILTER_LOCK) {
+            filterRejected++;
+        }
+        return false;
+    }
+
+    /**
+     * Count a lookup of an account name which the account name filter let through, but is not in the vault.
+     */
+    private void countFalsePositive() {
+        synchronized (FILTER_LOCK) {
+            if (filter != null)
+                filterFalsePositives++;
+        }
+    }
+
+    /**
+     * Add account names written to the vault to the account name filter, if it is loaded. A filter which outgrew
+     * its capacity is dropped, and built larger by the next lookup.
+     */
+    private void addToAccountNameFilter(List<String> accountNames) {
+        synchronized (FILTER_LOCK) {
+            filterWrites++;
+            if (filter == null || accountNames.isEmpty())
+                return;
+
+            for (var accountName : accountNames) {
+                filter.add(accountName);
+            }
+            advanceFilterNamesVersion(accountNames.size());
+
+            if (filter.isFull()) {
+                filter = null;
+                filterDirty = false;
+            }
+        }
+    }
+
+    /**
+     * Record an account name deleted from the vault in the account name filter, if it is loaded. A Bloom filter
+     * cannot forget a name, the deleted name stays in it until it is rebuilt.
+     */
+    private void removeFromAccountNameFilter() {
+        synchronized (FILTER_LOCK) {
+            filterWrites++;
+            if (filter != null)
+                advanceFilterNamesVersion(1);
+        }
+    }
+
+    /**
+     * Advance the names version of the account name filter by the number of account names written, the way the
+     * triggers of the accounts table advance the names version of the vault. Must hold FILTER_LOCK.
+     */
+    private void advanceFilterNamesVersion(int changes) {
+        if (filter.namesVersion() < 0)
+            return;
+
+        filter.setNamesVersion(filter.namesVersion() + changes);
+        filterDirty = true;
+    }
+
+    /**
+     * Store the account name filter in the "account_name_filter" metadata value if it describes a names version
+     * which is not stored yet. It is not stored if the names version of the vault moved on meanwhile, e.g. because
+     * another process wrote to the vault: it would be rebuilt anyway.
+     */
+    private void storeAccountNameFilter() {
+        byte[] bytes;
+        long namesVersion;
+        synchronized (FILTER_LOCK) {
+            if (filter == null || !filterDirty)
+                return;
+
+            bytes = filter.toBytes();
+            namesVersion = filter.namesVersion();
+            filterDirty = false;
+        }
+
+        // Construct SQL statement for inserting or replacing the stored filter, only if it is current.
+        String insertStmt = "INSERT OR REPLACE INTO bix_metadata(id,metadata_value) " +
+                "SELECT 'account_name_filter', ? WHERE " +
+                "(SELECT metadata_value FROM bix_metadata WHERE id = 'names_version') = ?";
+
+        try {
+            PreparedStatement pstmt = prepare(insertStmt);
+            // Set the corresponding values of the insert statement.
+            pstmt.setBytes(1, bytes);
+            pstmt.setString(2, String.valueOf(namesVersion));
+
+            // Execute the prepared statement.
+            pstmt.executeUpdate();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public AccountNameFilterStats getAccountNameFilterStats() {
+        var nameFilter = accountNameFilter();
+        synchronized (FILTER_LOCK) {
+            return new AccountNameFilterStats(filterRejected, filterFalsePositives,
+                    nameFilter == null ? Double.NaN : nameFilter.expectedFalsePositiveRate());
+        }
+    }
+
+    /**
+     * Poll the data version of the vault. When the vault was written to, the account name filter is dropped if its
+     * names version is no longer the one of the vault, i.e. if another process wrote account names.
+     */
+    @Override
+    public long checkDataVersion() {
+        long checkedDataVersion;
+        synchronized (DATA_VERSION_LOCK) {
+            // A new connection has no earlier data version to compare with, the vault may have been written to.
+            boolean opened = dataVersionConnection == null || dataVersionConnection.closed;
+            if (opened)
+                dataVersionConnection = openConnection();
+
+            long current;
+            try {
+                var pstmt = dataVersionConnection.statements.get("PRAGMA data_version");
+                if (pstmt == null) {
+                    pstmt = dataVersionConnection.connection.prepareStatement("PRAGMA data_version");
+                    dataVersionConnection.statements.put("PRAGMA data_version", pstmt);
+                }
+
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    rs.next();
+                    current = rs.getLong(1);
+                }
+            }
+            catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+
+            if (!opened && current == lastDataVersion)
+                return dataVersion;
+
+            lastDataVersion = current;
+            checkedDataVersion = ++dataVersion;
+        }
+
+        dropStaleAccountNameFilter();
+        return checkedDataVersion;
+    }
+
+    /**
+     * Drop the account name filter if its names version is not the one of the vault. A write of this process which
+     * is not added to the filter yet drops it as well, it is then loaded again.
+     */
+    private void dropStaleAccountNameFilter() {
+        long filterNamesVersion;
+        synchronized (FILTER_LOCK) {
+            if (filter == null)
+                return;
+            filterNamesVersion = filter.namesVersion();
+        }
+
+        long namesVersion = getNamesVersion();
+
+        synchronized (FILTER_LOCK) {
+            if (filter != null && filter.namesVersion() == filterNamesVersion && filterNamesVersion != namesVersion) {
+                filter = null;
+                filterDirty = false;
+            }
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Add a metadata field to the "bix_metadata" table in the database.
+     *
+     * @param id the metadata id, must be unique
+     * @param value the String value of the metadata
+     */
+    private void addMetadata(String id, String value) {
+        // Construct SQL statement for inserting a new entry.
+        String insertStmt = "INSERT INTO bix_metadata(id,metadata_value) VALUES(?,?)";
+
+        try {
+            PreparedStatement pstmt = prepare(insertStmt);
+            // Set the corresponding values of the insert statement.
+            pstmt.setString(1, id);
+            pstmt.setString(2, value);
+
+            // Execute the prepared statement.
+            pstmt.executeUpdate();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Add a metadata field with a String value to the "bix_metadata" table, unless the field already exists.
+     *
+     * @param id the metadata id
+     * @param value the String value of the metadata
+     */
+    private void addMetadataIfAbsent(String id, String value) {
+        // Construct SQL statement for inserting a new entry, ignored if the id already exists.
+        String insertStmt = "INSERT OR IGNORE INTO bix_metadata(id,metadata_value) VALUES(?,?)";
+
+        try {
+            PreparedStatement pstmt = prepare(insertStmt);
+            // Set the corresponding values of the insert statement.
+            pstmt.setString(1, id);
+            pstmt.setString(2, value);
+
+            // Execute the prepared statement.
+            pstmt.executeUpdate();
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get every metadata value from the "bix_metadata" table in a single query, but the stored account name filter,
+     * which is no String.
+     */
+    @Override
+    public HashMap<String, String> getAllMetadata() {
+        // Construct the SQL select statement.
+        String selectStmt = "SELECT id, metadata_value FROM bix_metadata WHERE id != 'account_name_filter'";
+
+        // HashMap to store the metadata values.
+        var metadata = new HashMap<String, String>();
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+
+            // Execute the select SQL statement and get the result set.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    metadata.put(rs.getString("id"), rs.getString("metadata_value"));
+                }
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+
+        return metadata;
+    }
+
+    @Override
+    public String getMetadata(String id) {
+        // Construct the SQL select statement.
+        String selectStmt = "SELECT metadata_value FROM bix_metadata WHERE id = ?";
+
+        try {
+            PreparedStatement pstmt = prepare(selectStmt);
+            // Set the id field.
+            pstmt.setString(1, id);
+
+            // Execute the select SQL statement and get the result set.
+            try (ResultSet rs = pstmt.executeQuery()) {
+                // Return the metadata value from the ResultSet.
+                return rs.next() ? rs.getString("metadata_value") : null;
+            }
+        }
+        catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Update several metadata values in the "bix_metadata" table in a single transaction.
+     */
+    @Override
+    public void updateMetadata(Map<String, String> values) {
+        inTransaction(conn -> writeMetadata(values));
+    }
+
+    /**
+     * Update several metadata values in the "bix_metadata" table if other values are the expected ones. The
+     * expected values are read in the write transaction, which holds the write lock from its beginning, so no
+     * other session writes between the check and the update.
+     */
+    @Override
+    public boolean compareAndUpdateMetadata(Map<String, String> expected, Map<String, String> values) {
+        var updated = new boolean[1];
+        inTransaction(conn -> {
+            var current = selectMetadata(expected.keySet());
+            for (var value : expected.entrySet()) {
+                if (!Objects.equals(current.get(value.getKey()), value.getValue()))
+                    return;
+            }
+
+            writeMetadata(values);
+            updated[0] = true;
+        });
+        return updated[0];
+    }
+
+    /**
+     * Update several metadata values of the "bix_metadata" table, in the transaction of the calling thread.
+     */
+    private void writeMetadata(Map<String, String> values) throws SQLException {
+        PreparedStatement pstmt = prepare(UPDATE_METADATA_STMT);
+
+        // Set the corresponding values of the update statement for every metadata field.
+        for (var metadata : values.entrySet()) {
+            pstmt.setString(1, metadata.getValue());
+            pstmt.setString(2, metadata.getKey());
+            pstmt.addBatch();
+        }
+
+        // Execute the update statements, they are committed together.
+        pstmt.executeBatch();
+    }
+
+    /**
+     * Get metadata values of the "bix_metadata" table, on the connection of the calling thread.
+     *
+     * @param ids the ids of the metadata values
+     *
+     * @return the values, mapped by id; the ids which do not exist are absent
+     */
+    private HashMap<String, String> selectMetadata(Collection<String> ids) throws SQLException {
+        var metadata = new HashMap<String, String>();
+        if (ids.isEmpty())
+            return metadata;
+
+        // Construct the SQL select statement, with one parameter per id.
+        String selectStmt = "SELECT id, metadata_value FROM bix_metadata WHERE id IN (" +
+                String.join(",", Collections.nCopies(ids.size(), "?")) + ")";
+
+        PreparedStatement pstmt = prepare(selectStmt);
+        int index = 1;
+        for (var id : ids) {
+            pstmt.setString(index++, id);
+        }
+
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                metadata.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return metadata;
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Purges the vault. Drops every table of the database along with the stored account name filter, and deletes
+     * the account name index file.
+     */
+    @Override
+    public void purge() {
+        // Drop the account name filter, it would describe the deleted names.
+        synchronized (FILTER_LOCK) {
+            filterWrites++;
+            filter = null;
+            filterDirty = false;
+        }
+
+        // Delete the search table first, it takes its own shadow tables with it.
+        deleteTable("accounts_fts");
+
+        // Delete tables.
+        for (String table : getTables()) {
+            deleteTable(table);
+        }
+
+        // Delete the account name index file, it would describe the deleted names.
+        var accountNameFilePath = getAccountNameFilePath();
+        if (accountNameFilePath != null) {
+            try {
+                Files.deleteIfExists(accountNameFilePath);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * A group of SQL operations run in a single transaction by {@code inTransaction()}.
+     */
+    @FunctionalInterface
+    private interface Transaction {
+        void run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * A connection to the vault.db database along with the prepared statements cached for it.
+     */
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final HashMap<String, PreparedStatement> statements = new HashMap<>();
+        private volatile boolean closed = false;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Close every cached statement and then the connection.
+         */
+        private void close() {
+            closed = true;
+            try {
+                for (var pstmt : statements.values()) {
+                    pstmt.close();
+                }
+                statements.clear();
+                connection.close();
+            }
+            catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+} // class SqliteVaultStore
@@ -0,0 +1,266 @@
+package bix.utils;
+
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import static bix.utils.Constants.ARCHIVE_CHUNK_SIZE;
+import static bix.utils.Constants.ARCHIVE_FORMAT_VERSION;
+import static bix.utils.Constants.ARCHIVE_MAGIC;
+import static bix.utils.Constants.CIPHER_ALGORITHM;
+import static bix.utils.Constants.GCM_IV_LENGTH;
+import static bix.utils.Constants.GCM_TAG_LENGTH;
+
+/**
+ * The layout and the encryption of a vault archive, the file written by Export Vault.
+ *
+ * An archive is self-describing: it starts with a plaintext header holding everything needed to open it besides
+ * the archive password. All numbers are big-endian.
+ *
+ *   magic "BIXARCHV" (8) | format version (1) | kdf algorithm (1 + length) | kdf iterations (4) |
+ *   kdf memory in KiB (4) | kdf parallelism (4) | salt (1 + length) | nonce prefix (7) | chunk size (4)
+ *
+ * The archive key is derived from the archive password and the salt with the key derivation function of the header.
+ * The header is followed by the chunks: the plaintext is cut into chunks of at most "chunk size" bytes, and every
+ * chunk is encrypted separately with AES-GCM and stored as [CIPHERTEXT LENGTH (4) | CIPHERTEXT | TAG]. Following the
+ * STREAM construction, the nonce of a chunk is [NONCE PREFIX (7) | CHUNK INDEX (4) | FINAL FLAG (1)], and the whole
+ * header is authenticated along with every chunk. A chunk therefore fails decryption if it is modified, reordered,
+ * moved to another archive, or if the header is changed; and an archive cut short lacks the chunk with the final flag.
+ *
+ * The plaintext is a sequence of records, one per account, which may span chunks:
+ *
+ *   account name | associated email | username | password
+ *
+ * Every field is its UTF-8 length (4) followed by its UTF-8 bytes; an absent email has the length -1.
+ */
+public final class VaultArchive {
+    private VaultArchive(){} // Enforce non-instantiability of this class.
+
+    // Bytes added to every chunk: the ciphertext length and the GCM tag.
+    static final int CHUNK_OVERHEAD = Integer.BYTES + GCM_TAG_LENGTH / 8;
+
+    private static final byte[] MAGIC = ARCHIVE_MAGIC.getBytes(StandardCharsets.US_ASCII);
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final int SALT_LENGTH = 16;
+
+    /**
+     * The header of an archive.
+     *
+     * @param kdfParameters the parameters for deriving the archive key from the archive password
+     * @param salt the salt for deriving the archive key
+     * @param noncePrefix the random prefix of every chunk nonce
+     * @param chunkSize the maximum number of plaintext bytes in a chunk
+     * @param bytes the encoded header, as stored in the archive
+     */
+    record Header(KDFParameters kdfParameters, byte[] salt, byte[] noncePrefix, int chunkSize, byte[] bytes) {
+
+        /**
+         * Create the header of a new archive, with a random salt and nonce prefix.
+         *
+         * @param kdfParameters the parameters for deriving the archive key from the archive password
+         *
+         * @return the header
+         */
+        static Header create(KDFParameters kdfParameters) {
+            var random = new SecureRandom();
+            var salt = new byte[SALT_LENGTH];
+            var noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+            random.nextBytes(salt);
+            random.nextBytes(noncePrefix);
+
+            var algorithm = kdfParameters.algorithm().toString().getBytes(StandardCharsets.US_ASCII);
+            var bytes = ByteBuffer.allocate(MAGIC.length + 1 + 1 + algorithm.length + 3 * Integer.BYTES
+                    + 1 + salt.length + NONCE_PREFIX_LENGTH + Integer.BYTES);
+            bytes.put(MAGIC)
+                    .put((byte) ARCHIVE_FORMAT_VERSION)
+                    .put((byte) algorithm.length).put(algorithm)
+                    .putInt(kdfParameters.iterations())
+                    .putInt(kdfParameters.memoryKiB())
+                    .putInt(kdfParameters.parallelism())
+                    .put((byte) salt.length).put(salt)
+                    .put(noncePrefix)
+                    .putInt(ARCHIVE_CHUNK_SIZE);
+
+            return new Header(kdfParameters, salt, noncePrefix, ARCHIVE_CHUNK_SIZE, bytes.array());
+        }
+
+        /**
+         * Read the header at the start of an archive.
+         *
+         * @param channel the archive, positioned at its start
+         *
+         * @return the header
+         *
+         * @throws IOException if the archive cannot be read, or is not an archive of a supported format version
+         */
+        static Header read(ReadableByteChannel channel) throws IOException {
+            var magic = readFully(channel, MAGIC.length + 1);
+            if (!Arrays.equals(magic.array(), 0, MAGIC.length, MAGIC, 0, MAGIC.length))
+                throw new IOException("The file is not a Bix vault archive.");
+            if (magic.get(MAGIC.length) != ARCHIVE_FORMAT_VERSION)
+                throw new IOException("The vault archive was written by an unsupported version of Bix.");
+
+            var algorithm = new String(readFully(channel, readFully(channel, 1).get() & 0xFF).array(),
+                    StandardCharsets.US_ASCII);
+            if (Arrays.stream(KDFAlgorithm.values()).noneMatch(kdf -> kdf.toString().equals(algorithm)))
+                throw new IOException("The vault archive uses an unknown key derivation function: " + algorithm);
+
+            var costs = readFully(channel, 3 * Integer.BYTES);
+            var kdfParameters = new KDFParameters(KDFAlgorithm.fromString(algorithm),
+                    costs.getInt(), costs.getInt(), costs.getInt());
+            var salt = readFully(channel, readFully(channel, 1).get() & 0xFF).array();
+            var noncePrefix = readFully(channel, NONCE_PREFIX_LENGTH).array();
+            int chunkSize = readFully(channel, Integer.BYTES).getInt();
+            if (chunkSize <= 0 || chunkSize > 16 * ARCHIVE_CHUNK_SIZE)
+                throw new IOException("The vault archive header is damaged.");
+
+            var bytes = ByteBuffer.allocate(magic.capacity() + 1 + algorithm.length() + costs.capacity()
+                    + 1 + salt.length + noncePrefix.length + Integer.BYTES);
+            bytes.put(magic.array())
+                    .put((byte) algorithm.length()).put(algorithm.getBytes(StandardCharsets.US_ASCII))
+                    .put(costs.array())
+                    .put((byte) salt.length).put(salt)
+                    .put(noncePrefix)
+                    .putInt(chunkSize);
+
+            return new Header(kdfParameters, salt, noncePrefix, chunkSize, bytes.array());
+        }
+    }
+
+    /**
+     * Check if a file starts like a vault archive.
+     *
+     * @param path the path of the file
+     *
+     * @return true if the file starts with the archive magic
+     */
+    public static boolean isArchive(Path path) {
+        try (var in = Files.newInputStream(path)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Derive the archive key from the archive password.
+     *
+     * @param password the archive password
+     * @param header the archive header
+     *
+     * @return {@code SecretKey} object
+     */
+    static SecretKey deriveKey(char[] password, Header header) {
+        return Crypto.deriveMasterKey(password, header.salt(), header.kdfParameters());
+    }
+
+    /**
+     * Get a new AES-GCM Cipher object for the chunks of an archive.
+     */
+    static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(CIPHER_ALGORITHM, ProviderRegistry.getProvider(CryptoPrimitive.AES_GCM));
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encrypt a chunk and append it, with its length, to the output buffer.
+     *
+     * @param cipher the Cipher object of the archive
+     * @param key the archive key
+     * @param header the archive header
+     * @param index the index of the chunk in the archive
+     * @param last true if this is the last chunk of the archive
+     * @param plaintext the plaintext of the chunk, from its position to its limit; consumed
+     * @param output the output buffer, with room for the plaintext length plus {@link #CHUNK_OVERHEAD} bytes
+     */
+    static void encryptChunk(Cipher cipher, SecretKey key, Header header, int index, boolean last,
+                             ByteBuffer plaintext, ByteBuffer output) {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, nonce(header, index, last));
+            cipher.updateAAD(header.bytes());
+            output.putInt(plaintext.remaining() + GCM_TAG_LENGTH / 8);
+            cipher.doFinal(plaintext, output);
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decrypt the ciphertext of a chunk.
+     *
+     * @param cipher the Cipher object of the archive
+     * @param key the archive key
+     * @param header the archive header
+     * @param index the index of the chunk in the archive
+     * @param last true if the chunk is expected to be the last chunk of the archive
+     * @param ciphertext the ciphertext and tag of the chunk, from its position to its limit; consumed
+     * @param plaintext receives the plaintext of the chunk
+     *
+     * @return false if the chunk fails the integrity check with this final flag
+     */
+    static boolean decryptChunk(Cipher cipher, SecretKey key, Header header, int index, boolean last,
+                                ByteBuffer ciphertext, ByteBuffer plaintext) {
+        int position = ciphertext.position();
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, nonce(header, index, last));
+            cipher.updateAAD(header.bytes());
+            cipher.doFinal(ciphertext, plaintext);
+            return true;
+        }
+        catch (AEADBadTagException e) {
+            ciphertext.position(position);
+            return false;
+        }
+        catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Build the nonce of a chunk: [NONCE PREFIX | CHUNK INDEX | FINAL FLAG].
+     */
+    private static GCMParameterSpec nonce(Header header, int index, boolean last) {
+        var nonce = ByteBuffer.allocate(GCM_IV_LENGTH)
+                .put(header.noncePrefix())
+                .putInt(index)
+                .put((byte) (last ? 1 : 0));
+        return new GCMParameterSpec(GCM_TAG_LENGTH, nonce.array());
+    }
+
+    /**
+     * Read exactly {@code length} bytes from a channel.
+     *
+     * @return a buffer holding the bytes, flipped for reading
+     *
+     * @throws IOException if the channel ends first
+     */
+    static ByteBuffer readFully(ReadableByteChannel channel, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                throw new IOException("The vault archive is incomplete.");
+        }
+        return buffer.flip();
+    }
+
+} // class VaultArchive
@@ -1,26 +1,33 @@
 package bix.utils;
 
+import bix.enums.CipherSuite;
 import bix.exceptions.*;
 
-import java.sql.Statement;
-import java.sql.ResultSet;
-import java.sql.Connection;
-import java.sql.SQLException;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
+import java.nio.file.Path;
 
 import java.util.ArrayList;
-import java.util.Locale;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
-// Path of the vault file in the Resource directory.
-import static bix.utils.Constants.VAULT_RESOURCE_PATH;
+// Path of the vault file.
+import static bix.utils.Constants.DEFAULT_VAULT_PATH;
+
+import static bix.utils.Constants.KDF_VERSION_HKDF;
 
 /**
- * Class to communicate with the SQLite database "vault.db".
- * The database contains 2 tables: "accounts" and "bix_metadata".
- * - accounts table stores the encrypted account credentials.
- * - bix_metadata table stores information critical to Bix operations.
+ * Class to communicate with the vault. The vault holds 2 kinds of data:
+ * - the account entries, which store the encrypted account credentials.
+ * - the metadata values, which store information critical to Bix operations.
+ *
+ * Every operation is forwarded to a {@code VaultStore}, selected by the "vault_store" config property:
+ * - "sqlite": the SQLite database "vault.db" at the vault path (the default), see {@code SqliteVaultStore}.
+ * - "log": an append-only log file "vault.log" next to the vault path, see {@code LogVaultStore}.
+ * - "memory": held in memory only, gone once Bix exits, see {@code MemoryVaultStore}.
  */
 
 /* Note:
@@ -31,26 +38,25 @@ import static bix.utils.Constants.VAULT_RESOURCE_PATH;
  * essentially referring to the "accounts" table inside the "vault.db" database.
  */
 
-/* Columns in the vault database's "accounts" table:
- * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+
- * | [0]          | [1]          | [2]          | [3]          | [4]          | [5]          | [6]          |
- * |--------------|--------------|--------------|--------------|--------------|--------------|--------------|
- * | account_name | email        | ciphertext_u | ciphertext_p | salt         | iv           | secret_hash  |
- * +--------------+--------------+--------------+--------------+--------------+--------------+--------------+
- * ciphertext_u is the encrypted username
- * ciphertext_p is the encrypted password
- * secret_hash is the SHA256 hash of the secret key (which is generated using thr master password and the salt)
- */
-
 public final class VaultController {
-    /* Note:
-     * To connect to an embedded database in a regular Java project the url would look like:
-     * "jdbc:sqlite:path/to/vault.db"
-     *
-     * To connect to an embedded database in the resource folder of a Gradle project:
-     * "jdbc:sqlite::resource:vault.db"
-     */
-    private static final String URL = String.format("jdbc:sqlite::resource:%s", VAULT_RESOURCE_PATH);
+    // Pragmas applied to every new SQLite connection, unless overridden by the "sqlite_pragmas" config property.
+    private static final String DEFAULT_SQLITE_PRAGMAS =
+            "journal_mode=WAL;synchronous=NORMAL;mmap_size=268435456;cache_size=-8192;temp_store=MEMORY";
+
+    private static volatile String sqlitePragmas = Config.getString("sqlite_pragmas", DEFAULT_SQLITE_PRAGMAS);
+
+    // The store holding the vault, null until it is first used, see store().
+    private static volatile VaultStore store = null;
+
+    // Search index over the account names, null until it is loaded. Kept up to date by addAccount and deleteAccount.
+    private static volatile AccountNameIndex nameIndex = null;
+
+    // Names version of the vault the account name search index describes, -1 if the store keeps none. Advanced
+    // along with the index by addAccount and deleteAccount.
+    private static long nameIndexVersion = -1;
+
+    // Data version of the vault at the last refresh(), see VaultStore.checkDataVersion().
+    private static long dataVersion = 0;
 
 
     //--------------------
@@ -60,14 +66,28 @@ public final class VaultController {
      * Performs the initial vault setup. Used during initial Bix setup.
      */
     public static void setupVault() {
-        // Clean up any junk data in the vault database.
-        purgeVault();
+        // Clean up any junk data in the vault, and create an empty vault with the default metadata values.
+        nameIndex = null;
+        store().setup();
+    }
 
-        // Create the bix_metadata table if it does not already exist.
-        createMetadataTable();
+    /**
+     * Brings a vault created by an older version of Bix up to the current schema. Safe to run on every start.
+     *
+     * The SHA-256 hash of the Master Password stored by older versions is cleared once the vault has a wrapped data
+     * key, which checks the Master Password instead. A vault without one still needs the hash, it is cleared when
+     * its data key is first wrapped.
+     */
+    public static void migrateVault() {
+        var vaultStore = store();
+        vaultStore.migrate();
 
-        // Create the accounts table if it does not already exist.
-        createAccountsTable();
+        if (vaultStore.getMetadata("wrapped_data_key") != null
+                && vaultStore.getMetadata("master_password_hash") != null) {
+            var metadata = new HashMap<String, String>();
+            metadata.put("master_password_hash", null);
+            vaultStore.updateMetadata(metadata);
+        }
     }
 
 
@@ -75,162 +95,128 @@ public final class VaultController {
 
 
     /**
-     * Connect to the vault.db database.
-     *
-     * @return the Connection object
+     * Get the store holding the vault, opening the store selected by the "vault_store" config property on first
+     * use. An unknown store falls back to the SQLite store.
      */
-    private static Connection connect() {
-        Connection conn;
-        try {
-            conn = DriverManager.getConnection(URL);
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
+    private static VaultStore store() {
+        var current = store;
+        if (current != null)
+            return current;
+
+        synchronized (VaultController.class) {
+            if (store == null) {
+                store = switch (Config.getString("vault_store", "sqlite")) {
+                    case "memory" -> new MemoryVaultStore();
+                    case "log" -> new LogVaultStore(getVaultLogPath(),
+                            Config.getInt("vault_log_sync_delay_ms", 0));
+                    default -> SqliteVaultStore.open(getVaultPath(), sqlitePragmas);
+                };
+            }
+            return store;
         }
-        return conn;
     }
 
     /**
-     * Checks if the vault file exists and is accessible.
+     * Point the VaultController at another store, closing the current one.
+     * Used by the benchmarks to compare the stores, and by ephemeral sessions with a {@code MemoryVaultStore}.
      *
-     * @return true if the vault.db file is accessible
+     * @param vaultStore the store holding the vault
      */
-    public static boolean vaultExists() {
-        // Connect to the database.
-        try (Connection conn = DriverManager.getConnection(URL)) {
-            // If the connection is successful, a non-null value is returned.
-            if (conn != null) {
-                return true;
-            }
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-        return false;
+    public static synchronized void setStore(VaultStore vaultStore) {
+        close();
+        store = vaultStore;
     }
 
     /**
-     * Get the number of entries in the vault.
-     *
-     * @return an int value
+     * Close every resource held by the store, and drop the account name index. The next operation on any thread
+     * opens the store again.
      */
-    public static int getVaultSize() {
-        int numberOfEntries;
-
-        // Construct SQL statement to count entries in the "accounts" table.
-        String countStmt = "SELECT count(*) FROM accounts";
-
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
-
-            // Execute the SQL query to count the number of entries.
-            ResultSet rs = stmt.executeQuery(countStmt);
-
-            // rs will contain one int value, which is the number of entries in the vault.
-            numberOfEntries = rs.getInt(1);
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    public static void close() {
+        nameIndex = null;
 
-        return numberOfEntries;
+        var current = store;
+        if (current != null)
+            current.close();
     }
 
-
-    //--------------------
-
-
     /**
-     * Create the accounts table in the database. Used during initial Bix setup.
+     * Release the resources the calling thread holds in the store, e.g. its SQLite connection.
+     * Used by threads which end before Bix does.
      */
-    private static void createAccountsTable() {
-        // Construct SQL Statement for creating the "accounts" table.
-        String createTableStmt = """
-                CREATE TABLE IF NOT EXISTS accounts (
-                	account_name TEXT PRIMARY KEY,
-                	associated_email TEXT,
-                	ciphertext_u TEXT NOT NULL,
-                	ciphertext_p TEXT NOT NULL,
-                	salt TEXT NOT NULL,
-                	iv TEXT NOT NULL,
-                	secret_hash TEXT NOT NULL
-                );""";
+    public static void closeConnection() {
+        var current = store;
+        if (current != null)
+            current.releaseThread();
+    }
 
-        // Open connection.
-        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
-            // Execute the SQL statement to create the "accounts" table.
-            stmt.execute(createTableStmt);
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Point the VaultController at another SQLite database, closing the current store.
+     * Used by the benchmarks to run against a temporary database.
+     *
+     * @param url the JDBC URL of the database
+     */
+    static void setURL(String url) {
+        setStore(new SqliteVaultStore(url, sqlitePragmas));
     }
 
     /**
-     * Create the bix_metadata table in the database. Used during initial Bix setup.
+     * Replace the connection pragmas set by the "sqlite_pragmas" config property, closing the current store.
+     * Used by the benchmarks to compare pragmas.
+     *
+     * @param pragmas the pragmas, in the format of the "sqlite_pragmas" config property
      */
-    private static void createMetadataTable() {
-        // Construct SQL Statement for creating the "bix_metadata" table.
-        String createTableStmt = """
-                CREATE TABLE IF NOT EXISTS bix_metadata (
-                	id TEXT PRIMARY KEY,
-                	metadata_value TEXT
-                );""";
+    static synchronized void setPragmas(String pragmas) {
+        sqlitePragmas = pragmas;
+        if (store instanceof SqliteVaultStore sqlite)
+            setStore(new SqliteVaultStore(sqlite.url(), pragmas));
+    }
 
-        // Open connection.
-        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
-            // Execute the SQL statement to create the "bix_metadata" table.
-            stmt.execute(createTableStmt);
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Get the path of the vault file, set by the "vault_path" config property. A leading "~" stands for the user's
+     * home directory.
+     *
+     * @return the absolute path of the vault file
+     */
+    public static Path getVaultPath() {
+        var vaultPath = Config.getString("vault_path", DEFAULT_VAULT_PATH);
+        if (vaultPath.equals("~") || vaultPath.startsWith("~/"))
+            vaultPath = System.getProperty("user.home") + vaultPath.substring(1);
 
-        // Add the metadata fields with default values.
-        addMetadata("setup_complete", "false");
-        addMetadata("master_password_hash", null);
-        addMetadata("aes_flavor", 256);
-        addMetadata("idle_session_timeout", 300);
-        addMetadata("credential_display_duration", 30);
-        addMetadata("failed_login_attempts", 0);
+        return Path.of(vaultPath).toAbsolutePath();
     }
 
     /**
-     * Deletes a table from the SQLite database.
+     * Get the path of the log file of the "log" store: the vault path with the extension ".log".
      *
-     * @param tableName the name of the table to delete from the database
+     * @return the absolute path of the log file
      */
-    public static void deleteTable(String tableName) {
-        // Construct the SQL statement to delete a table if it exists.
-        String deleteTableStmt = String.format("DROP TABLE IF EXISTS %s", tableName);
+    public static Path getVaultLogPath() {
+        var vaultPath = getVaultPath();
+        var fileName = vaultPath.getFileName().toString();
+        if (fileName.endsWith(".db"))
+            fileName = fileName.substring(0, fileName.length() - ".db".length());
 
-        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
-            stmt.execute(deleteTableStmt);
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        return vaultPath.resolveSibling(fileName + ".log");
     }
 
     /**
-     * Get a list of all the tables in the database.
+     * Get the number of entries in the vault.
+     *
+     * @return an int value
      */
-    public static ArrayList<String> getTables() {
-        // ArrayList to store the tables.
-        ArrayList<String> tables = new ArrayList<>();
-
-        try (Connection conn = connect()) {
-            ResultSet rs = conn.getMetaData().getTables(null, null, null, null);
-            while (rs.next()) {
-                // Add the table to the list.
-                tables.add(rs.getString("TABLE_NAME"));
-            }
+    public static int getVaultSize() {
+        return store().size();
+    }
 
-            return tables;
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Get the number of entries in the vault whose account name sorts after {@code accountName}.
+     *
+     * @param accountName the account name to count from, exclusive
+     *
+     * @return an int value
+     */
+    public static int getVaultSizeAfter(String accountName) {
+        return store().sizeAfter(accountName);
     }
 
 
@@ -243,68 +229,180 @@ public final class VaultController {
      * @return an ArrayList containing the account names
      */
     public static ArrayList<String> getAccountNames() {
-        // Construct SQL statement to select all the account names from the accounts table.
-        String selectAccNamesStmt = "SELECT account_name FROM accounts";
-
-        // ArrayList to store the account names.
-        ArrayList<String> accountNames = new ArrayList<>();
-
-        try (Connection conn = connect();
-             Statement stmt = conn.createStatement()) {
-
-            // Execute the SQL query to select all the account names.
-            ResultSet rs = stmt.executeQuery(selectAccNamesStmt);
+        return store().getAccountNames();
+    }
 
-            // Loop through every value in the result set and get the account names.
-            while (rs.next()) {
-                // Add the account name to the array.
-                accountNames.add(rs.getString(1));
-            }
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Get the next page of account names in alphabetical order. Every page starts after the last account name of
+     * the previous page, so a page costs the same wherever it is in the vault.
+     *
+     * @param accountName the account name to start after, exclusive; an empty String starts at the first name
+     * @param limit the maximum number of account names to retrieve
+     *
+     * @return a list containing up to {@code limit} account names, empty once the end of the vault is reached
+     */
+    public static ArrayList<String> getAccountNamesAfter(String accountName, int limit) {
+        return store().getAccountNamesAfter(accountName, limit);
+    }
 
-        return accountNames;
+    /**
+     * Stream the account names of all the entries in the vault in alphabetical order, one page of
+     * {@code pageSize} names at a time (see {@code getAccountNamesAfter()}). A page is only retrieved once the
+     * stream reaches it, and no cursor is held open between pages, so the stream can be consumed at any pace and
+     * abandoned at any point.
+     *
+     * @param pageSize the number of account names retrieved at once
+     *
+     * @return a sequential stream of the account names
+     */
+    public static Stream<String> streamAccountNames(int pageSize) {
+        return Stream.iterate(getAccountNamesAfter("", pageSize), page -> !page.isEmpty(),
+                        page -> page.size() < pageSize
+                                ? new ArrayList<>()
+                                : getAccountNamesAfter(page.get(page.size() - 1), pageSize))
+                .flatMap(List::stream);
     }
 
     /**
-     * Get a list of all the Account Names containing a particular keyword.
+     * Get a list of all the Account Names containing a particular keyword, ignoring case. The search is answered
+     * by the in-memory account name index, see {@code AccountNameIndex}.
      *
      * @param keyword the keyword to search for
      *
-     * @return a list containing account names
+     * @return a list containing account names, in alphabetical order
      */
     public static ArrayList<String> getAccountNamesContaining(String keyword) {
-        // Convert the keyword to uppercase to perform a case-insensitive search.
-        keyword = keyword.toUpperCase(Locale.ROOT);
-
-        // Construct SQL statement to select all the account names from the accounts table.
-        String selectAccNamesStmt = "SELECT account_name FROM accounts WHERE UPPER(account_name) LIKE '%?%'";
+        return accountNameIndex().search(keyword);
+    }
 
-        // ArrayList to store the account names.
-        ArrayList<String> accountNames = new ArrayList<>();
+    /**
+     * Build the account name search index from the account names in the vault, replacing the current one.
+     * The index is otherwise built by the first search.
+     */
+    public static synchronized void loadAccountNameIndex() {
+        var vaultStore = store();
+        long namesVersion = vaultStore instanceof AccountNameFileStore fileStore
+                && fileStore.getAccountNameFilePath() != null ? fileStore.getNamesVersion() : -1;
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(selectAccNamesStmt)) {
+        nameIndex = new AccountNameIndex(readAccountNames(vaultStore, namesVersion));
+        nameIndexVersion = namesVersion;
+    }
 
-            // Set the corresponding values of the select statement.
-            pstmt.setString(1, keyword);
+    /**
+     * Check if another Bix session wrote to the vault since the last check, and drop the account name search index
+     * if the account names changed meanwhile; it is built again by the next search. Only the data version of the
+     * vault is read, and the names version if the data version moved.
+     *
+     * @return the data version of the vault, which moves when the vault was written to, see
+     *     {@code VaultStore.checkDataVersion()}
+     */
+    public static synchronized long refresh() {
+        var vaultStore = store();
+        long current = vaultStore.checkDataVersion();
+        if (current != dataVersion) {
+            dataVersion = current;
+
+            // The writes of this session advanced the names version of the index along with the one of the vault.
+            if (nameIndex != null && (nameIndexVersion < 0 || !(vaultStore instanceof AccountNameFileStore fileStore)
+                    || fileStore.getNamesVersion() != nameIndexVersion))
+                nameIndex = null;
+        }
+        return current;
+    }
 
-            // Execute the select SQL statement and get the result set.
-            ResultSet rs = pstmt.executeQuery();
+    /**
+     * Build the account name search index on a background thread, so it is ready by the time the master password
+     * is entered. A search made before it is ready waits for it.
+     */
+    public static void preloadAccountNameIndex() {
+        var thread = new Thread(() -> {
+            try {
+                accountNameIndex();
+            }
+            catch (RuntimeException e) {
+                // The index is built again by the first search.
+            }
+            finally {
+                closeConnection();
+            }
+        }, "bix-name-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-            // Loop through every value in the result set and get the account names.
-            while (rs.next()) {
-                // Add the account name to the array.
-                accountNames.add(rs.getString(1));
+    /**
+     * Get the account names to build the account name search index from. With a store which keeps an account name
+     * index file next to the vault (see {@code AccountNameFile}), the names are read from the file instead:
+     * - if the names version of the file is the one of the vault, the file is current and is used as it is.
+     * - if the names were only added to since, the rows after the last row of the file are read from the vault
+     *   and added to the file.
+     * - otherwise, e.g. after a deletion, the file is written again from every row of the vault.
+     *
+     * The names version is read before the rows, so a name added meanwhile by another process makes the file look
+     * stale at the next start rather than current.
+     *
+     * @param namesVersion the names version of the vault, -1 if the store keeps no account name index file
+     */
+    private static Collection<String> readAccountNames(VaultStore vaultStore, long namesVersion) {
+        if (namesVersion < 0 || !(vaultStore instanceof AccountNameFileStore fileStore))
+            return vaultStore.getAccountNames();
+
+        var path = fileStore.getAccountNameFilePath();
+
+        var file = AccountNameFile.load(path);
+        if (file != null) {
+            // The last row of the file must still be in the vault, the rows after it are the names added since.
+            var rows = fileStore.getAccountNamesFromRow(file.lastRowId());
+            boolean sameLastRow = file.lastRowName() == null
+                    || file.lastRowName().equals(rows.remove(file.lastRowId()));
+
+            if (sameLastRow && namesVersion - file.namesVersion() == rows.size()) {
+                if (rows.isEmpty())
+                    return file.names();
+
+                var accountNames = file.rows();
+                rows.forEach((rowId, accountName) -> accountNames.put(accountName, rowId));
+                AccountNameFile.write(path, namesVersion, accountNames);
+                return accountNames.keySet();
             }
         }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
+
+        var accountNames = new TreeMap<String, Long>();
+        fileStore.getAccountNamesFromRow(0).forEach((rowId, accountName) -> accountNames.put(accountName, rowId));
+        AccountNameFile.write(path, namesVersion, accountNames);
+        return accountNames.keySet();
+    }
+
+    /**
+     * Get the account name search index, building it if it is not loaded.
+     */
+    private static AccountNameIndex accountNameIndex() {
+        var index = nameIndex;
+        if (index == null) {
+            synchronized (VaultController.class) {
+                if (nameIndex == null)
+                    loadAccountNameIndex();
+                index = nameIndex;
+            }
         }
+        return index;
+    }
 
-        return accountNames;
+    /**
+     * Full-text search over the account names and associated emails, using the FTS5 query syntax: words match
+     * whole tokens, {@code git*} matches a prefix, {@code "two words"} matches a phrase, and terms can be combined
+     * with AND, OR and NOT (terms are combined with AND by default). The SQLite store ranks the matches with bm25,
+     * best first; the other stores list them in account name order.
+     *
+     * @param query the full-text query
+     * @param limit the maximum number of account names to return
+     *
+     * @return the matching account names, best match first
+     *
+     * @throws InvalidSearchQueryException if the query is not valid FTS5 query syntax
+     */
+    public static ArrayList<String> searchAccounts(String query, int limit) throws InvalidSearchQueryException {
+        return store().searchAccounts(query, limit);
     }
 
     /**
@@ -315,11 +413,12 @@ public final class VaultController {
      * @return true if the account name exists in the vault
      */
     public static boolean accountExists(String accountName) {
-        return getAccountNames().contains(accountName);
+        return store().accountExists(accountName);
     }
 
     /**
-     * Add an account entry to the vault.
+     * Add an account entry to the vault. The entry is stored in the current format (authenticated cipher suite,
+     * kdf version 2).
      *
      * @param accountName the account name
      * @param associatedEmail the email associated with the account, can be null
@@ -327,80 +426,63 @@ public final class VaultController {
      * @param ciphertextPassword the ciphertext containing the encrypted password
      * @param salt the salt used for encrypting ciphertext
      * @param iv the initialization vector used for encrypting ciphertext
-     * @param secretHash secret hash of the secret key
+     * @param cipherSuite the cipher suite used for encrypting ciphertext
      */
     public static void addAccount(
-            String accountName, String associatedEmail, String ciphertextUsername, String ciphertextPassword,
-            String salt, String iv, String secretHash)
+            String accountName, String associatedEmail, byte[] ciphertextUsername, byte[] ciphertextPassword,
+            byte[] salt, byte[] iv, CipherSuite cipherSuite)
             throws AccountAlreadyExistsException {
 
-        // If the account name already exists in the vault, raise an error.
-        if (accountExists(accountName))
-            throw new AccountAlreadyExistsException(accountName);
-
-        // Construct SQL statement for inserting a new entry.
-        String insertStmt = "INSERT INTO " +
-                "accounts(account_name,associated_email,ciphertext_u,ciphertext_p,salt,iv,secret_hash) " +
-                "VALUES(?,?,?,?,?,?,?)";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(insertStmt)) {
-            // Set the corresponding values of the insert statement.
-            pstmt.setString(1, accountName);
-            pstmt.setString(2, Objects.requireNonNullElse(associatedEmail, "nil"));
-            pstmt.setString(3, ciphertextUsername);
-            pstmt.setString(4, ciphertextPassword);
-            pstmt.setString(5, salt);
-            pstmt.setString(6, iv);
-            pstmt.setString(7, secretHash);
-
-            // Execute the prepared statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        store().addAccount(new AccountEntry(accountName, Objects.requireNonNullElse(associatedEmail, "nil"),
+                ciphertextUsername, ciphertextPassword, salt, iv, null, KDF_VERSION_HKDF, cipherSuite));
+
+        addToAccountNameIndex(List.of(accountName), 1);
     }
 
     /**
-     * Retrieve an Account entry.
+     * Add a batch of account entries to the vault, all at once. The entries are stored with the kdf version and
+     * cipher suite they carry. An entry whose account name already exists in the vault is not written, the existing
+     * entry is left untouched.
      *
-     * @param accountName the account to retrieve from the vault
+     * @param entries the entries to add
      *
-     * @return a String[] containing the account information
+     * @return the account names of the entries which were not written, because they already exist in the vault
      */
-    public static String[] retrieveAccount(String accountName) throws AccountNotFoundException {
-        // Return null if the account does not exist in the vault.
-        if (!accountExists(accountName))
-            throw new AccountNotFoundException(accountName);
-
-        // Construct the SQL select statement.
-        String selectStmt = "SELECT * FROM accounts WHERE account_name = ?";
+    public static ArrayList<String> addAccounts(List<AccountEntry> entries) {
+        var existing = store().addAccounts(withStoredEmails(entries));
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(selectStmt)) {
-            // Set the accountName field.
-            pstmt.setString(1, accountName);
+        addToAccountNameIndex(entries.stream().map(AccountEntry::accountName).toList(),
+                entries.size() - existing.size());
+        return existing;
+    }
 
-            // Execute the select SQL statement and get the result set.
-            ResultSet rs = pstmt.executeQuery();
+    /**
+     * Retrieve an Account entry.
+     *
+     * @param accountName the account to retrieve from the vault
+     *
+     * @return an {@code AccountEntry} containing the account information
+     */
+    public static AccountEntry retrieveAccount(String accountName) throws AccountNotFoundException {
+        return store().retrieveAccount(accountName);
+    }
 
-            // Unpack the ResultSet into a String array.
-            return new String[] {rs.getString("account_name"),
-                    rs.getString("associated_email"),
-                    rs.getString("ciphertext_u"),
-                    rs.getString("ciphertext_p"),
-                    rs.getString("salt"),
-                    rs.getString("iv"),
-                    rs.getString("secret_hash")};
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Retrieve the next page of Account entries in account name order. Used to stream through the whole vault
+     * without loading it into memory: every page starts after the last account name of the previous page.
+     *
+     * @param accountName the account name to start after, exclusive; an empty String starts at the first entry
+     * @param limit the maximum number of entries to retrieve
+     *
+     * @return a list containing up to {@code limit} entries, empty once the end of the vault is reached
+     */
+    public static ArrayList<AccountEntry> retrieveAccountsAfter(String accountName, int limit) {
+        return store().retrieveAccountsAfter(accountName, limit);
     }
 
     /**
-     * Update an existing account entry in the vault.
+     * Update an existing account entry in the vault. The entry is stored in the current format (authenticated
+     * cipher suite, kdf version 2), which also makes this the lazy migration path for legacy AES-CBC entries.
      *
      * @param accountName the account name (primary key in the database)
      * @param associatedEmail the email associated with the account, can be null
@@ -408,229 +490,170 @@ public final class VaultController {
      * @param ciphertextPassword the ciphertext containing the encrypted password
      * @param salt the new salt used for encrypting ciphertext
      * @param iv the new initialization vector used for encrypting ciphertext
-     * @param secretHash the updated secret hash of the secret key
+     * @param cipherSuite the cipher suite used for encrypting ciphertext
      */
     public static void updateAccount(
-            String accountName, String associatedEmail, String ciphertextUsername, String ciphertextPassword,
-            String salt, String iv, String secretHash)
+            String accountName, String associatedEmail, byte[] ciphertextUsername, byte[] ciphertextPassword,
+            byte[] salt, byte[] iv, CipherSuite cipherSuite)
             throws AccountNotFoundException {
 
-        // Exit function if the account does not exist in the vault.
-        if (!accountExists(accountName))
-            throw new AccountNotFoundException(accountName);
-
-        // Construct SQL statement to update an account entry.
-        String updateStmt = """
-                UPDATE accounts
-                SET associated_email = ?,
-                ciphertext_u = ?,
-                ciphertext_p = ?,
-                salt = ?,
-                iv = ?,
-                secret_hash = ?
-                WHERE account_name = ?;""";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(updateStmt)) {
-
-            // Set the corresponding values of the update statement.
-            pstmt.setString(1, Objects.requireNonNullElse(associatedEmail, "nil"));
-            pstmt.setString(2, ciphertextUsername);
-            pstmt.setString(3, ciphertextPassword);
-            pstmt.setString(4, salt);
-            pstmt.setString(5, iv);
-            pstmt.setString(6, secretHash);
-            pstmt.setString(7, accountName);
-
-            // Execute the update statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        store().updateAccount(new AccountEntry(accountName, Objects.requireNonNullElse(associatedEmail, "nil"),
+                ciphertextUsername, ciphertextPassword, salt, iv, null, KDF_VERSION_HKDF, cipherSuite));
+    }
+
+    /**
+     * Update a batch of existing account entries, along with metadata values, all at once. Either every entry and
+     * metadata value is written or none is, so the metadata can record how far a bulk operation got.
+     * The entries are stored with the kdf version and cipher suite they carry.
+     *
+     * @param entries the entries to update, matched by account name
+     * @param metadata the metadata values to update, mapped by id
+     */
+    public static void updateAccounts(List<AccountEntry> entries, Map<String, String> metadata) {
+        store().updateAccounts(withStoredEmails(entries), metadata);
     }
 
     /**
      * Delete an account entry from the vault.
      *
      * @param accountName name of the account to delete from the vault
+     *
+     * @return true if the entry was deleted, false if the account does not exist in the vault
      */
-    public static void deleteAccount(String accountName) {
-        // Exit function if the account does not exist in the vault.
-        if (!accountExists(accountName))
-            return;
-
-        // Construct the SQL Statement to delete an account entry.
-        String deleteStmt = "DELETE FROM accounts WHERE account_name = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(deleteStmt)) {
+    public static boolean deleteAccount(String accountName) {
+        if (!store().deleteAccount(accountName))
+            return false;
 
-            // Set the corresponding value of the delete statement.
-            pstmt.setString(1, accountName);
-
-            // Execute the delete statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        removeFromAccountNameIndex(accountName);
+        return true;
     }
 
-
-    //--------------------
-
-
     /**
-     * Add a metadata field with a String value to the "bix_metadata" table in the database.
+     * Add account names written to the vault to the account name search index, if it is loaded. The index is updated
+     * under the class lock, so a name written while the index is being loaded is added once it is loaded.
      *
-     * @param id the metadata id, must be unique
-     * @param value the String value of the metadata
+     * @param accountNames the account names written, some may have been in the vault already
+     * @param added the number of account names which were not in the vault, by which the names version advanced
      */
-    private static void addMetadata(String id, String value) {
-        // Construct SQL statement for inserting a new entry.
-        String insertStmt = "INSERT INTO bix_metadata(id,metadata_value) VALUES(?,?)";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(insertStmt)) {
-            // Set the corresponding values of the insert statement.
-            pstmt.setString(1, id);
-            pstmt.setString(2, value);
-
-            // Execute the prepared statement.
-            pstmt.executeUpdate();
+    private static synchronized void addToAccountNameIndex(List<String> accountNames, int added) {
+        var index = nameIndex;
+        if (index != null) {
+            for (var accountName : accountNames) {
+                index.add(accountName);
+            }
+            if (nameIndexVersion >= 0)
+                nameIndexVersion += added;
         }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
+    }
+
+    /**
+     * Remove an account name deleted from the vault from the account name search index, if it is loaded.
+     */
+    private static synchronized void removeFromAccountNameIndex(String accountName) {
+        var index = nameIndex;
+        if (index != null) {
+            index.remove(accountName);
+            if (nameIndexVersion >= 0)
+                nameIndexVersion++;
         }
     }
 
     /**
-     * Add a metadata field with integer value to the "bix_metadata" table in the database.
+     * Replace the absent associated emails of entries with "nil", the way the vault stores them.
      *
-     * @param id the metadata id, must be unique
-     * @param value the integer value of the metadata
+     * @return the entries, copied only if one of them has no associated email
      */
-    private static void addMetadata(String id, int value) {
-        // Construct SQL statement for inserting a new entry.
-        String insertStmt = "INSERT INTO bix_metadata(id,metadata_value) VALUES(?,?)";
+    private static List<AccountEntry> withStoredEmails(List<AccountEntry> entries) {
+        if (entries.stream().allMatch(entry -> entry.associatedEmail() != null))
+            return entries;
+
+        return entries.stream()
+                .map(entry -> entry.associatedEmail() != null ? entry : new AccountEntry(entry.accountName(), "nil",
+                        entry.ciphertextUsername(), entry.ciphertextPassword(), entry.salt(), entry.iv(),
+                        entry.secretHash(), entry.kdfVersion(), entry.cipherSuite()))
+                .toList();
+    }
 
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(insertStmt)) {
-            // Set the corresponding values of the insert statement.
-            pstmt.setString(1, id);
-            pstmt.setInt(2, value);
 
-            // Execute the prepared statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    //--------------------
+
+
+    /**
+     * Get every metadata value of the vault at once.
+     *
+     * @return the metadata values, mapped by id
+     */
+    public static HashMap<String, String> getAllMetadata() {
+        return store().getAllMetadata();
     }
 
     /**
-     * Get a String metadata value from the "bix_metadata" table.
+     * Get a String metadata value.
      *
      * @param id the id of the metadata
      *
      * @return a String metadata value
      */
     public static String getStrMetadata(String id) {
-        // Construct the SQL select statement.
-        String selectStmt = "SELECT value FROM bix_metadata WHERE id = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(selectStmt)) {
-            // Set the id field.
-            pstmt.setString(1, id);
-
-            // Execute the select SQL statement and get the result set.
-            ResultSet rs = pstmt.executeQuery();
-
-            // Return the metadata value from the ResultSet.
-            return rs.getString("metadata_value");
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        return store().getMetadata(id);
     }
 
     /**
-     * Get an integer metadata value from the "bix_metadata" table.
+     * Get an integer metadata value.
      *
      * @param id the id of the metadata
      *
-     * @return an integer metadata value
+     * @return an integer metadata value, 0 if it is unset
      */
     public static int getIntMetadata(String id) {
-        // Construct the SQL select statement.
-        String selectStmt = "SELECT value FROM bix_metadata WHERE id = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(selectStmt)) {
-            // Set the id field.
-            pstmt.setString(1, id);
-
-            // Execute the select SQL statement and get the result set.
-            ResultSet rs = pstmt.executeQuery();
-
-            // Return the metadata value from the ResultSet.
-            return rs.getInt("metadata_value");
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        var value = store().getMetadata(id);
+        return value == null ? 0 : Integer.parseInt(value);
     }
 
     /**
-     * Update a String metadata value in the "bix_metadata" table.
+     * Update a String metadata value.
      *
      * @param id the id of the metadata
      * @param value the new metadata value
      */
     public static void updateMetadata(String id, String value) {
-        // Construct SQL statement to update an entry.
-        String updateStmt = "UPDATE bix_metadata SET value = ? WHERE id = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(updateStmt)) {
-
-            // Set the corresponding values of the update statement.
-            pstmt.setString(1, value);
-            pstmt.setString(2, id);
-
-            // Execute the update statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+        var values = new HashMap<String, String>();
+        values.put(id, value);
+        store().updateMetadata(values);
     }
 
     /**
-     * Update an integer metadata value in the "bix_metadata" table.
+     * Update an integer metadata value.
      *
      * @param id the id of the metadata
      * @param value the new metadata value
      */
     public static void updateMetadata(String id, int value) {
-        // Construct SQL statement to update an entry.
-        String updateStmt = "UPDATE bix_metadata SET value = ? WHERE id = ?";
-
-        try (Connection conn = connect();
-             PreparedStatement pstmt = conn.prepareStatement(updateStmt)) {
+        store().updateMetadata(Map.of(id, String.valueOf(value)));
+    }
 
-            // Set the corresponding values of the update statement.
-            pstmt.setInt(1, value);
-            pstmt.setString(2, id);
+    /**
+     * Update several String metadata values at once, they are written together.
+     * Used for metadata values which are only valid together, e.g. the master key salt and the wrapped data key.
+     *
+     * @param values the new metadata values, mapped by id
+     */
+    public static void updateMetadata(Map<String, String> values) {
+        store().updateMetadata(values);
+    }
 
-            // Execute the update statement.
-            pstmt.executeUpdate();
-        }
-        catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Update several String metadata values at once if other metadata values are the expected ones, checked in the
+     * same transaction as the write. Used for the metadata values other Bix sessions may write meanwhile, e.g. the
+     * rekey lease.
+     *
+     * @param expected the expected metadata values, mapped by id; null for an unset value
+     * @param values the new metadata values, mapped by id
+     *
+     * @return true if the values were written, false if a metadata value was not the expected one
+     */
+    public static boolean compareAndUpdateMetadata(Map<String, String> expected, Map<String, String> values) {
+        return store().compareAndUpdateMetadata(expected, values);
     }
 
 
@@ -638,15 +661,13 @@ public final class VaultController {
 
 
     /**
-     * Purges the vault. Deletes all the contents of the database.
+     * Purges the vault. Deletes all the contents of the vault.
      * This function is reserved for destroying the Bix vault at the user's request.
      * Unsurprisingly, this process is irreversible.
      */
     public static void purgeVault() {
-        // Delete tables.
-        for (String table : getTables()) {
-            deleteTable(table);
-        }
+        nameIndex = null;
+        store().purge();
     }
 
 } // class VaultController
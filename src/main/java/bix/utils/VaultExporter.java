@@ -0,0 +1,259 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.EntryAuthenticationFailedException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+import static bix.utils.Constants.EXPORT_BATCH_SIZE;
+
+/**
+ * Exports the vault into a vault archive (see {@code VaultArchive}), encrypted under an archive password.
+ *
+ * The vault is streamed in pages of {@code EXPORT_BATCH_SIZE} entries, in account name order. Every entry is
+ * decrypted and its credentials are encoded straight into the plaintext buffer of the current chunk, which is
+ * encrypted and written to the file channel as soon as it is full. Memory use is one page of entries and one chunk,
+ * whatever the size of the vault. The credentials never become Strings, and every plaintext buffer is cleared once
+ * it is encrypted.
+ *
+ * The archive is written to a ".part" file next to the target, which is moved into place once the last chunk is
+ * written, so an interrupted export never leaves an archive cut short behind.
+ */
+public final class VaultExporter {
+    /**
+     * Receives the progress of an export, once per page of entries written.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int exportedEntries, int totalEntries);
+    }
+
+    // Crypto instance holding the data key of the vault.
+    private final Crypto CRYPTO;
+
+    // The Master Password, needed to decrypt legacy entries with kdf version 1.
+    private final char[] MASTER_PASSWORD;
+
+    /**
+     * VaultExporter constructor.
+     *
+     * @param crypto the Crypto instance holding the data key of the vault
+     * @param masterPassword the master password
+     */
+    public VaultExporter(Crypto crypto, char[] masterPassword) {
+        CRYPTO = crypto;
+        MASTER_PASSWORD = masterPassword;
+    }
+
+    /**
+     * Exports every entry of the vault into an archive.
+     *
+     * @param path the path of the archive, replaced if it exists
+     * @param archivePassword the password the archive is encrypted under
+     * @param kdfParameters the parameters for deriving the archive key from the archive password
+     * @param listener receives the progress of the export
+     *
+     * @return the number of exported entries
+     *
+     * @throws IOException if the archive cannot be written
+     * @throws EntryAuthenticationFailedException if an entry fails the integrity check, no archive is written
+     */
+    public int exportTo(Path path, char[] archivePassword, KDFParameters kdfParameters, ProgressListener listener)
+            throws IOException, EntryAuthenticationFailedException {
+        int totalEntries = VaultController.getVaultSize();
+        int exportedEntries = 0;
+        listener.onProgress(exportedEntries, totalEntries);
+
+        var header = VaultArchive.Header.create(kdfParameters);
+        var partial = path.resolveSibling(path.getFileName() + ".part");
+
+        try (var channel = FileChannel.open(partial, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            var writer = new ChunkWriter(channel, header, VaultArchive.deriveKey(archivePassword, header));
+
+            String cursor = "";
+            List<AccountEntry> page;
+            while (!(page = VaultController.retrieveAccountsAfter(cursor, EXPORT_BATCH_SIZE)).isEmpty()) {
+                for (var entry : page) {
+                    writeEntry(writer, entry);
+                }
+                cursor = page.get(page.size() - 1).accountName();
+
+                exportedEntries += page.size();
+                listener.onProgress(exportedEntries, totalEntries);
+            }
+
+            writer.finish();
+            channel.force(false);
+        }
+        catch (IOException | EntryAuthenticationFailedException | RuntimeException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+
+        Files.move(partial, path, REPLACE_EXISTING, ATOMIC_MOVE);
+        return exportedEntries;
+    }
+
+    /**
+     * Decrypts an entry and writes it as a record of the archive.
+     */
+    private void writeEntry(ChunkWriter writer, AccountEntry entry)
+            throws IOException, EntryAuthenticationFailedException {
+        char[][] credentials;
+        if (entry.cipherSuite() == CipherSuite.AES_CBC) {
+            credentials = CRYPTO.decryptLegacy(entry, MASTER_PASSWORD);
+        }
+        else {
+            credentials = CRYPTO.decrypt(entry.cipherSuite(), entry.accountName(),
+                    entry.ciphertextUsername(), entry.ciphertextPassword(), entry.salt(), entry.iv());
+        }
+
+        try {
+            var associatedEmail = entry.associatedEmail();
+            writer.putField(CharBuffer.wrap(entry.accountName()));
+            writer.putField("nil".equals(associatedEmail) ? null : CharBuffer.wrap(associatedEmail));
+            writer.putField(CharBuffer.wrap(credentials[0]));
+            writer.putField(CharBuffer.wrap(credentials[1]));
+        }
+        finally {
+            // Clear the credentials from memory.
+            clearCharArrayFromMemory(credentials[0]);
+            clearCharArrayFromMemory(credentials[1]);
+        }
+    }
+
+
+    //--------------------
+
+
+    /**
+     * Cuts the plaintext of an archive into chunks, and writes every chunk to the file channel once it is full.
+     */
+    private static final class ChunkWriter {
+        private final FileChannel CHANNEL;
+        private final VaultArchive.Header HEADER;
+        private final SecretKey KEY;
+        private final Cipher CIPHER = VaultArchive.newCipher();
+        private final CharsetEncoder ENCODER = StandardCharsets.UTF_8.newEncoder();
+
+        // Plaintext of the current chunk, and the encrypted chunk on its way to the channel.
+        private final ByteBuffer PLAINTEXT;
+        private final ByteBuffer OUTPUT;
+
+        private int index = 0;
+
+        private ChunkWriter(FileChannel channel, VaultArchive.Header header, SecretKey key) throws IOException {
+            CHANNEL = channel;
+            HEADER = header;
+            KEY = key;
+            PLAINTEXT = ByteBuffer.allocate(header.chunkSize());
+            OUTPUT = ByteBuffer.allocateDirect(header.chunkSize() + VaultArchive.CHUNK_OVERHEAD);
+
+            write(ByteBuffer.wrap(header.bytes()));
+        }
+
+        /**
+         * Append a field: its UTF-8 length, then its UTF-8 bytes.
+         *
+         * @param chars the field, or null for an absent field
+         */
+        private void putField(CharBuffer chars) throws IOException {
+            if (chars == null) {
+                putInt(-1);
+                return;
+            }
+            putInt(utf8Length(chars));
+
+            // Encode straight into the chunk, a field longer than the room left continues in the next chunk.
+            ENCODER.reset();
+            CoderResult result;
+            while ((result = ENCODER.encode(chars, PLAINTEXT, true)).isOverflow()) {
+                writeChunk(false);
+            }
+            if (result.isError())
+                result.throwException();
+            while (ENCODER.flush(PLAINTEXT).isOverflow()) {
+                writeChunk(false);
+            }
+        }
+
+        private void putInt(int value) throws IOException {
+            if (PLAINTEXT.remaining() < Integer.BYTES)
+                writeChunk(false);
+            PLAINTEXT.putInt(value);
+        }
+
+        /**
+         * Write the last chunk, flagged as final. It is empty if the plaintext ends on a chunk boundary.
+         */
+        private void finish() throws IOException {
+            writeChunk(true);
+        }
+
+        /**
+         * Encrypt the plaintext of the current chunk, write it to the channel and clear the plaintext.
+         */
+        private void writeChunk(boolean last) throws IOException {
+            PLAINTEXT.flip();
+            OUTPUT.clear();
+            VaultArchive.encryptChunk(CIPHER, KEY, HEADER, index++, last, PLAINTEXT, OUTPUT);
+            write(OUTPUT.flip());
+
+            Arrays.fill(PLAINTEXT.array(), (byte) 0);
+            PLAINTEXT.clear();
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                CHANNEL.write(buffer);
+            }
+        }
+
+        /**
+         * Get the number of bytes of the UTF-8 encoding of a char sequence, without encoding it.
+         */
+        private static int utf8Length(CharBuffer chars) {
+            int length = 0;
+            for (int i = chars.position(); i < chars.limit(); i++) {
+                char c = chars.get(i);
+                if (c < 0x80) {
+                    length += 1;
+                }
+                else if (c < 0x800) {
+                    length += 2;
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < chars.limit()
+                        && Character.isLowSurrogate(chars.get(i + 1))) {
+                    length += 4;
+                    i++;
+                }
+                else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+
+} // class VaultExporter
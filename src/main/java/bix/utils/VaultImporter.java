@@ -0,0 +1,292 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.EntryAuthenticationFailedException;
+import bix.exceptions.VaultRekeyInProgressException;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+import static bix.utils.Constants.IMPORT_BATCHES_IN_FLIGHT;
+import static bix.utils.Constants.KDF_VERSION_HKDF;
+
+/**
+ * Imports the accounts of an import file into the vault. Accounts already in the vault are never overwritten: a
+ * record matching the existing entry is reported as a duplicate, any other record with the same account name as a
+ * conflict.
+ *
+ * The import runs as a pipeline of 3 stages, like {@code VaultRekeyer}:
+ * 1. Reader: the calling thread reads the file lazily in batches of {@code batchSize} records, and retrieves the
+ *    existing entry of every account name already in the vault.
+ * 2. Crypto: the records of each batch are encrypted, or compared against their existing entry, in parallel on a
+ *    ForkJoinPool sized to the available cores. The credentials of every record are cleared once it is processed.
+ * 3. Writer: a single thread adds the new entries of every batch to the vault in order, each batch in one
+ *    transaction.
+ *
+ * At most {@code IMPORT_BATCHES_IN_FLIGHT} batches are held between the reader and the writer, so memory use does
+ * not grow with the size of the file.
+ */
+public final class VaultImporter {
+    /**
+     * Receives the progress of an import, once per batch written.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int processedRecords);
+    }
+
+    // Crypto instance holding the data key new entries are encrypted under.
+    private final Crypto CRYPTO;
+
+    // The Master Password, needed to decrypt legacy entries with kdf version 1.
+    private final char[] MASTER_PASSWORD;
+
+    // Number of records written together in one transaction.
+    private final int BATCH_SIZE;
+
+    /**
+     * VaultImporter constructor.
+     *
+     * @param crypto the Crypto instance holding the data key of the vault
+     * @param masterPassword the master password
+     * @param batchSize the number of records written together in one transaction
+     */
+    public VaultImporter(Crypto crypto, char[] masterPassword, int batchSize) {
+        CRYPTO = crypto;
+        MASTER_PASSWORD = masterPassword;
+        BATCH_SIZE = Math.max(batchSize, 1);
+    }
+
+    /**
+     * Imports every record of an import file into the vault. The source is not closed.
+     *
+     * @param source the import file
+     * @param listener receives the progress of the import
+     *
+     * @return the report of the import
+     *
+     * @throws IOException if the file cannot be read or is malformed; the batches before the error stay imported
+     * @throws VaultRekeyInProgressException if another session began a rekey of the vault; the batches before it
+     *     stay imported
+     */
+    public ImportReport importFrom(ImportSource source, ProgressListener listener) throws IOException {
+        ForkJoinPool cryptoPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+
+        // Account names read so far, a name repeated in the file is a conflict.
+        var seenAccountNames = new HashSet<String>();
+
+        // Results, only touched by the writer thread while the import runs.
+        var duplicates = new ArrayList<String>();
+        var conflicts = new ArrayList<String>();
+        int[] imported = {0};
+        int[] processedRecords = {0};
+        int[] invalid = {0};
+
+        // Every write waits for the previous one, so batches are written and reported in order.
+        var inFlight = new ArrayDeque<CompletableFuture<Void>>();
+        CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+        try {
+            List<Pending> batch;
+            while (!(batch = readBatch(source, seenAccountNames, invalid)).isEmpty()) {
+                final var pending = batch;
+                var processedBatch = CompletableFuture.supplyAsync(
+                        () -> pending.parallelStream().map(this::processRecord).toList(), cryptoPool);
+
+                lastWrite = lastWrite.thenCombineAsync(processedBatch, (previous, outcomes) -> {
+                    var entries = new ArrayList<AccountEntry>(outcomes.size());
+                    for (var outcome : outcomes) {
+                        switch (outcome.kind()) {
+                            case NEW -> entries.add(outcome.entry());
+                            case DUPLICATE -> duplicates.add(outcome.accountName());
+                            case CONFLICT -> conflicts.add(outcome.accountName());
+                        }
+                    }
+
+                    // An account added to the vault since its record was read is a conflict as well.
+                    var existing = VaultController.addAccounts(entries);
+                    conflicts.addAll(existing);
+                    imported[0] += entries.size() - existing.size();
+
+                    processedRecords[0] += outcomes.size();
+                    listener.onProgress(processedRecords[0]);
+                    return null;
+                }, writer);
+                inFlight.add(lastWrite);
+
+                // Wait for the oldest batch to be written before reading further ahead.
+                if (inFlight.size() >= IMPORT_BATCHES_IN_FLIGHT) {
+                    inFlight.remove().join();
+                }
+            }
+
+            lastWrite.join();
+        }
+        catch (CompletionException e) {
+            // A batch refused by the vault store reaches here wrapped by the writer thread.
+            if (e.getCause() instanceof VaultRekeyInProgressException rekeyInProgress)
+                throw rekeyInProgress;
+            throw e;
+        }
+        finally {
+            cryptoPool.shutdown();
+
+            // The writer thread ends with the import, so its pooled connection is closed with it.
+            writer.execute(VaultController::closeConnection);
+            writer.shutdown();
+        }
+
+        return new ImportReport(imported[0], duplicates, conflicts, invalid[0]);
+    }
+
+    /**
+     * Reads the next batch of records, and retrieves the existing entry of every account name already in the vault.
+     * Records without an account name, or without any credential (e.g. the secure notes of other password managers),
+     * are cleared and counted as invalid.
+     *
+     * @param source the import file
+     * @param seenAccountNames the account names read so far, updated with the names of the batch
+     * @param invalid the number of invalid records so far, updated with the invalid records of the batch
+     *
+     * @return up to {@code BATCH_SIZE} records, empty once the end of the file is reached
+     */
+    private List<Pending> readBatch(ImportSource source, HashSet<String> seenAccountNames, int[] invalid)
+            throws IOException {
+        var batch = new ArrayList<Pending>(BATCH_SIZE);
+        try {
+            ImportRecord record;
+            while (batch.size() < BATCH_SIZE && (record = source.next()) != null) {
+                var accountName = record.accountName();
+                if (accountName == null || accountName.isBlank()
+                        || record.username().length == 0 && record.password().length == 0) {
+                    record.clear();
+                    invalid[0]++;
+                    continue;
+                }
+
+                boolean repeated = !seenAccountNames.add(accountName);
+                batch.add(new Pending(record, repeated ? null : retrieveExisting(accountName), repeated));
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // The records of an unfinished batch never reach the crypto stage, their credentials are cleared here.
+            for (var pending : batch) {
+                pending.record().clear();
+            }
+            throw e;
+        }
+        return batch;
+    }
+
+    /**
+     * Retrieves the existing entry of an account name, an indexed lookup.
+     *
+     * @return the existing entry, or null if the account name is not in the vault
+     */
+    private static AccountEntry retrieveExisting(String accountName) {
+        try {
+            return VaultController.retrieveAccount(accountName);
+        }
+        catch (AccountNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Encrypts a new record, or compares it against the existing entry with the same account name. Runs on the
+     * crypto pool. The credentials of the record are cleared once it is processed.
+     *
+     * @param pending the record, along with its existing entry
+     *
+     * @return the outcome of the record
+     */
+    private Outcome processRecord(Pending pending) {
+        var record = pending.record();
+        var accountName = record.accountName();
+        try {
+            if (pending.repeated())
+                return new Outcome(Kind.CONFLICT, accountName, null);
+
+            if (pending.existing() != null) {
+                return new Outcome(matchesEntry(record, pending.existing()) ? Kind.DUPLICATE : Kind.CONFLICT,
+                        accountName, null);
+            }
+
+            byte[][] encrypted = CRYPTO.encrypt(accountName, record.username(), record.password());
+            return new Outcome(Kind.NEW, accountName, new AccountEntry(accountName, record.associatedEmail(),
+                    encrypted[0], encrypted[1], encrypted[2], encrypted[3],
+                    null, KDF_VERSION_HKDF, CRYPTO.getCipherSuite()));
+        }
+        finally {
+            record.clear();
+        }
+    }
+
+    /**
+     * Checks if a record holds the same email and credentials as an existing entry. An entry which fails the
+     * integrity check never matches.
+     */
+    private boolean matchesEntry(ImportRecord record, AccountEntry entry) {
+        var existingEmail = "nil".equals(entry.associatedEmail()) ? null : entry.associatedEmail();
+        if (!Objects.equals(existingEmail, record.associatedEmail()))
+            return false;
+
+        char[][] credentials;
+        try {
+            if (entry.cipherSuite() == CipherSuite.AES_CBC) {
+                credentials = CRYPTO.decryptLegacy(entry, MASTER_PASSWORD);
+            }
+            else {
+                credentials = CRYPTO.decrypt(entry.cipherSuite(), entry.accountName(),
+                        entry.ciphertextUsername(), entry.ciphertextPassword(), entry.salt(), entry.iv());
+            }
+        }
+        catch (EntryAuthenticationFailedException e) {
+            return false;
+        }
+
+        boolean matches = Arrays.equals(credentials[0], record.username())
+                && Arrays.equals(credentials[1], record.password());
+
+        // Clear the credentials from memory.
+        clearCharArrayFromMemory(credentials[0]);
+        clearCharArrayFromMemory(credentials[1]);
+        return matches;
+    }
+
+
+    //--------------------
+
+
+    /**
+     * A record read from the import file, along with the existing entry of its account name.
+     *
+     * @param existing the entry already in the vault, or null
+     * @param repeated true if the account name was already read earlier in the file
+     */
+    private record Pending(ImportRecord record, AccountEntry existing, boolean repeated) {}
+
+    private enum Kind { NEW, DUPLICATE, CONFLICT }
+
+    /**
+     * The outcome of a record: a new entry to add, a duplicate or a conflict.
+     *
+     * @param entry the encrypted entry to add, null unless the record is new
+     */
+    private record Outcome(Kind kind, String accountName, AccountEntry entry) {}
+
+} // class VaultImporter
@@ -0,0 +1,193 @@
+package bix.utils;
+
+import bix.enums.AESFlavor;
+import bix.enums.CipherSuite;
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory copy of the "bix_metadata" table with typed accessors for the Bix settings.
+ *
+ * The copy is loaded with a single query, and reads never touch the database. Every write goes to the table first
+ * and only then to the copy, so the copy never holds a value the table does not. A single value is written
+ * immediately, several values are written together in a single transaction.
+ *
+ * The "rekey_cursor" field is also written by {@code VaultController.updateAccounts()}, along with every rekey batch,
+ * and the "rekey_heartbeat" field by {@code VaultRekeyer} while a rekey runs, without going through this class; they
+ * are only read from the copy when resuming a rekey, before any batch is written.
+ */
+public final class VaultMetadata {
+    // Metadata values, mapped by id.
+    private final HashMap<String, String> VALUES;
+
+    /**
+     * VaultMetadata constructor.
+     *
+     * @param values the metadata values, mapped by id
+     */
+    private VaultMetadata(HashMap<String, String> values) {
+        this.VALUES = values;
+    }
+
+    /**
+     * Load every metadata value from the "bix_metadata" table in a single query.
+     *
+     * @return the loaded metadata
+     */
+    public static VaultMetadata load() {
+        return new VaultMetadata(VaultController.getAllMetadata());
+    }
+
+    /**
+     * Get a String metadata value.
+     *
+     * @param id the id of the metadata field
+     *
+     * @return the value, or null if the field is empty or absent
+     */
+    public String getString(String id) {
+        return VALUES.get(id);
+    }
+
+    /**
+     * Get an int metadata value.
+     *
+     * @param id the id of the metadata field
+     *
+     * @return the value, or 0 if the field is empty, absent or not an integer
+     */
+    public int getInt(String id) {
+        try {
+            return Integer.parseInt(VALUES.get(id));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Check if the initial Bix setup is complete.
+     */
+    public boolean isSetupComplete() {
+        return Boolean.parseBoolean(getString("setup_complete"));
+    }
+
+    /**
+     * Get how long a session can be idle, in seconds, before it is terminated.
+     */
+    public int getIdleSessionTimeout() {
+        return getInt("idle_session_timeout");
+    }
+
+    /**
+     * Get how long credentials are displayed, in seconds.
+     */
+    public int getCredentialDisplayDuration() {
+        return getInt("credential_display_duration");
+    }
+
+    /**
+     * Get the number of failed login attempts since the last successful one.
+     */
+    public int getFailedLoginAttempts() {
+        return getInt("failed_login_attempts");
+    }
+
+    /**
+     * Get the AES flavor the vault is encrypted with.
+     */
+    public AESFlavor getAESFlavor() {
+        return AESFlavor.fromString(getString("aes_flavor"));
+    }
+
+    /**
+     * Get the cipher suite new entries are encrypted with.
+     */
+    public CipherSuite getCipherSuite() {
+        return CipherSuite.fromString(getString("cipher_suite"));
+    }
+
+    /**
+     * Get the parameters for deriving the master key from the Master Password.
+     *
+     * @return the key derivation parameters
+     */
+    public KDFParameters getKDFParameters() {
+        return new KDFParameters(
+                KDFAlgorithm.fromString(getString("kdf_algorithm")),
+                getInt("kdf_iterations"),
+                getInt("kdf_memory_kib"),
+                getInt("kdf_parallelism"));
+    }
+
+    /**
+     * Get the providers selected for the cryptographic primitives.
+     *
+     * @return the name of the provider selected for every primitive which has one
+     */
+    public EnumMap<CryptoPrimitive, String> getProviders() {
+        var providers = new EnumMap<CryptoPrimitive, String>(CryptoPrimitive.class);
+        for (var primitive : CryptoPrimitive.values()) {
+            var provider = getString(primitive.metadataId());
+            if (provider != null)
+                providers.put(primitive, provider);
+        }
+        return providers;
+    }
+
+    /**
+     * Write a String metadata value through to the "bix_metadata" table.
+     *
+     * @param id the id of the metadata field
+     * @param value the new value, can be null
+     */
+    public void set(String id, String value) {
+        VaultController.updateMetadata(id, value);
+        VALUES.put(id, value);
+    }
+
+    /**
+     * Write an int metadata value through to the "bix_metadata" table.
+     *
+     * @param id the id of the metadata field
+     * @param value the new value
+     */
+    public void set(String id, int value) {
+        set(id, String.valueOf(value));
+    }
+
+    /**
+     * Write several metadata values through to the "bix_metadata" table in a single transaction.
+     * Used for metadata values which are only valid together, e.g. the master key salt and the wrapped data key.
+     *
+     * @param values the new values, mapped by id; values can be null
+     */
+    public void set(Map<String, String> values) {
+        VaultController.updateMetadata(values);
+        VALUES.putAll(values);
+    }
+
+    /**
+     * Write several metadata values through to the "bix_metadata" table in a single transaction, if the values of
+     * the table are the expected ones. Used for metadata values another Bix session may have written since the copy
+     * was loaded, e.g. the rekey lease and the data key it is about.
+     *
+     * @param expected the expected values in the table, mapped by id; values can be null
+     * @param values the new values, mapped by id; values can be null
+     *
+     * @return true if the values were written, false if the table did not hold the expected values, the copy is
+     *     then left as it is
+     */
+    public boolean compareAndSet(Map<String, String> expected, Map<String, String> values) {
+        if (!VaultController.compareAndUpdateMetadata(expected, values))
+            return false;
+
+        VALUES.putAll(values);
+        return true;
+    }
+
+} // class VaultMetadata
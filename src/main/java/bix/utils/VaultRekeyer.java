@@ -0,0 +1,206 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.exceptions.EntryAuthenticationFailedException;
+import bix.exceptions.VaultRekeyInProgressException;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static bix.utils.Utils.clearCharArrayFromMemory;
+
+import static bix.utils.Constants.KDF_VERSION_HKDF;
+import static bix.utils.Constants.REKEY_BATCH_SIZE;
+import static bix.utils.Constants.REKEY_BATCHES_IN_FLIGHT;
+import static bix.utils.Constants.REKEY_LEASE_HEARTBEAT_MS;
+
+/**
+ * Re-encrypts every entry in the vault under a new data key, e.g. when the data key is rotated or the AES flavor
+ * or cipher suite is changed. Legacy entries are converted to the current format (authenticated cipher suite,
+ * kdf version 2) along the way.
+ *
+ * The rekey runs as a pipeline of 3 stages:
+ * 1. Reader: the calling thread streams the vault in batches of {@code REKEY_BATCH_SIZE} entries, in account name
+ *    order.
+ * 2. Crypto: the entries of each batch are decrypted with the current data key and encrypted with the new one in
+ *    parallel, on a ForkJoinPool sized to the available cores.
+ * 3. Writer: a single thread writes the batches back in order, each in one transaction, which also records the
+ *    last account name of the batch as the "rekey_cursor" metadata field.
+ *
+ * At most {@code REKEY_BATCHES_IN_FLIGHT} batches are held between the reader and the writer, so memory use does
+ * not grow with the size of the vault. Every entry up to the cursor is under the new data key and every entry after
+ * it under the current one, so an interrupted rekey resumes from the cursor.
+ *
+ * The rekey runs under the rekey lease of the session, the "rekey_owner" and "rekey_heartbeat" metadata fields,
+ * claimed before it starts. The heartbeat is renewed every {@code REKEY_LEASE_HEARTBEAT_MS} while it runs, so other
+ * sessions do not take the rekey for an interrupted one, and every batch is written with the owner: the vault
+ * refuses it if another session took the lease over meanwhile.
+ */
+public final class VaultRekeyer {
+    /**
+     * Receives the progress of a rekey, once per batch written.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int rekeyedEntries, int totalEntries);
+    }
+
+    // Crypto instance holding the current data key, and the one holding the new data key.
+    private final Crypto SOURCE;
+    private final Crypto TARGET;
+
+    // The Master Password, needed to decrypt legacy entries with kdf version 1.
+    private final char[] MASTER_PASSWORD;
+
+    // The "rekey_owner" of the rekey lease held by this session.
+    private final String LEASE_OWNER;
+
+    /**
+     * VaultRekeyer constructor.
+     *
+     * @param source the Crypto instance holding the data key the vault is currently encrypted under
+     * @param target the Crypto instance holding the new data key
+     * @param masterPassword the master password
+     * @param leaseOwner the "rekey_owner" of the rekey lease held by this session
+     */
+    public VaultRekeyer(Crypto source, Crypto target, char[] masterPassword, String leaseOwner) {
+        SOURCE = source;
+        TARGET = target;
+        MASTER_PASSWORD = masterPassword;
+        LEASE_OWNER = leaseOwner;
+    }
+
+    /**
+     * Re-encrypts every entry after {@code cursor} under the new data key.
+     *
+     * @param cursor the last account name already under the new data key; an empty String starts a new rekey
+     * @param listener receives the progress of the rekey
+     *
+     * @throws EntryAuthenticationFailedException if an entry fails the integrity check, no later batch is written
+     * @throws VaultRekeyInProgressException if another session took the rekey lease over, no later batch is written
+     */
+    public void rekey(String cursor, ProgressListener listener) throws EntryAuthenticationFailedException {
+        int totalEntries = VaultController.getVaultSize();
+        var rekeyedEntries = new AtomicInteger(totalEntries - VaultController.getVaultSizeAfter(cursor));
+        listener.onProgress(rekeyedEntries.get(), totalEntries);
+
+        ForkJoinPool cryptoPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(task -> {
+            var thread = new Thread(task, "bix-rekey-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeat.scheduleAtFixedRate(this::renewLease, REKEY_LEASE_HEARTBEAT_MS, REKEY_LEASE_HEARTBEAT_MS,
+                TimeUnit.MILLISECONDS);
+
+        // Every write waits for the previous one, so batches are committed in order and the cursor only moves
+        // forward. A failed batch fails every write chained after it.
+        var inFlight = new ArrayDeque<CompletableFuture<Void>>();
+        CompletableFuture<Void> lastWrite = CompletableFuture.completedFuture(null);
+
+        try {
+            List<AccountEntry> batch;
+            while (!(batch = VaultController.retrieveAccountsAfter(cursor, REKEY_BATCH_SIZE)).isEmpty()) {
+                cursor = batch.get(batch.size() - 1).accountName();
+
+                final var entries = batch;
+                final var batchCursor = cursor;
+                var rekeyedBatch = CompletableFuture.supplyAsync(
+                        () -> entries.parallelStream().map(this::rekeyEntry).toList(), cryptoPool);
+
+                lastWrite = lastWrite.thenCombineAsync(rekeyedBatch, (previous, rekeyed) -> {
+                    VaultController.updateAccounts(rekeyed,
+                            Map.of("rekey_cursor", batchCursor, "rekey_owner", LEASE_OWNER));
+                    listener.onProgress(rekeyedEntries.addAndGet(rekeyed.size()), totalEntries);
+                    return null;
+                }, writer);
+                inFlight.add(lastWrite);
+
+                // Wait for the oldest batch to be written before reading further ahead.
+                if (inFlight.size() >= REKEY_BATCHES_IN_FLIGHT) {
+                    inFlight.remove().join();
+                }
+            }
+
+            lastWrite.join();
+        }
+        catch (CompletionException e) {
+            // The integrity failure may be wrapped several times on its way out of the pool.
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof EntryAuthenticationFailedException failure)
+                    throw failure;
+                if (cause instanceof VaultRekeyInProgressException leaseLost)
+                    throw leaseLost;
+            }
+            throw e;
+        }
+        finally {
+            cryptoPool.shutdown();
+
+            heartbeat.execute(VaultController::closeConnection);
+            heartbeat.shutdown();
+
+            // The writer thread ends with the rekey, so its pooled connection is closed with it.
+            writer.execute(VaultController::closeConnection);
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * Renews the heartbeat of the rekey lease, if this session still holds it. Runs on the heartbeat thread. A lease
+     * taken over by another session is not claimed back, the next batch fails instead.
+     */
+    private void renewLease() {
+        try {
+            VaultController.compareAndUpdateMetadata(Map.of("rekey_owner", LEASE_OWNER),
+                    Map.of("rekey_heartbeat", String.valueOf(System.currentTimeMillis())));
+        }
+        catch (RuntimeException e) {
+            // An exception would cancel the next renewals, a renewal which failed is tried again at the next one.
+        }
+    }
+
+    /**
+     * Decrypts an entry with the current data key and encrypts it with the new one. Runs on the crypto pool.
+     *
+     * @param entry the entry to re-encrypt
+     *
+     * @return the re-encrypted entry, in the current format
+     */
+    private AccountEntry rekeyEntry(AccountEntry entry) {
+        char[][] credentials;
+        try {
+            if (entry.cipherSuite() == CipherSuite.AES_CBC) {
+                credentials = SOURCE.decryptLegacy(entry, MASTER_PASSWORD);
+            }
+            else {
+                credentials = SOURCE.decrypt(entry.cipherSuite(), entry.accountName(),
+                        entry.ciphertextUsername(), entry.ciphertextPassword(), entry.salt(), entry.iv());
+            }
+        }
+        catch (EntryAuthenticationFailedException e) {
+            throw new CompletionException(e);
+        }
+
+        byte[][] encrypted = TARGET.encrypt(entry.accountName(), credentials[0], credentials[1]);
+
+        // Clear the credentials from memory.
+        clearCharArrayFromMemory(credentials[0]);
+        clearCharArrayFromMemory(credentials[1]);
+
+        return new AccountEntry(entry.accountName(), entry.associatedEmail(),
+                encrypted[0], encrypted[1], encrypted[2], encrypted[3],
+                null, KDF_VERSION_HKDF, TARGET.getCipherSuite());
+    }
+
+} // class VaultRekeyer
@@ -0,0 +1,279 @@
+package bix.utils;
+
+import bix.enums.CipherSuite;
+import bix.enums.CryptoPrimitive;
+import bix.enums.KDFAlgorithm;
+import bix.exceptions.AccountAlreadyExistsException;
+import bix.exceptions.AccountNotFoundException;
+import bix.exceptions.InvalidSearchQueryException;
+import bix.exceptions.VaultRekeyInProgressException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bix.utils.Constants.PBKDF2_ITERATIONS;
+
+/**
+ * Storage backend of the vault: the account entries, keyed by account name, and the metadata values, keyed by id.
+ * {@code VaultController} forwards every vault operation to the store selected by the "vault_store" config property.
+ *
+ * Entries are stored exactly as they are given, an absent associated email is stored as "nil". Account names are
+ * listed in ascending order: the memory and log stores compare them as Java Strings, by UTF-16 code unit, while
+ * SQLite's binary collation compares their UTF-8 bytes. Both orders agree unless a name holds a character above
+ * U+FFFF where another holds one between U+E000 and U+FFFF, which UTF-16 sorts first and UTF-8 sorts last.
+ * Every operation is safe to call from several threads at once.
+ *
+ * While a rekey is in progress, i.e. the "rekey_wrapped_data_key" metadata value is set, only the rekey writes
+ * entries: the part of the vault already rekeyed is under a data key the other sessions do not hold. The entry
+ * writes throw {@code VaultRekeyInProgressException} then, but for {@code updateAccounts()} given the "rekey_owner"
+ * metadata value of the vault, i.e. the batches of the session holding the rekey lease. The check is made in the
+ * same transaction as the write.
+ */
+public interface VaultStore {
+
+    /**
+     * Create an empty vault holding the default metadata values, see {@code defaultMetadata()}. The current contents
+     * of the store are deleted.
+     */
+    void setup();
+
+    /**
+     * Bring a vault created by an older version of Bix up to the current format. Safe to run on every start.
+     */
+    default void migrate() {}
+
+    /**
+     * Get the number of entries in the vault.
+     */
+    int size();
+
+    /**
+     * Get the number of entries in the vault whose account name sorts after {@code accountName}.
+     *
+     * @param accountName the account name to count from, exclusive
+     */
+    int sizeAfter(String accountName);
+
+    /**
+     * Get the account names of all the entries in the vault.
+     */
+    ArrayList<String> getAccountNames();
+
+    /**
+     * Get the next page of account names in alphabetical order.
+     *
+     * @param accountName the account name to start after, exclusive; an empty String starts at the first name
+     * @param limit the maximum number of account names to retrieve
+     *
+     * @return a list containing up to {@code limit} account names, empty once the end of the vault is reached
+     */
+    ArrayList<String> getAccountNamesAfter(String accountName, int limit);
+
+    /**
+     * Full-text search over the account names and associated emails, see {@code VaultController.searchAccounts()}.
+     * Stores without a full-text index scan every entry with a {@code SearchQuery}, their matches are listed in
+     * account name order.
+     *
+     * @param query the full-text query
+     * @param limit the maximum number of account names to return
+     *
+     * @return the matching account names, best match first
+     *
+     * @throws InvalidSearchQueryException if the query is not valid query syntax
+     */
+    ArrayList<String> searchAccounts(String query, int limit) throws InvalidSearchQueryException;
+
+    /**
+     * Check if an account name exists in the vault.
+     */
+    boolean accountExists(String accountName);
+
+    /**
+     * Add an account entry to the vault.
+     *
+     * @throws AccountAlreadyExistsException if the account name already exists, the existing entry is left untouched
+     * @throws VaultRekeyInProgressException if a rekey is in progress
+     */
+    void addAccount(AccountEntry entry) throws AccountAlreadyExistsException;
+
+    /**
+     * Add a batch of account entries to the vault, all at once. An entry whose account name already exists in the
+     * vault is not written, the existing entry is left untouched.
+     *
+     * @return the account names of the entries which were not written, because they already exist in the vault
+     *
+     * @throws VaultRekeyInProgressException if a rekey is in progress, no entry is written
+     */
+    ArrayList<String> addAccounts(List<AccountEntry> entries);
+
+    /**
+     * Retrieve an account entry.
+     *
+     * @throws AccountNotFoundException if the account does not exist in the vault
+     */
+    AccountEntry retrieveAccount(String accountName) throws AccountNotFoundException;
+
+    /**
+     * Retrieve the next page of account entries in account name order.
+     *
+     * @param accountName the account name to start after, exclusive; an empty String starts at the first entry
+     * @param limit the maximum number of entries to retrieve
+     *
+     * @return a list containing up to {@code limit} entries, empty once the end of the vault is reached
+     */
+    ArrayList<AccountEntry> retrieveAccountsAfter(String accountName, int limit);
+
+    /**
+     * Replace an existing account entry, matched by account name.
+     *
+     * @throws AccountNotFoundException if the account does not exist in the vault
+     * @throws VaultRekeyInProgressException if a rekey is in progress
+     */
+    void updateAccount(AccountEntry entry) throws AccountNotFoundException;
+
+    /**
+     * Replace a batch of existing account entries, along with metadata values, all at once: either every entry and
+     * metadata value is written or none is. Entries whose account name does not exist are skipped.
+     *
+     * @param entries the entries to update, matched by account name
+     * @param metadata the metadata values to update, mapped by id
+     *
+     * @throws VaultRekeyInProgressException if a rekey is in progress and {@code metadata} does not hold its
+     *     "rekey_owner", nothing is written
+     */
+    void updateAccounts(List<AccountEntry> entries, Map<String, String> metadata);
+
+    /**
+     * Delete an account entry.
+     *
+     * @return true if the entry was deleted, false if the account does not exist in the vault
+     *
+     * @throws VaultRekeyInProgressException if a rekey is in progress
+     */
+    boolean deleteAccount(String accountName);
+
+    /**
+     * Get the counters of the Bloom filter over the account names which stores keeping one check lookups against
+     * before reading the vault, see {@code AccountNameFilter}.
+     *
+     * @return the counters, or null if the store keeps no account name filter
+     */
+    default AccountNameFilterStats getAccountNameFilterStats() {
+        return null;
+    }
+
+    /**
+     * Check if the vault was written to through another connection since the previous check, e.g. by another Bix
+     * session sharing the vault, and drop the caches of the store the write may have made stale. Cheap enough to be
+     * called before every command: it does not read the vault unless it was written to.
+     *
+     * @return the data version of the vault, a counter advanced by every check which found the vault written to;
+     *     writes of this process may advance it too. Stores no other process writes to keep it at 0.
+     */
+    default long checkDataVersion() {
+        return 0;
+    }
+
+    /**
+     * Get every metadata value.
+     *
+     * @return the metadata values, mapped by id
+     */
+    HashMap<String, String> getAllMetadata();
+
+    /**
+     * Get a metadata value.
+     *
+     * @return the metadata value, null if it is unset or the id does not exist
+     */
+    String getMetadata(String id);
+
+    /**
+     * Update several metadata values at once, they are written together. Ids which do not exist are skipped.
+     *
+     * @param values the new metadata values, mapped by id
+     */
+    void updateMetadata(Map<String, String> values);
+
+    /**
+     * Update several metadata values at once if other metadata values are the expected ones, checked in the same
+     * transaction as the write: e.g. the rekey lease is only claimed if no other session claimed it meanwhile. Ids
+     * which do not exist are skipped, and expected to be null.
+     *
+     * @param expected the expected metadata values, mapped by id; null for an unset value
+     * @param values the new metadata values, mapped by id
+     *
+     * @return true if the values were written, false if a metadata value was not the expected one
+     */
+    boolean compareAndUpdateMetadata(Map<String, String> expected, Map<String, String> values);
+
+    /**
+     * Delete every entry and metadata value, and the storage of the vault along with them. Irreversible.
+     */
+    void purge();
+
+    /**
+     * Release the resources the calling thread holds in the store. Used by threads which end before Bix does.
+     */
+    default void releaseThread() {}
+
+    /**
+     * Release every resource held by the store. The next operation opens the store again.
+     */
+    void close();
+
+
+    //--------------------
+
+
+    /**
+     * Check that entries may be written, see the rekey in the description of the class.
+     *
+     * @param rekeyWrappedDataKey the "rekey_wrapped_data_key" metadata value of the vault
+     * @param rekeyOwner the "rekey_owner" metadata value of the vault
+     * @param metadata the metadata values written along with the entries, null if none
+     *
+     * @throws VaultRekeyInProgressException if a rekey is in progress, and the write is not one of its batches
+     */
+    static void checkEntryWrite(String rekeyWrappedDataKey, String rekeyOwner, Map<String, String> metadata) {
+        if (rekeyWrappedDataKey != null
+                && (rekeyOwner == null || metadata == null || !rekeyOwner.equals(metadata.get("rekey_owner"))))
+            throw new VaultRekeyInProgressException();
+    }
+
+    /**
+     * Get the metadata values of a new vault, in the order they are written.
+     *
+     * @return the default metadata values, mapped by id
+     */
+    static LinkedHashMap<String, String> defaultMetadata() {
+        var metadata = new LinkedHashMap<String, String>();
+        metadata.put("setup_complete", "false");
+        metadata.put("master_password_hash", null);
+        metadata.put("master_key_salt", null);
+        metadata.put("kdf_algorithm", KDFAlgorithm.PBKDF2.toString());
+        metadata.put("kdf_iterations", String.valueOf(PBKDF2_ITERATIONS));
+        metadata.put("kdf_memory_kib", "0");
+        metadata.put("kdf_parallelism", "1");
+        metadata.put("wrapped_data_key", null);
+        metadata.put("cipher_suite", CipherSuite.AES_GCM.toString());
+        metadata.put("rekey_wrapped_data_key", null);
+        metadata.put("rekey_aes_flavor", null);
+        metadata.put("rekey_cipher_suite", null);
+        metadata.put("rekey_cursor", null);
+        metadata.put("rekey_owner", null);
+        metadata.put("rekey_heartbeat", null);
+        for (var primitive : CryptoPrimitive.values()) {
+            metadata.put(primitive.metadataId(), null);
+        }
+        metadata.put("aes_flavor", "256");
+        metadata.put("idle_session_timeout", "300");
+        metadata.put("credential_display_duration", "30");
+        metadata.put("failed_login_attempts", "0");
+        return metadata;
+    }
+
+} // interface VaultStore